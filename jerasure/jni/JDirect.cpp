@@ -0,0 +1,75 @@
+#include <stdlib.h>
+
+#include "JDirect.h"
+#include "jerasure.h"
+#include "javautility.h"
+
+#define talloc(type, num) (type *) malloc(sizeof(type)*(num))
+
+/*
+* Class:     fr_eurecom_hybris_JerasureDirect
+* Method:    multiply
+* Signature: (III[IILjava/nio/ByteBuffer;I[I[I)V
+*
+* Multiplies in place chunks of <size> bytes laid out one after the other
+* in a direct buffer: chunk out_ids[i] = row i of matrix * chunks in_ids.
+* The matrix is a bit-matrix (XORing packets of <packetsize> bytes)
+* if packetsize > 0, a GF(2^w) matrix otherwise.
+* Throws IllegalArgumentException if any chunk lies (partly) outside the slab.
+*/
+JNIEXPORT void JNICALL Java_fr_eurecom_hybris_JerasureDirect_multiply
+	(JNIEnv *env, jclass clazz, jint k, jint rows, jint w, jintArray jmatrix, jint packetsize,
+	 jobject jslab, jint size, jintArray jin_ids, jintArray jout_ids)
+{
+	char *slab = (char *) env->GetDirectBufferAddress(jslab);
+	if(slab == NULL) {
+		throwIllegalArgumentException(env, "The slab must be a direct buffer");
+		return;
+	}
+	jlong capacity = env->GetDirectBufferCapacity(jslab);
+	jlong matrix_len = (jlong) rows * k * (packetsize > 0 ? w * w : 1);
+	if(k <= 0 || rows < 0 || size <= 0 || (packetsize > 0 && size % ((jlong) w * packetsize) != 0)
+			|| env->GetArrayLength(jin_ids) < k || env->GetArrayLength(jout_ids) < rows
+			|| env->GetArrayLength(jmatrix) < matrix_len) {
+		throwIllegalArgumentException(env, "Invalid coding parameters");
+		return;
+	}
+
+	char **data_ptrs = talloc(char *, k);
+	char **coding_ptrs = talloc(char *, rows);
+	jint* in_ids = env->GetIntArrayElements(jin_ids, NULL);
+	jint* out_ids = env->GetIntArrayElements(jout_ids, NULL);
+	jint* matrix = env->GetIntArrayElements(jmatrix, NULL);
+
+	if(data_ptrs != NULL && coding_ptrs != NULL && in_ids != NULL && out_ids != NULL && matrix != NULL) {
+		// every chunk must lie within the slab
+		bool valid = true;
+		for(int i = 0; i < k && valid; ++i)
+			valid = in_ids[i] >= 0 && ((jlong) in_ids[i] + 1) * size <= capacity;
+		for(int i = 0; i < rows && valid; ++i)
+			valid = out_ids[i] >= 0 && ((jlong) out_ids[i] + 1) * size <= capacity;
+
+		if(!valid) {
+			throwIllegalArgumentException(env, "Chunk ids out of the bounds of the slab");
+		} else {
+			for(int i = 0; i < k; ++i)
+				data_ptrs[i] = slab + (long) in_ids[i] * size;
+			for(int i = 0; i < rows; ++i)
+				coding_ptrs[i] = slab + (long) out_ids[i] * size;
+
+			if(packetsize > 0)
+				jerasure_bitmatrix_encode(k, rows, w, (int*)matrix, data_ptrs, coding_ptrs, size, packetsize);
+			else
+				jerasure_matrix_encode(k, rows, w, (int*)matrix, data_ptrs, coding_ptrs, size);
+		}
+	} else {
+		throwOutOfMemoryError(env, "Could not get the matrix and chunk ids from Java");
+	}
+
+	// nothing to copy back: the chunks have been written in place
+	if(matrix != NULL) env->ReleaseIntArrayElements(jmatrix, matrix, JNI_ABORT);
+	if(out_ids != NULL) env->ReleaseIntArrayElements(jout_ids, out_ids, JNI_ABORT);
+	if(in_ids != NULL) env->ReleaseIntArrayElements(jin_ids, in_ids, JNI_ABORT);
+	free(coding_ptrs);
+	free(data_ptrs);
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2013 EURECOM (www.eurecom.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.eurecom.hybris;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * Pool of reusable byte arrays, classed by their exact length:
+ * the chunks of erasure coded values are uploaded and hashed as whole
+ * arrays, and their length only depends on the size of the value,
+ * so that steady-state traffic of similar values reuses the same arrays.
+ * Direct (off-heap) buffers, e.g. the slabs of erasure coded chunks, are pooled the same way.
+ * At most <capacity> bytes are kept: buffers released beyond that
+ * are left to the garbage collector.
+ * NB: the buffers handed out are not zeroed.
+ * With assertions enabled, the buffers lent are tracked by identity, so that
+ * releasing a buffer twice, or one not taken from the pool, fails an assertion.
+ * @author P. Viotti
+ */
+public class BufferPool {
+
+    private final long capacity;       // [B]
+    private final AtomicLong pooled = new AtomicLong();
+    private final ConcurrentHashMap<Integer, Queue<byte[]>> free = new ConcurrentHashMap<Integer, Queue<byte[]>>();
+    private final ConcurrentHashMap<Integer, Queue<ByteBuffer>> freeDirect = new ConcurrentHashMap<Integer, Queue<ByteBuffer>>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    // buffers taken and not released yet, only tracked with assertions enabled (weak keys compare by identity)
+    private final Set<Object> lent = Collections.newSetFromMap(new MapMaker().weakKeys().<Object, Boolean>makeMap());
+
+    /**
+     * @param capacity [B] 0 to disable pooling
+     */
+    public BufferPool(long capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("The capacity must not be negative");
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return an array of <length> bytes, with arbitrary content
+     */
+    public byte[] take(int length) {
+        Queue<byte[]> buffers = this.free.get(length);
+        byte[] buffer = buffers == null ? null : buffers.poll();
+        if (buffer == null) {
+            this.misses.incrementAndGet();
+            buffer = new byte[length];
+        } else {
+            this.pooled.addAndGet(-length);
+            this.hits.incrementAndGet();
+        }
+        assert this.lent.add(buffer);
+        return buffer;
+    }
+
+    /**
+     * Returns an array to the pool: the caller must not use it afterwards.
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null || buffer.length == 0)
+            return;
+        assert this.lent.remove(buffer) : "Array released twice or not taken from the pool";
+        this.pool(buffer);
+    }
+
+    /**
+     * Hands an array not taken from the pool (e.g. returned by a KvStore driver)
+     * over to it: the caller must not use it afterwards.
+     */
+    public void adopt(byte[] buffer) {
+        if (buffer == null || buffer.length == 0)
+            return;
+        assert !this.lent.contains(buffer) : "Array taken from the pool: it must be released";
+        this.pool(buffer);
+    }
+
+    private void pool(byte[] buffer) {
+        if (this.pooled.addAndGet(buffer.length) > this.capacity) {
+            this.pooled.addAndGet(-buffer.length);
+            return;
+        }
+        Queue<byte[]> buffers = this.free.get(buffer.length);
+        if (buffers == null) {
+            Queue<byte[]> newBuffers = new ConcurrentLinkedQueue<byte[]>();
+            buffers = this.free.putIfAbsent(buffer.length, newBuffers);
+            if (buffers == null)
+                buffers = newBuffers;
+        }
+        buffers.add(buffer);
+    }
+
+    /**
+     * @return a direct buffer of <capacity> bytes, with arbitrary content
+     */
+    public ByteBuffer takeDirect(int capacity) {
+        Queue<ByteBuffer> buffers = this.freeDirect.get(capacity);
+        ByteBuffer buffer = buffers == null ? null : buffers.poll();
+        if (buffer == null) {
+            this.misses.incrementAndGet();
+            buffer = ByteBuffer.allocateDirect(capacity);
+        } else {
+            this.pooled.addAndGet(-capacity);
+            this.hits.incrementAndGet();
+            buffer.clear();
+        }
+        assert this.lent.add(buffer);
+        return buffer;
+    }
+
+    /**
+     * Returns a direct buffer to the pool: the caller must not use it afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() == 0)
+            return;
+        assert this.lent.remove(buffer) : "Buffer released twice or not taken from the pool";
+        if (this.pooled.addAndGet(buffer.capacity()) > this.capacity) {
+            this.pooled.addAndGet(-buffer.capacity());
+            return;
+        }
+        Queue<ByteBuffer> buffers = this.freeDirect.get(buffer.capacity());
+        if (buffers == null) {
+            Queue<ByteBuffer> newBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+            buffers = this.freeDirect.putIfAbsent(buffer.capacity(), newBuffers);
+            if (buffers == null)
+                buffers = newBuffers;
+        }
+        buffers.add(buffer);
+    }
+
+    public long getCapacity()       { return this.capacity; }
+    public long getPooledBytes()    { return this.pooled.get(); }
+    public long getHits()           { return this.hits.get(); }
+    public long getMisses()         { return this.misses.get(); }
+}
@@ -36,12 +36,32 @@ public class Config {
     public static final String HS_CLIENTID = "hybris.clientid";
     public static final String HS_TO_WRITE = "hybris.timeoutwrite";
     public static final String HS_TO_READ = "hybris.timeoutread";
+    public static final String HS_STRAGGLERS = "hybris.stragglers";
     public static final String HS_GC = "hybris.gc";
 
     public static final String HS_CRYPTO = "hybris.crypto";
+
+    public static final String HEDGED_READS = "hybris.hedgedreads";
+    public static final String HEDGED_READS_PERCENTILE = "hybris.hedgedreads.percentile";
+    public static final String HEDGED_READS_DELAY = "hybris.hedgedreads.delay";
+
+    public static final String ADAPTIVE_TIMEOUTS = "hybris.adaptivetimeouts";
+    public static final String ADAPTIVE_TIMEOUTS_PERCENTILE = "hybris.adaptivetimeouts.percentile";
+    public static final String ADAPTIVE_TIMEOUTS_FACTOR = "hybris.adaptivetimeouts.factor";
+    public static final String ADAPTIVE_TIMEOUTS_MIN = "hybris.adaptivetimeouts.min";
+
+    public static final String MULTIGET_WINDOW = "hybris.multiget.window";
+    public static final String MULTIPUT_INFLIGHT_BYTES = "hybris.multiput.inflightbytes";
+    public static final String PARTS_THRESHOLD = "hybris.parts.threshold";
+    public static final String PARTS_SIZE = "hybris.parts.size";
+    public static final String PARTS_WINDOW = "hybris.parts.window";
+    public static final String RANGES_UNVERIFIED = "hybris.ranges.unverified";
     
     public static final String ECODING = "hybris.erasurecoding";
     public static final String ECODING_K = "hybris.erasurecoding.k";
+    public static final String ECODING_BUFFER_POOL = "hybris.erasurecoding.bufferpool";
+    public static final String ECODING_LIBRARY = "hybris.erasurecoding.library";
+    public static final String ECODING_TECHNIQUE = "hybris.erasurecoding.technique";
 
     public static final String CACHE_ENABLED = "hybris.cache";
     public static final String CACHE_ADDRESS = "hybris.cache.address";
@@ -56,12 +76,21 @@ public class Config {
     public static final String KVS_ROOT = "hybris.kvs.root";
     public static final String KVS_ACCOUNTSFILE = "hybris.kvs.accountsfile";
     public static final String KVS_TESTSONSTARTUP = "hybris.kvs.latencytestonstartup";
+    public static final String KVS_THREADS = "hybris.kvs.threads";
+    public static final String KVS_THREADS_PER_KVS = "hybris.kvs.threadsperkvs";
+    public static final String KVS_RERANK_PERIOD = "hybris.kvs.rerankperiod";
+    public static final String KVS_EWMA_ALPHA = "hybris.kvs.ewmaalpha";
+    public static final String KVS_BREAKER = "hybris.kvs.breaker";
+    public static final String KVS_BREAKER_FAILURE_RATE = "hybris.kvs.breaker.failurerate";
+    public static final String KVS_BREAKER_OPEN_TIME = "hybris.kvs.breaker.opentime";
 
     private static final String C_ACCOUNTS = "hybris.kvs.drivers";
     public static final String C_AKEY = "hybris.kvs.drivers.%s.akey";
     public static final String C_SKEY = "hybris.kvs.drivers.%s.skey";
     public static final String C_ENABLED = "hybris.kvs.drivers.%s.enabled";
     public static final String C_COST = "hybris.kvs.drivers.%s.cost";
+    public static final String C_MAX_CONCURRENCY = "hybris.kvs.drivers.%s.maxconcurrency";
+    public static final String C_MAX_RATE = "hybris.kvs.drivers.%s.maxrate";
 
     public static synchronized Config getInstance () {
         if (instance == null)
@@ -84,6 +113,17 @@ public class Config {
         return hybrisProperties.getProperty(key);
     }
 
+    /**
+     * Returns the value of an optional property, or the given default value
+     * if the property is not set or no configuration file has been loaded
+     * (i.e. when Hybris has been configured programmatically).
+     */
+    public String getProperty (String key, String defaultValue) {
+        if (hybrisProperties == null)
+            return defaultValue;
+        return hybrisProperties.getProperty(key, defaultValue);
+    }
+
     /* --------------- Accounts properties management --------------- */
 
     public synchronized void loadAccountsProperties(String propertiesFile) throws IOException {
@@ -0,0 +1,309 @@
+/**
+ * Copyright (C) 2013 EURECOM (www.eurecom.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.eurecom.hybris;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Erasure code with given parameters (k, m, w, technique).
+ * Codecs are shared by all the EcManager instances: the coding matrix
+ * is computed once, and so are the decoding matrices of the erasure patterns
+ * met while decoding, so that encoding and decoding a value only cost
+ * the Galois field arithmetic on its chunks.
+ * The arithmetic is performed either by the native Jerasure library
+ * (which must be loaded, see EcManager) or in Java: both produce the same chunks.
+ *
+ * Chunks are held either in arrays or one after the other in a (direct) slab,
+ * which the native library encodes and decodes in place.
+ *
+ * Techniques:
+ * - REED_SOL_VAN: Vandermonde Reed-Solomon, whose chunks are multiplied
+ *      word by word in GF(2^w);
+ * - CAUCHY: Cauchy Reed-Solomon (cauchy_good_general_coding_matrix),
+ *      whose coding matrix is expanded to a bit-matrix, so that chunks
+ *      are only XORed, packet by packet (see {@link #getPacketSize(int)}).
+ * @author P. Viotti
+ */
+public abstract class EcCodec {
+
+    public enum Technique {
+        REED_SOL_VAN((byte) 0),
+        CAUCHY((byte) 1);
+
+        private final byte code;    // recorded in the metadata: never reuse nor change it
+
+        private Technique(byte code) {
+            this.code = code;
+        }
+
+        public byte getCode() {
+            return this.code;
+        }
+
+        public static Technique getTechniqueFromCode(byte code) {
+            switch (code) {
+                case 0: return REED_SOL_VAN;
+                case 1: return CAUCHY;
+                default: throw new IllegalArgumentException("Unknown erasure coding technique code " + code);
+            }
+        }
+    };
+    public enum Library { JERASURE, JAVA };
+
+    private static final int MAX_DECODERS = 256;   // cached erasure patterns per codec
+    private static final int MAX_PACKET_SIZE = 2048;   // [B]
+
+    private static final ConcurrentHashMap<String, EcCodec> codecs = new ConcurrentHashMap<String, EcCodec>();
+
+    protected final int k;
+    protected final int m;
+    protected final int w;
+    private final Technique technique;
+    private final int[] matrix;        // m x k coding matrix, or m*w x k*w bit-matrix
+    private final ConcurrentHashMap<BitSet, Decoder> decoders = new ConcurrentHashMap<BitSet, Decoder>();
+
+    /**
+     * Reconstruction of the data chunks lost in an erasure pattern.
+     */
+    private static class Decoder {
+        final int[] survivors;      // ids of the k chunks the lost ones are computed from
+        final int[] lost;           // ids of the lost data chunks
+        final int[] rows;           // rows of the decoding (bit-)matrix giving the lost chunks
+
+        Decoder(int[] survivors, int[] lost, int[] rows) {
+            this.survivors = survivors;
+            this.lost = lost;
+            this.rows = rows;
+        }
+    }
+
+    private static final Decoder NOTHING_LOST = new Decoder(new int[0], new int[0], new int[0]);
+
+    protected EcCodec(int k, int m, int w, Technique technique, int[] matrix) {
+        this.k = k;
+        this.m = m;
+        this.w = w;
+        this.technique = technique;
+        this.matrix = matrix;
+    }
+
+    /**
+     * @return the (shared) codec with the given parameters
+     */
+    public static EcCodec get(int k, int m, int w, Technique technique, Library library) {
+        String id = library + "-" + technique + "-" + k + "-" + m + "-" + w;
+        EcCodec codec = codecs.get(id);
+        if (codec == null) {
+            EcCodec newCodec;
+            switch (library) {
+                case JAVA:
+                    newCodec = new JavaCodec(k, m, w, technique);
+                    break;
+                case JERASURE:
+                default:
+                    newCodec = new JerasureCodec(k, m, w, technique);
+            }
+            codec = codecs.putIfAbsent(id, newCodec);
+            if (codec == null)
+                codec = newCodec;
+        }
+        return codec;
+    }
+
+    /**
+     * Computes the m coding chunks of the k data chunks, all of <size> bytes.
+     */
+    public void encode(byte[][] dataBlocks, byte[][] codingBlocks, int size) {
+        this.multiply(this.matrix, this.m, dataBlocks, codingBlocks, size);
+    }
+
+    /**
+     * Reconstructs in place the erased data chunks.
+     * Erased coding chunks are not needed to rebuild the value, hence left as they are.
+     * @param erasures ids of the erased chunks (coding chunks following the data ones), terminated by -1
+     * @return false if the data chunks cannot be reconstructed (i.e. more than m erasures)
+     */
+    public boolean decode(byte[][] dataBlocks, byte[][] codingBlocks, int[] erasures, int size) {
+
+        Decoder decoder = this.getDecoder(erasures);
+        if (decoder == null)
+            return false;
+        if (decoder == NOTHING_LOST)
+            return true;
+
+        byte[][] survivors = new byte[this.k][];
+        for (int i = 0; i < this.k; i++) {
+            int id = decoder.survivors[i];
+            survivors[i] = id < this.k ? dataBlocks[id] : codingBlocks[id - this.k];
+        }
+        byte[][] lost = new byte[decoder.lost.length][];
+        for (int i = 0; i < lost.length; i++)
+            lost[i] = dataBlocks[decoder.lost[i]];
+
+        // the lost chunks are the product of the decoding rows and the surviving chunks
+        this.multiply(decoder.rows, lost.length, survivors, lost, size);
+        return true;
+    }
+
+    /**
+     * Computes in place the m coding chunks of the k data chunks, all of <size> bytes,
+     * which lie one after the other in <slab>.
+     */
+    public void encode(ByteBuffer slab, int size) {
+        this.checkSlab(slab, size);
+        int[] in = new int[this.k];
+        int[] out = new int[this.m];
+        for (int i = 0; i < this.k; i++)
+            in[i] = i;
+        for (int i = 0; i < this.m; i++)
+            out[i] = this.k + i;
+        this.multiply(this.matrix, this.m, slab, in, out, size);
+    }
+
+    /**
+     * Reconstructs in place the erased data chunks of <slab> (see {@link #encode(ByteBuffer, int)}).
+     * @return false if the data chunks cannot be reconstructed (i.e. more than m erasures)
+     */
+    public boolean decode(ByteBuffer slab, int[] erasures, int size) {
+
+        this.checkSlab(slab, size);
+        Decoder decoder = this.getDecoder(erasures);
+        if (decoder == null)
+            return false;
+        if (decoder != NOTHING_LOST)
+            this.multiply(decoder.rows, decoder.lost.length, slab, decoder.survivors, decoder.lost, size);
+        return true;
+    }
+
+    /**
+     * @return the decoder of the erasure pattern, NOTHING_LOST if no data chunk
+     *          is erased, or null if the data chunks cannot be reconstructed
+     * @throws IllegalArgumentException if an erasure is not the id of a chunk
+     */
+    private Decoder getDecoder(int[] erasures) {
+
+        BitSet erased = new BitSet(this.k + this.m);
+        for (int i = 0; i < erasures.length && erasures[i] != -1; i++) {
+            if (erasures[i] < 0 || erasures[i] >= this.k + this.m)
+                throw new IllegalArgumentException("Invalid erasure: " + erasures[i]);
+            erased.set(erasures[i]);
+        }
+        if (erased.cardinality() > this.m)
+            return null;
+        if (erased.nextSetBit(0) == -1 || erased.nextSetBit(0) >= this.k)
+            return NOTHING_LOST;
+
+        Decoder decoder = this.decoders.get(erased);
+        if (decoder == null) {
+            decoder = this.newDecoder(erased);
+            if (decoder != null && this.decoders.size() < MAX_DECODERS)
+                this.decoders.putIfAbsent(erased, decoder);
+        }
+        return decoder;
+    }
+
+    private Decoder newDecoder(BitSet erased) {
+
+        boolean[] erasedFlags = new boolean[this.k + this.m];
+        for (int i = erased.nextSetBit(0); i >= 0; i = erased.nextSetBit(i+1))
+            erasedFlags[i] = true;
+
+        // each chunk maps to w rows and columns of a bit-matrix
+        int rowsPerChunk = this.isBitMatrix() ? this.w : 1;
+        int rowLength = this.k * rowsPerChunk;
+        int[] decodingMatrix = new int[rowLength * rowLength];
+        int[] survivors = new int[this.k];
+        if (!this.makeDecodingMatrix(this.matrix, erasedFlags, decodingMatrix, survivors))
+            return null;
+
+        int[] lost = erased.get(0, this.k).stream().toArray();
+        int chunkRows = rowsPerChunk * rowLength;
+        int[] rows = new int[lost.length * chunkRows];
+        for (int i = 0; i < lost.length; i++)
+            System.arraycopy(decodingMatrix, lost[i] * chunkRows, rows, i * chunkRows, chunkRows);
+        return new Decoder(survivors, lost, rows);
+    }
+
+    /**
+     * The native library works on the slab in place: chunks out of its bounds
+     * would be read and written past the end of the buffer.
+     * @throws IllegalArgumentException if <slab> cannot hold the k+m chunks of <size> bytes
+     */
+    private void checkSlab(ByteBuffer slab, int size) {
+        if (size <= 0 || slab.capacity() < (long) (this.k + this.m) * size)
+            throw new IllegalArgumentException("The slab cannot hold " + (this.k + this.m)
+                    + " chunks of " + size + " bytes");
+    }
+
+    protected boolean isBitMatrix() {
+        return Technique.CAUCHY.equals(this.technique);
+    }
+
+    /**
+     * @return the size of the packets the chunks of <size> bytes are split into by bit-matrix codes:
+     *          the largest power of two up to MAX_PACKET_SIZE such that size is a multiple of w packets.
+     *          NB: it only depends on the size, so that it does not need to be stored.
+     */
+    protected int getPacketSize(int size) {
+        int packetSize = MAX_PACKET_SIZE;
+        while (packetSize > Long.BYTES && size % (this.w * packetSize) != 0)
+            packetSize /= 2;
+        if (size % (this.w * packetSize) != 0)
+            throw new IllegalArgumentException("The chunk size must be a multiple of " + this.w * Long.BYTES);
+        return packetSize;
+    }
+
+    /**
+     * out = matrix * in, where matrix has <rows> rows and k columns
+     * (w times as many for bit-matrices) and in and out hold chunks of <size> bytes.
+     */
+    protected abstract void multiply(int[] matrix, int rows, byte[][] in, byte[][] out, int size);
+
+    /**
+     * Same as {@link #multiply(int[], int, byte[][], byte[][], int)} on the chunks with ids
+     * <in> and <out> of a slab. By default, through copies of the chunks on the heap.
+     */
+    protected void multiply(int[] matrix, int rows, ByteBuffer slab, int[] in, int[] out, int size) {
+        byte[][] inChunks = new byte[in.length][size];
+        byte[][] outChunks = new byte[out.length][size];
+        for (int i = 0; i < in.length; i++) {
+            ByteBuffer chunk = slab.duplicate();
+            chunk.position(in[i] * size);
+            chunk.get(inChunks[i]);
+        }
+        this.multiply(matrix, rows, inChunks, outChunks, size);
+        for (int i = 0; i < out.length; i++) {
+            ByteBuffer chunk = slab.duplicate();
+            chunk.position(out[i] * size);
+            chunk.put(outChunks[i]);
+        }
+    }
+
+    /**
+     * Picks the first k chunks not erased as survivors, and computes
+     * the k x k matrix (k*w x k*w bit-matrix) that gives back the data chunks from them.
+     * @return false if the matrix is not invertible
+     */
+    protected abstract boolean makeDecodingMatrix(int[] matrix, boolean[] erased,
+                                    int[] decodingMatrix, int[] survivors);
+
+    public int getK()                   { return this.k; }
+    public int getM()                   { return this.m; }
+    public int getW()                   { return this.w; }
+    public Technique getTechnique()     { return this.technique; }
+}
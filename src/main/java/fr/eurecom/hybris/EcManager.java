@@ -15,14 +15,14 @@
  */
 package fr.eurecom.hybris;
 
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import eu.vandertil.jerasure.jni.Jerasure;
-import eu.vandertil.jerasure.jni.ReedSolomon;
+import fr.eurecom.hybris.EcCodec.Library;
+import fr.eurecom.hybris.EcCodec.Technique;
 import fr.eurecom.hybris.kvs.drivers.Kvs;
 
 /**
@@ -37,6 +37,8 @@ public class EcManager {
     private static int PACKET_SIZE = 8;    // 256 B minimum encoded block size
     private static int WORD_SIZE = 8;
     
+    private static boolean libraryLoaded = false;
+    
     public enum ChunkState { KO, PENDING, OK };
     
     public class EcChunk {
@@ -59,29 +61,61 @@ public class EcManager {
         }
     }
     
+    private final BufferPool pool;     // chunk buffers
+    private final Library library;
+    
     public EcManager() {
+        this(Long.parseLong(Config.getInstance().getProperty(Config.ECODING_BUFFER_POOL, "67108864")));
+    }
+    
+    /**
+     * @param poolCapacity the maximum size of the chunk buffers kept for reuse [B]
+     */
+    public EcManager(long poolCapacity) {
+        this(poolCapacity, getConfiguredLibrary());
+    }
+    
+    /**
+     * @param poolCapacity the maximum size of the chunk buffers kept for reuse [B]
+     * @param library the implementation of the codes, or null to use Jerasure
+     *          if its native library can be loaded, the Java one otherwise
+     */
+    public EcManager(long poolCapacity, Library library) {
+        this.pool = new BufferPool(poolCapacity);
+        if (Library.JAVA.equals(library)) {
+            this.library = Library.JAVA;
+            return;
+        }
+        
         try {
             loadNativeLibrary();
         } catch(Throwable t) {
-            logger.error("Could not load the erasure coding library.");
-            throw t;
+            if (library != null) {
+                logger.error("Could not load the erasure coding library.");
+                throw t;
+            }
+            logger.warn("Could not load the erasure coding library, using the Java implementation.");
+            this.library = Library.JAVA;
+            return;
         }
+        this.library = Library.JERASURE;
     }
     
-    private void loadNativeLibrary() {
-        System.loadLibrary(EC_LIB_NAME);
-        logger.debug("Correctly loaded libJerasure.jni");
+    private static Library getConfiguredLibrary() {
+        String library = Config.getInstance().getProperty(Config.ECODING_LIBRARY, "auto");
+        return "auto".equalsIgnoreCase(library) ? null : Library.valueOf(library.toUpperCase());
     }
     
-    private byte[] addPaddingIfNeeded(byte[] data, int blockSize) {
-        if (data.length < blockSize) {
-            data = Arrays.copyOf(data, blockSize);
-        }
-        return data;
+    private static synchronized void loadNativeLibrary() {
+        if (libraryLoaded)
+            return;
+        System.loadLibrary(EC_LIB_NAME);
+        libraryLoaded = true;
+        logger.debug("Correctly loaded libJerasure.jni");
     }
     
-    private int[] getCodingMatrix(int k, int m) {
-        return ReedSolomon.reed_sol_vandermonde_coding_matrix(k, m, WORD_SIZE);
+    private EcCodec getCodec(int k, int m, Technique technique) {
+        return EcCodec.get(k, m, WORD_SIZE, technique, this.library);
     }
     
     private int getPaddedSize(int originalSize, int k) {
@@ -92,70 +126,187 @@ public class EcManager {
         return newSize;
     }
     
+    /**
+     * @return the size of each of the chunks encoding a value of <originalSize> bytes,
+     *          whose i-th data chunk holds the bytes [i*size, (i+1)*size) of the value
+     */
+    public int getBlockSize(int originalSize, int k) {
+        return getPaddedSize(originalSize, k) / k;
+    }
+    
+    /**
+     * @return a chunk buffer of <blockSize> bytes from the pool, with arbitrary content
+     */
+    public byte[] allocate(int blockSize) {
+        return this.pool.take(blockSize);
+    }
+    
+    /**
+     * Returns chunk buffers (e.g. once uploaded or decoded) to the pool:
+     * they must not be used afterwards. Null entries are skipped.
+     */
+    public void release(byte[]... blocks) {
+        for (byte[] block : blocks)
+            this.pool.release(block);
+    }
+    
+    /**
+     * Hands downloaded chunk buffers (owned by Hybris, see Kvs#get) over to the pool:
+     * they must not be used afterwards. Null entries are skipped.
+     */
+    public void adopt(byte[]... blocks) {
+        for (byte[] block : blocks)
+            this.pool.adopt(block);
+    }
+    
+    public BufferPool getBufferPool() {
+        return this.pool;
+    }
+    
+    public Library getLibrary() {
+        return this.library;
+    }
+    
+    /**
+     * @return a direct slab from the pool, large enough for the k+m chunks
+     *          of a value of <originalSize> bytes
+     */
+    public ByteBuffer allocateSlab(int originalSize, int k, int m) {
+        return this.pool.takeDirect((k + m) * getBlockSize(originalSize, k));
+    }
+    
+    /**
+     * Returns a slab to the pool: it must not be used afterwards.
+     */
+    public void releaseSlab(ByteBuffer slab) {
+        this.pool.release(slab);
+    }
+    
+    /**
+     * @return a view of the i-th chunk of a slab (see {@link #encodeDirect(byte[], int, int, Technique)})
+     */
+    public static ByteBuffer getChunk(ByteBuffer slab, int i, int blockSize) {
+        ByteBuffer chunk = slab.duplicate();
+        chunk.limit((i + 1) * blockSize).position(i * blockSize);
+        return chunk.slice();
+    }
+    
+    /**
+     * Encodes <data> in a direct slab, so that the native library works in place
+     * rather than copying every chunk in and out of the Java heap.
+     * @return a slab from the pool holding the k data chunks followed by the m coding chunks
+     *          (see {@link #getChunk(ByteBuffer, int, int)}), which can be given back
+     *          with {@link #releaseSlab(ByteBuffer)}
+     */
+    public ByteBuffer encodeDirect(byte[] data, int k, int m, Technique technique) {
+        
+        int blockSize = getBlockSize(data.length, k);
+        ByteBuffer slab = this.allocateSlab(data.length, k, m);
+        slab.put(data);
+        while (slab.position() < k * blockSize)     // zero-padding
+            slab.put((byte) 0);
+        slab.clear();
+        
+        getCodec(k, m, technique).encode(slab, blockSize);
+        return slab;
+    }
+    
+    /**
+     * Decodes the value of <originalSize> bytes whose k+m chunks lie in <slab>,
+     * reconstructing the erased data chunks in place.
+     * @param erasures ids of the missing chunks, terminated by -1
+     */
+    public byte[] decodeDirect(ByteBuffer slab, int[] erasures, int k, int m,
+            int originalSize, Technique technique) throws HybrisException {
+        
+        int blockSize = getBlockSize(originalSize, k);
+        
+        if (!getCodec(k, m, technique).decode(slab, erasures, blockSize)) {
+            logger.error("Error while decoding");
+            throw new HybrisException("Error while decoding");
+        }
+        
+        byte[] value = new byte[originalSize];
+        ByteBuffer data = slab.duplicate();
+        data.clear();
+        data.get(value);
+        return value;
+    }
+    
+    /**
+     * @return the k data chunks followed by the m coding chunks of <data>,
+     *          in buffers from the pool which can be given back with {@link #release(byte[]...)}
+     */
     public byte[][] encode(byte[] data, int k, int m) {
+        return this.encode(data, k, m, Technique.REED_SOL_VAN);
+    }
+    
+    /**
+     * @return the k data chunks followed by the m coding chunks of <data>,
+     *          in buffers from the pool which can be given back with {@link #release(byte[]...)}
+     */
+    public byte[][] encode(byte[] data, int k, int m, Technique technique) {
         
-        int paddedSize = getPaddedSize(data.length, k);
-        data = addPaddingIfNeeded(data, paddedSize);
-        int blockSize = paddedSize / k;
+        int blockSize = getBlockSize(data.length, k);
         
-        byte[][] dataBlocks = new byte[k][blockSize];
+        // the data chunks are copied straight from the value, zero-padding the last ones
+        byte[][] dataAndCoding = new byte[k+m][];
         for (int i = 0; i < k; i++) {
-            dataBlocks[i] = new byte[blockSize];
-            dataBlocks[i] = Arrays.copyOfRange(data, i*blockSize, i*blockSize + blockSize);
+            dataAndCoding[i] = this.pool.take(blockSize);
+            int from = Math.min(data.length, i * blockSize);
+            int length = Math.min(blockSize, data.length - from);
+            System.arraycopy(data, from, dataAndCoding[i], 0, length);
+            Arrays.fill(dataAndCoding[i], length, blockSize, (byte) 0);
         }
-        
-        byte[][] codingBlocks = new byte[m][blockSize];
         for (int i = 0; i < m; i++)
-            codingBlocks[i] = new byte[blockSize];
-
-        int[] matrix = getCodingMatrix(k, m);
-        Jerasure.jerasure_matrix_encode(k, m, WORD_SIZE, matrix, dataBlocks, codingBlocks, blockSize);
+            dataAndCoding[k+i] = this.pool.take(blockSize);     // overwritten by the encoding
         
-        byte[][] dataAndCoding = new byte[k+m][blockSize]; 
-        for (int i=0; i<k; i++)
-            dataAndCoding[i] = dataBlocks[i];
-        for (int i=0; i<m; i++)
-            dataAndCoding[k+i] = codingBlocks[i];
+        byte[][] dataBlocks = Arrays.copyOfRange(dataAndCoding, 0, k);
+        byte[][] codingBlocks = Arrays.copyOfRange(dataAndCoding, k, k+m);
+        getCodec(k, m, technique).encode(dataBlocks, codingBlocks, blockSize);
         
         return dataAndCoding;
     }
     
+    /**
+     * @param erasures ids of the missing chunks, terminated by -1: the missing data chunks
+     *          are reconstructed in place, while the missing coding chunks are not
+     */
     public byte[] decode(byte[][] dataBlocks, byte[][] codingBlocks, int[] erasures, int k, int m, int originalSize) throws HybrisException {
+        return this.decode(dataBlocks, codingBlocks, erasures, k, m, originalSize, Technique.REED_SOL_VAN);
+    }
+    
+    /**
+     * @param erasures ids of the missing chunks, terminated by -1: the missing data chunks
+     *          are reconstructed in place, while the missing coding chunks are not
+     * @param technique the one the chunks have been encoded with
+     */
+    public byte[] decode(byte[][] dataBlocks, byte[][] codingBlocks, int[] erasures, int k, int m,
+            int originalSize, Technique technique) throws HybrisException {
         
-        int paddedSize = getPaddedSize(originalSize, k);
-        int blockSize = paddedSize / k;
+        int blockSize = getBlockSize(originalSize, k);
         
-        int[] matrix = getCodingMatrix(k, m);
-        boolean res = Jerasure.jerasure_matrix_decode(k, m, WORD_SIZE, matrix, true, erasures, dataBlocks, codingBlocks, blockSize);
+        boolean res = getCodec(k, m, technique).decode(dataBlocks, codingBlocks, erasures, blockSize);
         
         if (!res) {
             logger.error("Error while decoding");
             throw new HybrisException("Error while decoding");
         }
         
-        try (ByteArrayOutputStream bos = new ByteArrayOutputStream(originalSize)) {
-        
-            int total = 0;
-            for (int i = 0; i < k; i++) {
-                if (total + blockSize <= originalSize) {
-                    bos.write(dataBlocks[i]);
-                    total+= blockSize;
-                }
-                else {
-                    for (int j = 0; j < blockSize; j++) {
-                        if (total < originalSize) {
-                            bos.write(dataBlocks[i][j]);
-                            total++;
-                        } else 
-                            break;
-                    }
-                }
-            }
-            
-            return bos.toByteArray();
-        } catch (Exception e) {
-            logger.error("I/O Error while writing decoded data to byte array");
-            throw new HybrisException("I/O Error while writing decoded data to byte array");
-        }
+        return this.concatenate(dataBlocks, k, originalSize);
+    }
+    
+    /**
+     * @return the value of <originalSize> bytes whose k data chunks are <dataBlocks>:
+     *          the code being systematic, these are the value itself split and padded,
+     *          so when none is missing there is nothing to decode
+     */
+    public byte[] concatenate(byte[][] dataBlocks, int k, int originalSize) {
+        
+        int blockSize = getBlockSize(originalSize, k);
+        byte[] value = new byte[originalSize];
+        for (int i = 0, offset = 0; i < k && offset < originalSize; i++, offset += blockSize)
+            System.arraycopy(dataBlocks[i], 0, value, offset, Math.min(blockSize, originalSize - offset));
+        return value;
     }
 }
@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2013 EURECOM (www.eurecom.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.eurecom.hybris;
+
+/**
+ * Arithmetic in GF(2^8), with the same primitive polynomial
+ * as Jerasure (x^8+x^4+x^3+x^2+1), so that the codes computed in Java
+ * are the same as the native ones.
+ * @author P. Viotti
+ */
+final class GaloisField {
+
+    static final int SIZE = 256;
+    private static final int PRIM_POLY = 0x11D;
+
+    private static final int[] LOG = new int[SIZE];
+    private static final int[] EXP = new int[2 * SIZE];
+    /* MUL[a][b] = a * b: a row is the lookup table of a region multiplication */
+    static final byte[][] MUL = new byte[SIZE][SIZE];
+
+    static {
+        int b = 1;
+        for (int j = 0; j < SIZE - 1; j++) {
+            LOG[b] = j;
+            EXP[j] = b;
+            EXP[j + SIZE - 1] = b;
+            b <<= 1;
+            if ((b & SIZE) != 0)
+                b ^= PRIM_POLY;
+        }
+        for (int x = 1; x < SIZE; x++)
+            for (int y = 1; y < SIZE; y++)
+                MUL[x][y] = (byte) EXP[LOG[x] + LOG[y]];
+    }
+
+    private GaloisField() { }
+
+    static int multiply(int x, int y) {
+        return MUL[x][y] & 0xff;
+    }
+
+    /**
+     * @throws ArithmeticException if y is 0
+     */
+    static int divide(int x, int y) {
+        if (y == 0)
+            throw new ArithmeticException("Division by zero");
+        if (x == 0)
+            return 0;
+        return EXP[LOG[x] - LOG[y] + SIZE - 1];
+    }
+}
@@ -16,8 +16,15 @@
 package fr.eurecom.hybris;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,28 +59,33 @@ public class GcManager {
 	 */
 	public void gc() throws HybrisException {
 
-		// Orphans
+		// Orphans: deleted in bulk from each KvStore, along with their parts
+		// (the marker of a value stored as a sequence of parts records only its KvStore key)
 		Map<String, Metadata> orphans = mds.getOrphans();
-		orphans.keySet().forEach(kvsKey -> {
-			Metadata md = orphans.get(kvsKey);
-			boolean error = false;
-
-			for (Kvs kvStore : kvs.getKvsList()) {
-
-				if (!md.getReplicasLst().contains(kvStore))
-					continue;
+		Set<String> failed = new HashSet<String>();
+		for (Kvs kvStore : kvs.getKvsList()) {
 
-				try {
-					kvs.delete(kvStore, kvsKey);
-				} catch (IOException e) {
-					error = true;
-					logger.warn("GC: could not delete {} from {}", kvsKey, kvStore);
+			Map<String, String> kvsKeys = new HashMap<String, String>();	// KvStore key -> orphan
+			for (Entry<String, Metadata> orphan : orphans.entrySet())
+				if (orphan.getValue().getReplicasLst().contains(kvStore)) {
+					kvsKeys.put(orphan.getKey(), orphan.getKey());
+					try {
+						Iterator<String> parts = kvs.list(kvStore, Utils.getKvsPartKeyPrefix(orphan.getKey()));
+						while (parts.hasNext())
+							kvsKeys.put(parts.next(), orphan.getKey());
+					} catch (IOException | UncheckedIOException e) {
+						failed.add(orphan.getKey());
+						logger.warn("GC: could not list the parts of {} in {}", orphan.getKey(), kvStore);
+					}
 				}
-			}
 
-			if (error)
-				orphans.remove(kvsKey);
-		});
+			for (String kvsKey : kvs.delete(kvStore, new ArrayList<String>(kvsKeys.keySet())).keySet()) {
+				failed.add(kvsKeys.get(kvsKey));
+				logger.warn("GC: could not delete {} from {}", kvsKey, kvStore);
+			}
+		}
+		// the orphans not deleted from all their KvStores are kept for the next GC
+		orphans.keySet().removeAll(failed);
 		mds.removeOrphanKeys(orphans.keySet());
 
 		// Stale
@@ -102,40 +114,58 @@ public class GcManager {
 
 		for (Kvs kvStore : kvs.getKvsList()) {
 
-			List<String> kvsKeys;
+			// only the versions of <key>, not the whole container
+			Iterator<String> kvsKeys;
 			try {
-				kvsKeys = kvs.list(kvStore);
+				kvsKeys = kvs.list(kvStore, Utils.getKvsKeyPrefix(key));
 			} catch (IOException e) {
 				logger.warn("GC: could not list {} container", kvStore);
 				continue;
 			}
 
-			for (String kvsKey : kvsKeys) {
-				String prefixKey = "";
-				Timestamp kvTs = null;
-				boolean malformedKey = false;
-				try {
-					prefixKey = Utils.getKeyFromKvsKey(kvsKey);
-					kvTs = Utils.getTimestampfromKvsKey(kvsKey);
-				} catch (IndexOutOfBoundsException e) {
-					malformedKey = true;
-				}
-
-				if (malformedKey || key.equals(prefixKey) && md.getTs().isGreater(kvTs)) {
-					try {
-						kvs.delete(kvStore, kvsKey);
-					} catch (IOException e) {
-						logger.warn("GC: could not delete {} from {}", kvsKey, kvStore);
-						continue;
-					}
-					logger.debug("GC: deleted {} from {}", kvsKey, kvStore);
+			List<String> staleKeys = new ArrayList<String>();
+			try {
+				while (kvsKeys.hasNext()) {
+					String kvsKey = kvsKeys.next();
+					if (this.isStale(key, md, kvsKey))
+						staleKeys.add(kvsKey);
 				}
+			} catch (UncheckedIOException e) {
+				logger.warn("GC: could not list {} container", kvStore);
 			}
+			this.delete(kvStore, staleKeys);
 		}
 
 		mds.removeStaleKey(key);
 	}
 
+	/**
+	 * @return true if <kvsKey> is malformed or older than <md>, the metadata of <key>
+	 */
+	private boolean isStale(String key, Metadata md, String kvsKey) {
+		String prefixKey = "";
+		Timestamp kvTs = null;
+		try {
+			prefixKey = Utils.getKeyFromKvsKey(kvsKey);
+			kvTs = Utils.getTimestampfromKvsKey(kvsKey);
+		} catch (IndexOutOfBoundsException e) {
+			return true;
+		}
+		return key.equals(prefixKey) && md.getTs().isGreater(kvTs);
+	}
+
+	/**
+	 * Deletes <kvsKeys> from <kvStore> in bulk, logging the failures.
+	 */
+	private void delete(Kvs kvStore, List<String> kvsKeys) {
+		Map<String, IOException> failed = kvs.delete(kvStore, kvsKeys);
+		for (String kvsKey : kvsKeys)
+			if (failed.containsKey(kvsKey))
+				logger.warn("GC: could not delete {} from {}", kvsKey, kvStore);
+			else
+				logger.debug("GC: deleted {} from {}", kvsKey, kvStore);
+	}
+
 	/**
 	 * Deletes from KVSs all the keys which are not present on MDS or obsolete
 	 * or malformed. Heads up: this function does a complete MDS dump and a
@@ -157,6 +187,7 @@ public class GcManager {
 				continue;
 			}
 
+			List<String> staleKeys = new ArrayList<String>();
 			for (String kvsKey : kvsKeys) {
 
 				String key = "";
@@ -169,16 +200,10 @@ public class GcManager {
 					malformedKey = true;
 				}
 
-				if (malformedKey || !mdMap.keySet().contains(key) || mdMap.get(key).getTs().isGreater(kvTs)) {
-					try {
-						kvs.delete(kvStore, kvsKey);
-					} catch (IOException e) {
-						logger.warn("GC: could not delete {} from {}", kvsKey, kvStore);
-						continue;
-					}
-					logger.debug("GC: deleted {} from {}", kvsKey, kvStore);
-				}
+				if (malformedKey || !mdMap.keySet().contains(key) || mdMap.get(key).getTs().isGreater(kvTs))
+					staleKeys.add(kvsKey);
 			}
+			this.delete(kvStore, staleKeys);
 		}
 		// mds.emptyStaleAndOrphansContainers();
 	}
@@ -15,24 +15,52 @@
  */
 package fr.eurecom.hybris;
 
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
 import java.io.UnsupportedEncodingException;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
 import java.security.GeneralSecurityException;
-import java.util.AbstractMap;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletionService;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
 
 import net.spy.memcached.AddrUtil;
 import net.spy.memcached.BinaryConnectionFactory;
@@ -44,9 +72,17 @@ import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+
+import fr.eurecom.hybris.EcCodec.Technique;
 import fr.eurecom.hybris.EcManager.ChunkState;
 import fr.eurecom.hybris.EcManager.EcChunk;
+import fr.eurecom.hybris.kvs.CircuitBreaker;
+import fr.eurecom.hybris.kvs.KvsCompletionService;
 import fr.eurecom.hybris.kvs.KvsManager;
+import fr.eurecom.hybris.kvs.KvsScheduler;
+import fr.eurecom.hybris.kvs.LatencyHistogram;
 import fr.eurecom.hybris.kvs.drivers.Kvs;
 import fr.eurecom.hybris.mds.ZkRmds;
 import fr.eurecom.hybris.mds.ConsulRmds;
@@ -63,13 +99,19 @@ public class Hybris {
 
     private static final Logger logger = LoggerFactory.getLogger(Config.LOGGER_NAME);
 
+    private static final int STREAM_BUFFER_SIZE = 65536;    // [B]
+    private static final int CPU_THREADS = Runtime.getRuntime().availableProcessors();
+
     protected Rmds mds;
     protected KvsManager kvs;
+    private KvsScheduler scheduler;     // thread pool shared by all KVS operations
+    private ExecutorService asyncExecutor;  // runs the CPU-bound stages of asynchronous operations
     
     /* erasure coding */
-    private EcManager ec;
+    protected EcManager ec;
     private int k;
     private int m;
+    private Technique ecTechnique;      // of the values written (reads use the one in their metadata)
 
     /* caching */
     private MemcachedClient cache;
@@ -84,6 +126,24 @@ public class Hybris {
     private int TIMEOUT_WRITE;
     private int TIMEOUT_READ;
 
+    /* adaptive timeouts: a multiple of a high percentile of the latencies
+     * observed on a KvStore for similar payloads, capped by the ones above;
+     * opt-in, since they change the failover timing of existing deployments */
+    private boolean adaptiveTimeouts;
+    private double timeoutPercentile;
+    private double timeoutFactor;
+    private long timeoutMin;            // [ms]
+    private static final int TIMEOUT_MIN_SAMPLES = 20;
+
+    /* uploads still running when their write timed out, either cancelled
+     * or left to complete and recorded as bonus replicas */
+    public enum StragglerPolicy { CANCEL, COMPLETE };
+    private StragglerPolicy stragglerPolicy;
+    private final AtomicLong stragglers = new AtomicLong();
+    private final AtomicLong bonusReplicas = new AtomicLong();
+    private final AtomicLong wastedBytes = new AtomicLong();    // [B] uploaded but not referenced by any metadata
+    private static final int BONUS_ATTEMPTS = 3;    // conditional metadata updates recording bonus replicas
+
     /* GC */
     private GcManager gc;
     private boolean gcEnabled;
@@ -95,6 +155,22 @@ public class Hybris {
     /* erasure coding */
     private boolean ecEnabled;
 
+    /* hedged reads */
+    private boolean hedgedReads;
+    private double hedgePercentile;     // percentile of the read latency after which a read is hedged
+    private long hedgeDefaultDelay;     // [ms] used until enough latencies are recorded
+    private static final int HEDGE_MIN_SAMPLES = 10;
+
+    private int multiGetWindow;         // max number of values fetched concurrently by a multi-get
+    private int multiPutBudget;         // max number of bytes uploaded concurrently by a multi-put
+
+    /* parted layout */
+    private int partThreshold;          // [B] values larger than this are stored in parts (0: never)
+    private int partSize;               // [B]
+    private int partWindow;             // max number of parts of a value transferred concurrently
+
+    private boolean unverifiedRanges;   // replicated ranges read from a single KvStore, without verification
+
     public String clientId;
 
 
@@ -177,7 +253,22 @@ public class Hybris {
     		else
     			throw new IOException("Invalid RMDS id in configuration file");
     		
-            this.kvs = new KvsManager(kvsAccountFile, kvsRoot, kvsTestOnStartup);
+            Config conf = Config.getInstance();
+            this.scheduler = new KvsScheduler(
+                    Integer.parseInt(conf.getProperty(Config.KVS_THREADS,
+                            String.valueOf(KvsScheduler.DEFAULT_THREADS))),
+                    Integer.parseInt(conf.getProperty(Config.KVS_THREADS_PER_KVS,
+                            String.valueOf(KvsScheduler.DEFAULT_THREADS_PER_KVS))));
+            // hashing, coding and encryption must not hold the threads of blocking driver calls
+            final AtomicInteger cpuThreads = new AtomicInteger();
+            this.asyncExecutor = new ThreadPoolExecutor(CPU_THREADS, CPU_THREADS, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), r -> {
+                        Thread thread = new Thread(r, "hybris-cpu-" + cpuThreads.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            ((ThreadPoolExecutor) this.asyncExecutor).allowCoreThreadTimeOut(true);
+            this.kvs = new KvsManager(kvsAccountFile, kvsRoot, kvsTestOnStartup, this.scheduler);
         } catch (IOException e) {
             logger.error("Could not initialize ZooKeeper or the cloud storage KvStores.", e);
             throw new HybrisException("Could not initialize Zookeeper or the cloud storage KvStores", e);
@@ -223,6 +314,23 @@ public class Hybris {
                 this.ecEnabled = false;
             }
 
+        Config conf = Config.getInstance();
+        this.hedgedReads = Boolean.parseBoolean(conf.getProperty(Config.HEDGED_READS, "false"));
+        this.hedgePercentile = Double.parseDouble(conf.getProperty(Config.HEDGED_READS_PERCENTILE, "95"));
+        this.hedgeDefaultDelay = Long.parseLong(conf.getProperty(Config.HEDGED_READS_DELAY, "100"));
+        this.adaptiveTimeouts = Boolean.parseBoolean(conf.getProperty(Config.ADAPTIVE_TIMEOUTS, "false"));
+        this.timeoutPercentile = Double.parseDouble(conf.getProperty(Config.ADAPTIVE_TIMEOUTS_PERCENTILE, "99"));
+        this.timeoutFactor = Double.parseDouble(conf.getProperty(Config.ADAPTIVE_TIMEOUTS_FACTOR, "4"));
+        this.timeoutMin = Long.parseLong(conf.getProperty(Config.ADAPTIVE_TIMEOUTS_MIN, "1000"));
+        this.multiGetWindow = Integer.parseInt(conf.getProperty(Config.MULTIGET_WINDOW, "16"));
+        this.multiPutBudget = Integer.parseInt(conf.getProperty(Config.MULTIPUT_INFLIGHT_BYTES, "67108864"));
+        this.partThreshold = Integer.parseInt(conf.getProperty(Config.PARTS_THRESHOLD, "0"));
+        this.partSize = Integer.parseInt(conf.getProperty(Config.PARTS_SIZE, "8388608"));
+        this.partWindow = Integer.parseInt(conf.getProperty(Config.PARTS_WINDOW, "4"));
+        this.unverifiedRanges = Boolean.parseBoolean(conf.getProperty(Config.RANGES_UNVERIFIED, "false"));
+        this.stragglerPolicy = StragglerPolicy.valueOf(conf.getProperty(Config.HS_STRAGGLERS, "cancel").toUpperCase());
+        this.ecTechnique = Technique.valueOf(conf.getProperty(Config.ECODING_TECHNIQUE, "reed_sol_van").toUpperCase());
+
         if (clientId != null)   this.clientId = clientId;
         else                    this.clientId = Utils.generateClientId();
     }
@@ -241,7 +349,8 @@ public class Hybris {
         int ecK = Integer.parseInt(Config.getInstance().getProperty(Config.ECODING_K));
         if (this.ecEnabled) 
             try {
-                ec = new EcManager();
+                if (ec == null)
+                    ec = new EcManager();
                 if (ecK <=0) {
                     logger.error("Wrong value for k (<=0), disabling erasure coding.");
                     this.ecEnabled = false;
@@ -255,6 +364,82 @@ public class Hybris {
     }
     
     
+    /**
+     * Toggle hedged reads: when enabled, if a replica does not answer
+     * within a high percentile of its read latency, the read is issued
+     * to the next replica as well.
+     * @param hedgedReads
+     */
+    public void setHedgedReads(boolean hedgedReads) {
+        this.hedgedReads = hedgedReads;
+    }
+
+
+    /**
+     * Set the straggler policy: uploads still running when their write timed out
+     * are either cancelled (the KvStores they may have stored a replica on anyway are
+     * marked as orphans) or, with replication, left to complete as bonus replicas.
+     * @param stragglerPolicy
+     */
+    public void setStragglerPolicy(StragglerPolicy stragglerPolicy) {
+        this.stragglerPolicy = stragglerPolicy;
+    }
+
+
+    /**
+     * Toggle the parted layout: with replication, values larger than <threshold>
+     * are stored as sequences of parts of <partSize> bytes, which are
+     * uploaded and downloaded concurrently and retried independently.
+     * @param threshold [B] 0 to disable the parted layout
+     * @param partSize [B]
+     */
+    public void setPartedLayout(int threshold, int partSize) {
+        if (threshold > 0 && partSize <= 0)
+            throw new IllegalArgumentException("The size of the parts must be positive");
+        this.partThreshold = threshold;
+        this.partSize = partSize;
+    }
+
+
+    /**
+     * Toggle unverified ranged reads of replicated values: when enabled,
+     * {@link #get(String, long, int)} downloads only the requested range of a value
+     * from a single KvStore. Since the hash stored in the metadata covers
+     * the whole value, the range cannot be verified: a faulty or malicious
+     * KvStore may return arbitrary data. When disabled (default), the whole
+     * value is fetched and verified, unless it is stored in parts.
+     * @param unverifiedRanges
+     */
+    public void setUnverifiedRanges(boolean unverifiedRanges) {
+        this.unverifiedRanges = unverifiedRanges;
+    }
+
+
+    /**
+     * @return the number of uploads still running when their write timed out
+     */
+    public long getStragglers() {
+        return this.stragglers.get();
+    }
+
+
+    /**
+     * @return the number of straggler uploads recorded as bonus replicas
+     */
+    public long getBonusReplicas() {
+        return this.bonusReplicas.get();
+    }
+
+
+    /**
+     * @return the bytes of the straggler uploads that were cancelled,
+     *          failed or could not be recorded in the metadata [B]
+     */
+    public long getWastedBytes() {
+        return this.wastedBytes.get();
+    }
+
+
     /**
      * Writes a byte array associated with a key.
      * @param key
@@ -275,6 +460,91 @@ public class Hybris {
             ts.inc( this.clientId );
         }
 
+        EncodedValue encodedValue = this.encodeValue(key, md, value);
+        List<Kvs> savedReplicasLst;
+        AsyncUpload upload = this.newUpload(key, ts, encodedValue);
+        try {
+            savedReplicasLst = upload.start().join();
+        } catch (CompletionException | CancellationException e) {
+            if (this.gcEnabled) mds.markOrphanKey(key, ts, getWritten(upload));
+            logger.warn("Could not store data in cloud stores for key {}.", key);
+            throw new HybrisException("Could not store data on cloud stores");
+        }
+
+        // XXX caching with ec?
+        if (encodedValue.isCacheable() && this.cacheEnabled && CachePolicy.ONWRITE.equals(this.cachePolicy))
+            this.cache.set(Utils.getKvsKey(key, ts), this.cacheExp, encodedValue.data);
+
+        boolean overwritten = false;
+        try {
+            overwritten = this.mds.tsWrite(key, encodedValue.toMetadata(ts, savedReplicasLst), stat.getVersion());
+        } catch (HybrisException e) {
+            if (this.gcEnabled) mds.markOrphanKey(key, ts, savedReplicasLst);
+            logger.warn("Could not store metadata on Zookeeper for key {}.", key);
+            throw new HybrisException("Could not store the metadata on Zookeeper");
+        }
+
+        if (this.gcEnabled && overwritten) mds.markStaleKey(key);
+        this.addBonusReplicas(key, ts, upload, encodedValue.data.length);
+        this.markCancelled(key, ts, upload);
+
+        logger.info("Data stored on: {}", savedReplicasLst);
+        return savedReplicasLst;
+    }
+
+    
+    /**
+     * Writes the value read from a stream associated with a key.
+     * With replication, the value is hashed, encrypted and uploaded
+     * to the KvStores while it is read, so it is never held in memory as a whole,
+     * and it is not cached.
+     * Since the stream cannot be read twice, a value stored as a single object
+     * is written on the first f+1 KvStores by write latency only, with no failover:
+     * the write fails if any of them is unavailable, or does not complete
+     * its upload within its write timeout.
+     * Values larger than the threshold of the parted layout (see
+     * {@link #setPartedLayout(int, int)}), and values of 2 GiB or more
+     * even if the parted layout is disabled, are read one part at a time,
+     * at most <partWindow> parts ahead of their uploads, each part being
+     * retried on the other KvStores as by {@link #put(String, byte[])}.
+     * With erasure coding the value is not streamed: it is buffered in memory
+     * before being encoded, hence it must be smaller than 2 GiB.
+     * @param key
+     * @param in the stream of the value
+     * @param length the number of bytes to read from <in>
+     * @return the list of Kvs on which Hybris stored the data
+     * @throws HybrisException
+     */
+    public List<Kvs> put(String key, InputStream in, long length) throws HybrisException {
+
+        if (this.ecEnabled) {
+            if (length > Integer.MAX_VALUE)
+                throw new HybrisException("Erasure coded values must be smaller than 2 GiB, " 
+                        + key + " has " + length + " B");
+            byte[] value;
+            try {
+                value = ByteStreams.toByteArray(ByteStreams.limit(in, length));
+            } catch (IOException e) {
+                throw new HybrisException("Could not read the value of " + key, e);
+            }
+            if (value.length != length)
+                throw new HybrisException("Could not read " + length + " B for the value of " + key);
+            return this.put(key, value);
+        }
+
+        Timestamp ts;
+        Stat stat = new Stat();
+        Metadata md = this.mds.tsRead(key, stat);
+        if (md == null) {
+            ts = new Timestamp(0, this.clientId);
+            stat.setVersion(ZkRmds.NONODE);
+        } else {
+            ts = md.getTs();
+            ts.inc( this.clientId );
+        }
+
+        MessageDigest digest = Utils.getHashDigest();
+        InputStream src = ByteStreams.limit(in, length);
         byte[] cryptoKey = null;
         if (this.cryptoEnabled) {
             if (md == null || md.getCryptoKey() == null) {
@@ -285,147 +555,196 @@ public class Hybris {
                 cryptoKey = md.getCryptoKey();
 
             try {
-                logger.debug("Encrypting data for key {}", key);
-                value = Utils.encrypt(value, cryptoKey, this.IV);
+                src = new CipherInputStream(src, Utils.getCipher(Cipher.ENCRYPT_MODE, cryptoKey, this.IV));
             } catch(GeneralSecurityException e) {
                 logger.error("Could not encrypt data", e);
                 cryptoKey = null;
             }
         }
-        
-        List<Kvs> savedReplicasLst = new ArrayList<Kvs>();
+        // a value stored as a single object must fit in a byte array once read back
+        if (length > Integer.MAX_VALUE || this.partThreshold > 0 && length > this.partThreshold)
+            return this.putParts(key, ts, stat, src, length, cryptoKey);
+        src = new DigestInputStream(src, digest);
+
+        // the value is copied to one pipe per KvStore: since the stream cannot be
+        // read twice, a failed upload cannot be retried on another KvStore,
+        // hence all the first f+1 KvStores must be available
         String kvsKey = Utils.getKvsKey(key, ts);
-        int idxFrom = 0; long start; Future<Kvs> future;
-        byte[][] chunkHashes = null;
-        
-        if (this.ecEnabled) {   // Erasure coding
-            
-            // TODO storing chunks' hashes in md
-            // XXX caching with ec?
-            ExecutorService executor = Executors.newFixedThreadPool(m + k);
-            CompletionService<Kvs> compServ = new ExecutorCompletionService<Kvs>(executor);
-            
-            byte[][] encoded = ec.encode(value, k, m);
-            EcChunk[] chunks = new EcChunk[encoded.length];
-            for (int i=0; i<encoded.length; i++)
-                chunks[i] = this.ec.new EcChunk(encoded[i], Utils.getHash(encoded[i]), null, ChunkState.KO);
-            int idxTo = k + m;
-            boolean completed;
-            do {
-                completed = true;
-                List<Kvs> kvsSublst = this.kvs.getKvsSortedByWriteLatency().subList(idxFrom, idxTo);
-                int pending = 0;
-                start = System.currentTimeMillis();
-                for (int i=0; i<kvsSublst.size(); i++)
-                    for (int j=0; j<chunks.length; j++)
-                        if (ChunkState.KO.equals(chunks[j].state)) {
-                            compServ.submit(this.kvs.new KvsPutWorker(kvsSublst.get(i), kvsKey, chunks[j].data));
-                            chunks[j].state = ChunkState.PENDING;
-                            chunks[j].kvs = kvsSublst.get(i);
-                            pending++;
-                            break;
-                        }
+        List<Kvs> kvsSublst = this.kvs.getKvsSortedByWriteLatency().subList(0, this.quorum);
+        for (Kvs kvStore : kvsSublst) {
+            CircuitBreaker breaker = this.kvs.getCircuitBreaker(kvStore);
+            if (breaker != null && !breaker.isAvailable()) {
+                logger.warn("Could not stream the value of {}: {} is not available", key, kvStore);
+                throw new HybrisException("Streaming writes need " + this.quorum + " available cloud stores");
+            }
+        }
 
-                Kvs savedReplica = null;
-                for (int i=0; i<pending; i++)
-                    try {
-                        future =  compServ.poll(this.TIMEOUT_WRITE, TimeUnit.SECONDS);
-                        if (future != null && 
-                                !(savedReplica = future.get()).getId().startsWith(KvsManager.FAIL_PREFIX))
-
-                            for (int j=0; j<chunks.length; j++) {
-                                if (ChunkState.PENDING.equals(chunks[j].state) 
-                                        && savedReplica.equals(chunks[j].kvs)) {
-                                    logger.debug("Chunk {}, {} B, stored on {}, {} ms", i, 
-                                            chunks[j].data.length, savedReplica,
-                                            System.currentTimeMillis() - start);
-                                    chunks[j].state = ChunkState.OK;
-                                    break;
-                                }
-                            }
-                        else if (savedReplica != null)
-                                for (int j=0; j<chunks.length; j++)
-                                    if (savedReplica.getId().contains(chunks[i].kvs.getId()))
-                                        chunks[i].state = ChunkState.KO;
-                    } catch (InterruptedException | ExecutionException e) {
-                        logger.warn("Exception on write task execution", e);
-                    }
-                
-                for (int j=0; j<chunks.length; j++) 
-                    if (!ChunkState.OK.equals(chunks[j].state)) 
-                        completed = false;
-                
-                idxFrom = idxTo;
-                idxTo = this.kvs.getKvsList().size() > idxTo + k + m?
-                        idxTo + k + m: this.kvs.getKvsList().size();
+        CompletionService<Kvs> compServ = new KvsCompletionService<Kvs>(this.scheduler);
+        CountDownLatch started = new CountDownLatch(kvsSublst.size());
+        List<UploadPipe> pipes = new ArrayList<UploadPipe>(kvsSublst.size());
+        try {
+            for (Kvs kvStore : kvsSublst) {
+                UploadPipe pipe = new UploadPipe();
+                pipes.add(pipe);
+                compServ.submit(this.kvs.new KvsStreamPutWorker(kvStore, kvsKey, pipe, length, started));
+            }
+        } catch (IOException e) {
+            UploadPipe.abort(pipes);
+            throw new HybrisException("Could not store data on cloud stores", e);
+        }
 
-            } while (!completed && idxFrom < idxTo);
-            executor.shutdown();
-            
-            chunkHashes = new byte[chunks.length][];
-            for (int j=0; j<chunks.length; j++)
-                if (chunks[j].state.equals(ChunkState.OK)) {
-                    savedReplicasLst.add(chunks[j].kvs);
-                    chunkHashes[j] = chunks[j].hash;
+        // a pipe is drained only once its upload runs: writing to the pipe
+        // of an upload still queued in the lane of its KvStore would block
+        long start = System.currentTimeMillis();
+        try {
+            if (!started.await(this.getTimeout(kvsSublst, true, length), TimeUnit.MILLISECONDS)) {
+                UploadPipe.abort(pipes);
+                logger.warn("Could not start the uploads of {} in time", key);
+                throw new HybrisException("Could not store data on cloud stores");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            UploadPipe.abort(pipes);
+            throw new HybrisException("Interrupted while storing data on cloud stores", e);
+        }
+
+        // each upload is bounded by its write timeout: aborting its pipe
+        // makes both the upload and the writes to the pipe fail
+        start = System.currentTimeMillis();
+        long deadline = start;
+        List<ScheduledFuture<?>> watchdogs = new ArrayList<ScheduledFuture<?>>(kvsSublst.size());
+        for (int i=0; i<kvsSublst.size(); i++) {
+            final UploadPipe pipe = pipes.get(i);
+            long timeout = this.getTimeout(kvsSublst.get(i), true, length);
+            deadline = Math.max(deadline, start + timeout);
+            watchdogs.add(this.scheduler.schedule(() -> pipe.abort(), timeout, TimeUnit.MILLISECONDS));
+        }
+
+        long copied = 0;
+        boolean failed = false;
+        try {
+            byte[] buf = new byte[STREAM_BUFFER_SIZE];
+            int n;
+            while (!failed && (n = src.read(buf)) != -1) {
+                for (UploadPipe pipe : pipes)
+                    pipe.write(buf, n);
+                copied += n;
+            }
+        } catch (IOException e) {   // either the stream could not be read or an upload failed
+            logger.warn("Could not stream the value of {}", key, e);
+            failed = true;
+        }
+        if (failed || copied != length)
+            UploadPipe.abort(pipes);    // no upload must complete with a truncated value
+        else
+            for (UploadPipe pipe : pipes)
+                pipe.finish();
+
+        List<Kvs> savedReplicasLst = new ArrayList<Kvs>();
+        Kvs savedReplica;
+        for (int i=0; i<kvsSublst.size(); i++)
+            try {
+                Future<Kvs> future = compServ.poll(Math.max(0, deadline - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS);
+                if (future != null &&
+                        !(savedReplica = future.get()).getId().startsWith(KvsManager.FAIL_PREFIX)) {
+                    logger.debug("Data ({} B) stored on {}, {} ms", length, savedReplica,
+                            System.currentTimeMillis() - start);
+                    savedReplicasLst.add(savedReplica);
                 }
-            
-            if (!completed) {
-                if (this.gcEnabled) mds.markOrphanKey(key, ts, savedReplicasLst);
-                logger.warn("Could not store data in cloud stores for key {}.", key);
-                throw new HybrisException("Could not store data in cloud stores");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                logger.warn("Exception on write task execution", e);
             }
-            
-        } else {    // Replication
-            
-            ExecutorService executor = Executors.newFixedThreadPool(this.quorum);
-            CompletionService<Kvs> compServ = new ExecutorCompletionService<Kvs>(executor);
-            int idxTo = this.quorum;
-            do {
-                List<Kvs> kvsSublst = this.kvs.getKvsSortedByWriteLatency().subList(idxFrom, idxTo);
-                start = System.currentTimeMillis();
-                for (Kvs kvStore : kvsSublst)
-                    compServ.submit(this.kvs.new KvsPutWorker(kvStore, kvsKey, value));
-    
-                Kvs savedReplica = null;
-                for (int i=0; i<kvsSublst.size(); i++)
-                    try {
-                        future =  compServ.poll(this.TIMEOUT_WRITE, TimeUnit.SECONDS);
-                        if (future != null && 
-                                !(savedReplica = future.get()).getId().startsWith(KvsManager.FAIL_PREFIX)) {
-                            logger.debug("Data ({} B) stored on {}, {} ms", value.length, savedReplica,
-                                    System.currentTimeMillis() - start);
-                            savedReplicasLst.add(savedReplica);
-                            if (savedReplicasLst.size() >= this.quorum)
-                                break;
-                        }
-                    } catch (InterruptedException | ExecutionException e) {
-                        logger.warn("Exception on write task execution", e);
-                    }
-    
-                idxFrom = idxTo;
-                idxTo = this.kvs.getKvsList().size() > idxTo + this.quorum ?
-                        idxTo + this.quorum : this.kvs.getKvsList().size();
-    
-            } while (savedReplicasLst.size() < this.quorum && idxFrom < idxTo);
-            executor.shutdown();
-    
-            if (savedReplicasLst.size() < this.quorum) {
-                if (this.gcEnabled) mds.markOrphanKey(key, ts, savedReplicasLst);
-                logger.warn("Could not store data in cloud stores for key {}.", key);
-                throw new HybrisException("Could not store data on cloud stores");
+        for (ScheduledFuture<?> watchdog : watchdogs)
+            watchdog.cancel(false);
+        for (Kvs kvStore : kvsSublst)
+            if (!savedReplicasLst.contains(kvStore))
+                this.kvs.reportTimeout(kvStore);
+
+        if (copied != length || savedReplicasLst.size() < this.quorum) {
+            UploadPipe.abort(pipes);
+            // uploads which failed or timed out may still have left an object behind
+            if (this.gcEnabled) mds.markOrphanKey(key, ts, kvsSublst);
+            logger.warn("Could not store data in cloud stores for key {}.", key);
+            throw new HybrisException("Could not store data on cloud stores");
+        }
+
+        boolean overwritten = false;
+        try {
+            Metadata newMd = new Metadata(ts, digest.digest(), (int) length, savedReplicasLst, cryptoKey);
+            overwritten = this.mds.tsWrite(key, newMd, stat.getVersion());
+        } catch (HybrisException e) {
+            if (this.gcEnabled) mds.markOrphanKey(key, ts, savedReplicasLst);
+            logger.warn("Could not store metadata on Zookeeper for key {}.", key);
+            throw new HybrisException("Could not store the metadata on Zookeeper");
+        }
+
+        if (this.gcEnabled && overwritten) mds.markStaleKey(key);
+
+        logger.info("Data stored on: {}", savedReplicasLst);
+        return savedReplicasLst;
+    }
+
+
+    /**
+     * Streaming write of a value in parts of <partSize> bytes, each part
+     * being read from <src> once the upload <partWindow> parts before is done.
+     * @param src the stream of the (encrypted) value
+     */
+    private List<Kvs> putParts(String key, Timestamp ts, Stat stat, InputStream src, long length,
+            byte[] cryptoKey) throws HybrisException {
+
+        int partSize = this.partSize;
+        long parts = (length - 1) / partSize + 1;
+        if (parts > Integer.MAX_VALUE) {
+            logger.warn("Could not store the value of {}: {} B make too many parts of {} B", key, length, partSize);
+            throw new HybrisException("The value of " + key + " is too large for parts of " + partSize + " B");
+        }
+        byte[][] partsHashes = new byte[(int) parts][];
+        List<AsyncStore> stores = new ArrayList<AsyncStore>(partsHashes.length);
+        List<CompletableFuture<List<Kvs>>> uploads = new ArrayList<CompletableFuture<List<Kvs>>>(partsHashes.length);
+        List<Kvs> savedReplicasLst = new ArrayList<Kvs>();
+        try {
+            for (int i=0; i<partsHashes.length; i++) {
+                if (i >= this.partWindow)
+                    for (Kvs kvStore : uploads.get(i - this.partWindow).join())
+                        if (!savedReplicasLst.contains(kvStore))
+                            savedReplicasLst.add(kvStore);
+
+                byte[] part = new byte[(int) Math.min(partSize, length - (long) i * partSize)];
+                ByteStreams.readFully(src, part);
+                partsHashes[i] = Utils.getHash(part);
+                byte[][] slots = new byte[this.quorum][];
+                Arrays.fill(slots, part);
+                AsyncStore store = new AsyncStore(Utils.getKvsPartKey(key, ts, i), slots, false, false);
+                stores.add(store);
+                uploads.add(store.start());
             }
-    
-            if (this.cacheEnabled && CachePolicy.ONWRITE.equals(this.cachePolicy))
-                this.cache.set(kvsKey, this.cacheExp, value);
+            for (int i=Math.max(0, uploads.size() - this.partWindow); i<uploads.size(); i++)
+                for (Kvs kvStore : uploads.get(i).join())
+                    if (!savedReplicasLst.contains(kvStore))
+                        savedReplicasLst.add(kvStore);
+        } catch (IOException | CompletionException | CancellationException e) {
+            if (this.gcEnabled) {
+                // the parts still being uploaded are orphans as well, once stored
+                CompletableFuture.allOf(uploads.toArray(new CompletableFuture<?>[uploads.size()]))
+                        .handle((v, t) -> null).join();
+                for (AsyncStore store : stores)
+                    for (Kvs kvStore : getWritten(store))
+                        if (!savedReplicasLst.contains(kvStore))
+                            savedReplicasLst.add(kvStore);
+                mds.markOrphanKey(key, ts, savedReplicasLst);
+            }
+            logger.warn("Could not store data in cloud stores for key {}.", key, e);
+            throw new HybrisException("Could not store data on cloud stores");
         }
 
         boolean overwritten = false;
         try {
-            Metadata newMd;
-            if (this.ecEnabled)
-                newMd = new Metadata(ts, chunkHashes, savedReplicasLst, value.length, cryptoKey);
-            else
-                newMd = new Metadata(ts, Utils.getHash(value), value.length, savedReplicasLst, cryptoKey);
+            Metadata newMd = new Metadata(ts, partsHashes, partSize, savedReplicasLst, length, cryptoKey);
             overwritten = this.mds.tsWrite(key, newMd, stat.getVersion());
         } catch (HybrisException e) {
             if (this.gcEnabled) mds.markOrphanKey(key, ts, savedReplicasLst);
@@ -439,7 +758,70 @@ public class Hybris {
         return savedReplicasLst;
     }
 
-    
+
+    /**
+     * Pipe from the thread reading a streamed value to the upload of a KvStore.
+     * It can be aborted by any thread, so that both the upload and the writes fail
+     * (closing the ends of a PipedInputStream neither wakes up a blocked reader
+     * nor tells it whether the value is complete).
+     */
+    private static class UploadPipe extends FilterInputStream {
+
+        private final PipedOutputStream out;
+        private volatile boolean aborted = false;
+
+        UploadPipe() throws IOException {
+            super(new PipedInputStream(STREAM_BUFFER_SIZE));
+            this.out = new PipedOutputStream((PipedInputStream) this.in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (this.aborted)
+                throw new IOException("Upload aborted");
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (this.aborted)
+                throw new IOException("Upload aborted");
+            return n;
+        }
+
+        /**
+         * @throws IOException if the upload failed or has been aborted
+         */
+        void write(byte[] buf, int len) throws IOException {
+            this.out.write(buf, 0, len);
+        }
+
+        /**
+         * Signals the end of the value to the upload.
+         */
+        void finish() {
+            try {
+                this.out.close();
+            } catch (IOException e) { }
+        }
+
+        void abort() {
+            this.aborted = true;
+            try {
+                this.in.close();    // fails the writes
+            } catch (IOException e) { }
+            this.finish();          // wakes up the reader
+        }
+
+        static void abort(List<UploadPipe> pipes) {
+            for (UploadPipe pipe : pipes)
+                pipe.abort();
+        }
+    }
+
+
     /**
      * Writes a map of key and byte arrays atomically.
      * @param map map of keys and value to write 
@@ -466,85 +848,145 @@ public class Hybris {
             }
         }
         
-        // XXX crypto, EC?
-            
+        // the values are uploaded concurrently, within a budget of in-flight bytes
+        final Semaphore budget = new Semaphore(this.multiPutBudget);
+        LinkedHashMap<String, EncodedValue> encodedValues = new LinkedHashMap<String, EncodedValue>();
+        LinkedHashMap<String, AsyncUpload> stores = new LinkedHashMap<String, AsyncUpload>();
+        LinkedHashMap<String, CompletableFuture<List<Kvs>>> uploads =
+                new LinkedHashMap<String, CompletableFuture<List<Kvs>>>();
+        final AtomicBoolean uploadFailed = new AtomicBoolean();
+        boolean failed = false;
         for (Entry<String, byte[]> entry: map.entrySet()) {
-            
-            List<Kvs> savedReplicasLst = new ArrayList<Kvs>();
-            int idxFrom = 0; long start; Future<Kvs> future;
-            String kvsKey = Utils.getKvsKey(entry.getKey(), mdMap.get(entry.getKey()).getTs());
-                  
-            ExecutorService executor = Executors.newFixedThreadPool(this.quorum);
-            CompletionService<Kvs> compServ = new ExecutorCompletionService<Kvs>(executor);
-            int idxTo = this.quorum;
-            do {
-                List<Kvs> kvsSublst = this.kvs.getKvsSortedByWriteLatency().subList(idxFrom, idxTo);
-                start = System.currentTimeMillis();
-                for (Kvs kvStore : kvsSublst)
-                    compServ.submit(this.kvs.new KvsPutWorker(kvStore, kvsKey, entry.getValue()));
-        
-                Kvs savedReplica = null;
-                for (int i=0; i<kvsSublst.size(); i++)
-                    try {
-                        future =  compServ.poll(this.TIMEOUT_WRITE, TimeUnit.SECONDS);
-                        if (future != null && 
-                                !(savedReplica = future.get()).getId().startsWith(KvsManager.FAIL_PREFIX)) {
-                            logger.debug("Data ({} B) stored on {}, {} ms", entry.getValue().length, savedReplica,
-                                    System.currentTimeMillis() - start);
-                            savedReplicasLst.add(savedReplica);
-                            if (savedReplicasLst.size() >= this.quorum)
-                                break;
-                        }
-                    } catch (InterruptedException | ExecutionException e) {
-                        logger.warn("Exception on write task execution", e);
-                    }
-    
-                idxFrom = idxTo;
-                idxTo = this.kvs.getKvsList().size() > idxTo + this.quorum ?
-                        idxTo + this.quorum : this.kvs.getKvsList().size();
-    
-            } while (savedReplicasLst.size() < this.quorum && idxFrom < idxTo);
-            executor.shutdown();
-    
-            if (savedReplicasLst.size() < this.quorum) {
-                if (this.gcEnabled) 
-                	mds.markOrphanKey(entry.getKey(),
-                            mdMap.get(entry.getKey()).getTs(), 
-                            savedReplicasLst);
-                logger.warn("Could not store data in cloud stores for key {}.", entry.getKey());
-                throw new HybrisException("Could not store data on cloud stores");
+            if (uploadFailed.get()) {   // the batch cannot be committed: no further value is uploaded
+                failed = true;
+                break;
             }
-            
-            mdMap.get(entry.getKey()).setReplicasLst(savedReplicasLst);
-    
-            if (this.cacheEnabled && CachePolicy.ONWRITE.equals(this.cachePolicy))
-                this.cache.set(kvsKey, this.cacheExp, entry.getValue());
+            EncodedValue encodedValue = this.encodeValue(entry.getKey(), mdMap.get(entry.getKey()), entry.getValue());
+            encodedValues.put(entry.getKey(), encodedValue);
+
+            // a value larger than the whole budget is uploaded alone
+            final int permits = (int) Math.min(encodedValue.getSlotsSize(), this.multiPutBudget);
+            try {
+                budget.acquire(permits);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (encodedValue.ecEnabled)     // never uploaded
+                    this.ec.release(encodedValue.slots);
+                failed = true;
+                break;
+            }
+
+            AsyncUpload store = this.newUpload(entry.getKey(), mdMap.get(entry.getKey()).getTs(), encodedValue);
+            stores.put(entry.getKey(), store);
+            uploads.put(entry.getKey(), store.start().whenComplete((savedReplicasLst, t) -> {
+                budget.release(permits);
+                if (t != null)
+                    uploadFailed.set(true);
+            }));
         }
-        
-        for (Entry<String, Metadata> entry : mdMap.entrySet()) {
-            mdMap.get(entry.getKey()).setHash(Utils.getHash(map.get(entry.getKey())));
-            mdMap.get(entry.getKey()).setSize(map.get(entry.getKey()).length);
-            mdMap.get(entry.getKey()).setCryptoKey(null);
+
+        for (Entry<String, CompletableFuture<List<Kvs>>> upload : uploads.entrySet())
+            try {
+                String key = upload.getKey();
+                mdMap.put(key, encodedValues.get(key).toMetadata(mdMap.get(key).getTs(), upload.getValue().join()));
+            } catch (CompletionException | CancellationException e) {
+                logger.warn("Could not store data in cloud stores for key {}.", upload.getKey());
+                failed = true;
+            }
+
+        if (failed) {
+            if (this.gcEnabled)
+                for (Entry<String, AsyncUpload> entry : stores.entrySet())
+                    this.markAbandoned(entry.getKey(), mdMap.get(entry.getKey()).getTs(), entry.getValue());
+            throw new HybrisException("Could not store data on cloud stores");
         }
-        
+
+        if (this.cacheEnabled && CachePolicy.ONWRITE.equals(this.cachePolicy))
+            for (Entry<String, EncodedValue> entry: encodedValues.entrySet())
+                if (entry.getValue().isCacheable())
+                    this.cache.set(Utils.getKvsKey(entry.getKey(), mdMap.get(entry.getKey()).getTs()),
+                            this.cacheExp, entry.getValue().data);
+
         try {
             mds.tsMultiWrite(mdMap, statMap);
         } catch (HybrisException e) {
-            if (this.gcEnabled)
-                for (Entry<String, byte[]> entry: map.entrySet())
-                	mds.markOrphanKey(entry.getKey(), mdMap.get(entry.getKey()).getTs(), 
-                            mdMap.get(entry.getKey()).getReplicasLst());
             logger.warn("Could not transactionally write metadata on ZooKeeper");
-            throw new HybrisException("Could not store the metadata on Zookeeper");
+            /* the transaction may have been committed anyway (e.g. if the connection
+             * was lost afterwards): the values are abandoned only if it was not */
+            Entry<String, Metadata> first = mdMap.entrySet().iterator().next();
+            Metadata written;
+            try {
+                written = mds.tsRead(first.getKey(), null);
+            } catch (HybrisException re) {
+                logger.warn("Could not check the outcome of the transactional write, no orphan marked", re);
+                throw new HybrisException("Could not store the metadata on Zookeeper", e);
+            }
+            if (written == null || !first.getValue().getTs().equals(written.getTs())) {
+                if (this.gcEnabled)
+                    for (Entry<String, AsyncUpload> entry : stores.entrySet())
+                        this.markAbandoned(entry.getKey(), mdMap.get(entry.getKey()).getTs(), entry.getValue());
+                throw new HybrisException("Could not store the metadata on Zookeeper", e);
+            }
+            logger.info("The transactional write of the metadata turned out to be committed");
         }
 
         // XXX if (this.gcEnabled && overwritten) this.mds.new GcMarker(key).start();
+        for (Entry<String, AsyncUpload> entry : stores.entrySet()) {
+            this.addBonusReplicas(entry.getKey(), mdMap.get(entry.getKey()).getTs(), entry.getValue(),
+                    encodedValues.get(entry.getKey()).data.length);
+            this.markCancelled(entry.getKey(), mdMap.get(entry.getKey()).getTs(), entry.getValue());
+        }
         logger.info("Data successfully stored.");
         return true;
     }
     
+    /**
+     * Marks as orphans the slots stored by the upload of a value which is
+     * not going to be committed, once its straggler uploads are done as well.
+     */
+    private void markAbandoned(final String key, final Timestamp ts, final AsyncUpload store) {
+        store.getBonusReplicas().whenComplete((bonus, t) -> {
+            List<Kvs> saved = getWritten(store);
+            if (bonus != null)
+                for (Kvs kvStore : bonus)
+                    if (!saved.contains(kvStore))
+                        saved.add(kvStore);
+            if (!saved.isEmpty())
+                mds.markOrphanKey(key, ts, saved);
+        });
+    }
+
+
+    /**
+     * Marks as orphans the slots that the straggler uploads of a committed
+     * value, cancelled under the CANCEL policy, may have stored anyway.
+     * Parted values are left to the batch GC, since collecting an orphan
+     * deletes all the parts of the value from a KvStore.
+     */
+    private void markCancelled(String key, Timestamp ts, AsyncUpload upload) {
+        List<Kvs> cancelled = upload.getCancelled();
+        if (this.gcEnabled && !cancelled.isEmpty() && !(upload instanceof AsyncPartsStore))
+            mds.markOrphanKey(key, ts, cancelled);
+    }
+
+
+    /**
+     * @return the KvStores which may store a slot of the value written by <upload>,
+     *          including the ones of its cancelled straggler uploads
+     */
+    private static List<Kvs> getWritten(AsyncUpload upload) {
+        List<Kvs> written = upload.getSaved();
+        for (Kvs kvStore : upload.getCancelled())
+            if (!written.contains(kvStore))
+                written.add(kvStore);
+        return written;
+    }
+
+
     /**
      * Fetches the value associated with <key>.
+     * Values larger than 2 GiB (which are stored in parts) can only be read
+     * with {@link #get(String, OutputStream)} or by ranges.
      * @param key
      * @return a byte array containing the value associated with <key>.
      * @throws HybrisException
@@ -560,29 +1002,40 @@ public class Hybris {
         byte[] value = null;
         String kvsKey = Utils.getKvsKey(key, md.getTs());
         
+        if (md.getSize() > Integer.MAX_VALUE)
+            throw new HybrisException("The value of " + key + " is too large to be read in a byte array");
+
+        if (md.getPartsHashes() != null)    // Parts
+            try {
+                return this.decrypt(key, md, this.getPartsAsync(key, md, 0, md.getSize()).join());
+            } catch (CompletionException | CancellationException e) {
+                logger.error("Could not retrieve the parts of {} from cloud stores.", key);
+                throw new HybrisException("Could not retrieve data from cloud stores", e.getCause());
+            }
+
         if (this.ecEnabled) {   // Erasure coding
             
-            ExecutorService executor = Executors.newFixedThreadPool(k);
             CompletionService<Entry<Kvs, byte[]>> compServ = 
-                    new ExecutorCompletionService<Entry<Kvs, byte[]>>(executor);
-            List<Kvs> kvsLst = this.kvs.getKvsSortedByReadLatency();
-            kvsLst.retainAll(md.getReplicasLst());
+                    new KvsCompletionService<Entry<Kvs, byte[]>>(this.scheduler);
+            List<Kvs> kvsLst = this.getChunkHoldersSortedByReadLatency(md);
             @SuppressWarnings("unchecked")
             Future<Entry<Kvs, byte[]>>[] futuresArray = new Future[kvsLst.size()];
             Future<Entry<Kvs, byte[]>> futureResult;
-            Entry<Kvs, byte[]> chunk = new AbstractMap.SimpleEntry<Kvs, byte[]>(null, null);
             EcChunk[] chunks = new EcChunk[md.getReplicasLst().size()];
             for (int i=0; i<chunks.length; i++)
                 chunks[i] = this.ec.new EcChunk(null, md.getChunksHashes()[i], 
                                                 md.getReplicasLst().get(i), ChunkState.KO);
             
+            // the whole read, late answers included, is bounded by the read timeout
+            long readDeadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(this.TIMEOUT_READ);
             int idxFrom = 0, idxTo = k;
             boolean completed = false;
             int retrieved = 0;
             do {
                 List<Kvs> kvsSublst = kvsLst.subList(idxFrom, idxTo);
                 for (Kvs kvStore : kvsSublst) {
-                    futuresArray[kvsSublst.indexOf(kvStore)] = compServ.submit(this.kvs.new KvsGetWorker(kvStore, kvsKey));
+                    futuresArray[kvsSublst.indexOf(kvStore)] = compServ.submit(
+                            this.kvs.new KvsGetWorker(kvStore, kvsKey, this.ec.getBlockSize((int) md.getSize(), k)));
                     for (int j=0; j<chunks.length; j++)
                         if (kvStore.equals(chunks[j].kvs) && 
                                 ChunkState.KO.equals(chunks[j].state)) {
@@ -591,34 +1044,18 @@ public class Hybris {
                         }
                 }
                 
+                long deadline = System.currentTimeMillis()
+                        + this.getTimeout(kvsSublst, false, this.ec.getBlockSize((int) md.getSize(), k));
                 for (int i=0; i<kvsSublst.size(); i++)
                     try {
-                        futureResult =  compServ.poll(this.TIMEOUT_READ, TimeUnit.SECONDS);
-                        if (futureResult != null && 
-                                !(chunk = futureResult.get()).getKey().getId().startsWith(KvsManager.FAIL_PREFIX)) {
-                            
-                            for (int j=0; j<chunks.length; j++) {
-                                if (chunk.getKey().equals(chunks[j].kvs) && 
-                                        ChunkState.PENDING.equals(chunks[j].state)) {
-                                    if (Arrays.equals(chunks[j].hash, Utils.getHash(chunk.getValue()))) {
-                                        chunks[j].state = ChunkState.OK;
-                                        chunks[j].data = chunk.getValue();
-                                        retrieved++;
-                                        logger.debug("Chunk {} retrieved from {}", j, chunks[j].kvs);
-                                    } else {
-                                        chunks[j].state = ChunkState.KO;
-                                        logger.warn("Tampered chunk {} retrieved from {}", j, chunks[j].kvs);
-                                    }
-                                    break;
-                                }
-                            }
-                         } else if (chunk != null)
-                                 for (int j=0; j<chunks.length; j++)
-                                     if (chunk.getKey().getId().contains(chunks[i].kvs.getId()))
-                                         chunks[i].state = ChunkState.KO;
-
+                        futureResult =  compServ.poll(Math.max(0, deadline - System.currentTimeMillis()),
+                                TimeUnit.MILLISECONDS);
+                        if (futureResult == null)
+                            continue;   // timed out: the chunk stays pending, a late answer is still matched
+                        if (this.collectChunk(futureResult.get(), chunks))
+                            retrieved++;
                     } catch (InterruptedException | ExecutionException e) {
-                        logger.warn("Exception on write task execution", e);
+                        logger.warn("Exception on read task execution", e);
                     }
                 
                 if (retrieved < k) { 
@@ -629,53 +1066,27 @@ public class Hybris {
                 } else
                     completed = true;
             } while (!completed && idxFrom < idxTo);
-            executor.shutdown();
+            
+            // no KvStore is left: the reads which timed out may still answer
+            while (retrieved < k && countPending(chunks) > 0)
+                try {
+                    futureResult = compServ.poll(Math.max(0, readDeadline - System.currentTimeMillis()),
+                            TimeUnit.MILLISECONDS);
+                    if (futureResult == null)
+                        break;
+                    if (this.collectChunk(futureResult.get(), chunks))
+                        retrieved++;
+                } catch (InterruptedException | ExecutionException e) {
+                    logger.warn("Exception on read task execution", e);
+                    break;
+                }
             
             if (retrieved < k) {
                 logger.error("Could not retrieve enough chunks for decoding data.");
                 return null;
             }
             
-            byte[][] dataBlocks = new byte[k][], 
-                    codingBlocks = new byte[m][];
-            int chunkLen = 0;
-            int[] erasures = new int[k+m];
-            int idxEr = 0;
-            for (int j=0; j<k; j++)
-                if (chunks[j].state.equals(ChunkState.OK)){
-                    dataBlocks[j] = chunks[j].data;
-                    if (chunkLen == 0) chunkLen = chunks[j].data.length;
-                } else {
-                    erasures[idxEr] = j;
-                    idxEr++;
-                }
-            for (int j=0; j<m; j++)
-                if (chunks[k + j].state.equals(ChunkState.OK)) {
-                    codingBlocks[j] = chunks[k + j].data;
-                    if (chunkLen == 0) chunkLen = chunks[k + j].data.length;
-                } else {
-                    erasures[idxEr] = k + j;
-                    idxEr++;
-                }
-            
-            for (int i = 0; i < idxEr; i++)
-                if (erasures[i] < k)
-                    dataBlocks[erasures[i]] = new byte[chunkLen];
-                else 
-                    codingBlocks[erasures[i]-k] = new byte[chunkLen];
-            erasures[idxEr] = -1;
-            
-            value = ec.decode(dataBlocks, codingBlocks, erasures, k, m, md.getSize());
-            
-            if (md.getCryptoKey() != null)
-                try {
-                    logger.debug("Decrypting data for key {}", key);
-                    value = Utils.decrypt(value, md.getCryptoKey(), this.IV);
-                } catch (GeneralSecurityException | UnsupportedEncodingException e) {
-                    logger.error("Could not decrypt data", e);
-                    throw new HybrisException("Could not decrypt data", e);
-                }
-            return value;
+            return this.decodeChunks(key, md, chunks);
             
         } else {    // Replication
 
@@ -696,15 +1107,15 @@ public class Hybris {
                     return value;
                 }
             }
+
+            if (this.hedgedReads)
+                return this.hedgedGet(key, md, kvsKey);
     
-            for (Kvs kvStore : this.kvs.getKvsSortedByReadLatency()) {
-    
-                if (!md.getReplicasLst().contains(kvStore))
-                    continue;
+            for (Kvs kvStore : this.kvs.getKvsSortedByReadLatency(md.getReplicasLst())) {
     
                 try {
-                    // XXX check file size to prevent DOS
-                    value = this.kvs.get(kvStore, kvsKey);
+                    // values larger than expected are rejected without downloading them
+                    value = this.kvs.get(kvStore, kvsKey, (int) md.getSize());
                 } catch (IOException e) {
                     continue;
                 }
@@ -742,6 +1153,678 @@ public class Hybris {
     }
 
 
+    /**
+     * Fetches <length> bytes of the value associated with <key>, starting from <offset>.
+     * With replication, the whole value is fetched and verified as by {@link #get(String)},
+     * unless it is stored in parts, in which case only the parts covering the range
+     * are downloaded and verified against their hashes.
+     * Unverified ranged reads of a single KvStore can be enabled with
+     * {@link #setUnverifiedRanges(boolean)}.
+     * With erasure coding, only the data chunks covering the range are downloaded
+     * and verified; the value is decoded only if any of them cannot be retrieved.
+     * @param key
+     * @param offset the position of the first byte to read
+     * @param length the number of bytes to read
+     * @return the bytes read, fewer than <length> if the value ends before,
+     *          or null if there is no value associated with <key>
+     * @throws HybrisException
+     */
+    public byte[] get(String key, long offset, int length) throws HybrisException {
+
+        if (offset < 0 || length < 0)
+            throw new IllegalArgumentException("Offset and length must not be negative");
+
+        Metadata md = this.mds.tsRead(key, null);
+        if (md == null || md.isTombstone()) {
+            logger.warn("Could not find metadata associated with key {}.", key);
+            return null;
+        }
+        if (offset >= md.getSize() || length == 0)
+            return new byte[0];
+
+        // only values stored in parts may exceed 2 GiB
+        long from = offset;
+        long to = Math.min(md.getSize(), offset + length);
+
+        // with AES/CFB a block is decrypted using the previous encrypted block as IV
+        long alignedFrom = from;
+        long fetchFrom = from;
+        if (md.getCryptoKey() != null) {
+            alignedFrom = from - from % Utils.CRYPTO_BLOCK_SIZE;
+            fetchFrom = Math.max(0, alignedFrom - Utils.CRYPTO_BLOCK_SIZE);
+        }
+
+        String kvsKey = Utils.getKvsKey(key, md.getTs());
+        byte[] range;
+        if (md.getPartsHashes() != null)
+            try {
+                range = this.getPartsAsync(key, md, fetchFrom, to).join();
+            } catch (CompletionException | CancellationException e) {
+                range = null;
+            }
+        else if (this.ecEnabled)
+            range = this.getRangeFromChunks(md, kvsKey, (int) fetchFrom, (int) to);
+        else if (this.unverifiedRanges)
+            range = this.getRangeFromReplicas(md, kvsKey, (int) fetchFrom, (int) to);
+        else
+            range = null;
+
+        if (range == null) {
+            logger.debug("Could not read the range of {}, fetching the whole value", key);
+            byte[] value = this.get(key);
+            if (value == null)
+                return null;
+            return Arrays.copyOfRange(value, (int) Math.min(from, value.length), (int) Math.min(to, value.length));
+        }
+
+        if (md.getCryptoKey() != null)
+            try {
+                logger.debug("Decrypting data for key {}", key);
+                byte[] iv = this.IV;
+                if (alignedFrom > 0) {
+                    iv = Arrays.copyOfRange(range, 0, Utils.CRYPTO_BLOCK_SIZE);
+                    range = Arrays.copyOfRange(range, Utils.CRYPTO_BLOCK_SIZE, range.length);
+                }
+                range = Utils.decrypt(range, md.getCryptoKey(), iv);
+                range = Arrays.copyOfRange(range, (int) (from - alignedFrom), (int) (to - alignedFrom));
+            } catch (GeneralSecurityException | UnsupportedEncodingException e) {
+                logger.error("Could not decrypt data", e);
+                throw new HybrisException("Could not decrypt data", e);
+            }
+
+        return range;
+    }
+
+
+    /**
+     * Fetches the values associated with a collection of keys.
+     * Their metadata are read in a single batch, then the values are fetched
+     * concurrently, at most hybris.multiget.window at a time.
+     * The read is all-or-nothing: as soon as a value cannot be fetched,
+     * no further fetch is started and a HybrisException is thrown,
+     * without any of the values already fetched.
+     * @param keys
+     * @return a map of the keys, in iteration order, and their values
+     *          (null for keys without any value)
+     * @throws HybrisException if any of the values could not be fetched
+     */
+    public Map<String, byte[]> get(Collection<String> keys) throws HybrisException {
+
+        LinkedHashMap<String, Stat> statMap = new LinkedHashMap<String, Stat>();
+        for (String key : keys)
+            statMap.put(key, new Stat());
+        LinkedHashMap<String, Metadata> mdMap = this.mds.tsMultiRead(statMap);
+
+        final CompletableFuture<Void> failed = new CompletableFuture<Void>();
+        final List<CompletableFuture<byte[]>> fetches = new ArrayList<CompletableFuture<byte[]>>(statMap.size());
+        for (final String key : statMap.keySet()) {
+            final Metadata md = mdMap.get(key);
+            // a value is fetched once the one <multiGetWindow> positions before is done
+            CompletableFuture<?> previous = fetches.size() < this.multiGetWindow ?
+                    CompletableFuture.completedFuture(null) : fetches.get(fetches.size() - this.multiGetWindow);
+            CompletableFuture<byte[]> fetch = previous.handle((v, t) -> null).thenCompose(v -> failed.isDone() ?
+                    Utils.<byte[]>failedFuture(new CancellationException()) : this.getAsync(key, md));
+            fetch.whenComplete((value, t) -> {
+                if (t != null)
+                    failed.completeExceptionally(t);
+            });
+            fetches.add(fetch);
+        }
+
+        try {
+            CompletableFuture.anyOf(failed,
+                    CompletableFuture.allOf(fetches.toArray(new CompletableFuture<?>[fetches.size()]))).get();
+        } catch (InterruptedException e) {
+            failed.cancel(false);
+            throw new HybrisException("Interrupted while fetching values", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            logger.warn("Could not fetch all the values", cause);
+            throw new HybrisException("Could not fetch all the values", cause);
+        }
+
+        Map<String, byte[]> values = new LinkedHashMap<String, byte[]>(statMap.size());
+        int i = 0;
+        for (String key : statMap.keySet())
+            values.put(key, fetches.get(i++).join());
+        return values;
+    }
+
+
+    /**
+     * Writes the value associated with <key> to a stream.
+     * With replication, the value is written to <out> while it is downloaded
+     * and its hash is checked at the end: if the replica turns out to be
+     * tampered or the download fails after some data has been written,
+     * a HybrisException is thrown and the data written to <out> must be discarded.
+     * The cache is not used.
+     * A value stored in parts is written part by part, each one once verified,
+     * with at most hybris.parts.window parts in memory; the same applies if
+     * a part cannot be retrieved after the previous ones have been written.
+     * With erasure coding the value is buffered in memory before being written.
+     * @param key
+     * @param out the stream to write the value to; it is not closed
+     * @return false if there is no value associated with <key>
+     * @throws HybrisException
+     */
+    public boolean get(String key, OutputStream out) throws HybrisException {
+
+        if (this.ecEnabled) {
+            byte[] value = this.get(key);
+            if (value == null)
+                return false;
+            try {
+                out.write(value);
+            } catch (IOException e) {
+                throw new HybrisException("Could not write the value of " + key, e);
+            }
+            return true;
+        }
+
+        Metadata md = this.mds.tsRead(key, null);
+        if (md == null || md.isTombstone()) {
+            logger.warn("Could not find metadata associated with key {}.", key);
+            return false;
+        }
+
+        if (md.getPartsHashes() != null) {
+            this.getParts(key, md, out);
+            return true;
+        }
+
+        String kvsKey = Utils.getKvsKey(key, md.getTs());
+        for (Kvs kvStore : this.kvs.getKvsSortedByReadLatency(md.getReplicasLst())) {
+
+            MessageDigest digest = Utils.getHashDigest();
+            CountingOutputStream counter = new CountingOutputStream(new FilterOutputStream(out) {
+                public void write(byte[] b, int off, int len) throws IOException { this.out.write(b, off, len); }
+                public void close() throws IOException { this.out.flush(); }   // do not close <out>
+            });
+            OutputStream dst = counter;
+            boolean found;
+            try {
+                if (md.getCryptoKey() != null)
+                    dst = new CipherOutputStream(dst,
+                            Utils.getCipher(Cipher.DECRYPT_MODE, md.getCryptoKey(), this.IV));
+                dst = new DigestOutputStream(dst, digest);
+                found = this.kvs.get(kvStore, kvsKey, dst);
+                dst.close();
+            } catch (GeneralSecurityException e) {
+                logger.error("Could not decrypt data", e);
+                throw new HybrisException("Could not decrypt data", e);
+            } catch (IOException e) {
+                if (counter.getCount() == 0)
+                    continue;
+                throw new HybrisException("Could not read the value of " + key + " from " + kvStore, e);
+            }
+
+            if (!found) {
+                /* This could be due to:
+                 * a. Byzantine replicas
+                 * b. concurrent gc, after the value has been overwritten
+                 */
+                Metadata newMd = this.mds.tsRead(key, null);
+                if (newMd == null || newMd.isTombstone() || newMd.getTs().isGreater(md.getTs()))
+                    return this.get(key, out);
+                continue;
+            }
+
+            if (Arrays.equals(md.getHash(), digest.digest())) {
+                logger.info("Value of {} retrieved from kvStore {}", key, kvStore);
+                return true;
+            }
+            logger.warn("Tampered data retrieved from {}", kvStore);
+            if (counter.getCount() > 0)
+                throw new HybrisException("Tampered data of " + key + " retrieved from " + kvStore);
+        }
+
+        throw new HybrisException("Could not retrieve the value of " + key + " from cloud stores");
+    }
+
+
+    /**
+     * Decrypts <value>, if it was encrypted.
+     */
+    private byte[] decrypt(String key, Metadata md, byte[] value) throws HybrisException {
+        if (md.getCryptoKey() == null)
+            return value;
+        try {
+            logger.debug("Decrypting data for key {}", key);
+            return Utils.decrypt(value, md.getCryptoKey(), this.IV);
+        } catch (GeneralSecurityException | UnsupportedEncodingException e) {
+            logger.error("Could not decrypt data", e);
+            throw new HybrisException("Could not decrypt data", e);
+        }
+    }
+
+
+    /**
+     * @return the keys of the objects storing on the KvStores the value described by <md>
+     */
+    private List<String> getKvsKeys(String key, Metadata md) {
+        if (md.getPartsHashes() == null)
+            return Collections.singletonList(Utils.getKvsKey(key, md.getTs()));
+        List<String> kvsKeys = new ArrayList<String>(md.getPartsHashes().length);
+        for (int i=0; i<md.getPartsHashes().length; i++)
+            kvsKeys.add(Utils.getKvsPartKey(key, md.getTs(), i));
+        return kvsKeys;
+    }
+
+
+    /**
+     * Encrypts (if needed) the value of <key> and splits it in the slots
+     * to store on the KvStores.
+     * @param md the current metadata of <key>, whose encryption key is reused, if any
+     */
+    private EncodedValue encodeValue(String key, Metadata md, byte[] value) {
+
+        byte[] cryptoKey = null;
+        if (this.cryptoEnabled) {
+            if (md == null || md.getCryptoKey() == null) {
+                logger.debug("Generating new encryption key for key {}", key);
+                cryptoKey = new byte[Utils.CRYPTO_KEY_LENGTH];
+                cryptoKey = Utils.generateRandomBytes(cryptoKey);
+            } else
+                cryptoKey = md.getCryptoKey();
+
+            try {
+                logger.debug("Encrypting data for key {}", key);
+                value = Utils.encrypt(value, cryptoKey, this.IV);
+            } catch(GeneralSecurityException e) {
+                logger.error("Could not encrypt data", e);
+                cryptoKey = null;
+            }
+        }
+
+        if (this.ecEnabled) {       // one chunk per KvStore
+            byte[][] chunks = this.ec.encode(value, k, m, this.ecTechnique);
+            byte[][] chunkHashes = new byte[chunks.length][];
+            for (int j=0; j<chunks.length; j++)
+                chunkHashes[j] = Utils.getHash(chunks[j]);
+            return new EncodedValue(value, cryptoKey, chunks, chunkHashes, this.ecTechnique, null, 0);
+        }
+        byte[][] replicas = new byte[this.quorum][];    // one replica per KvStore
+        Arrays.fill(replicas, value);
+        if (this.partThreshold > 0 && value.length > this.partThreshold) {
+            int partSize = this.partSize;
+            byte[][] partsHashes = new byte[(value.length + partSize - 1) / partSize][];
+            MessageDigest digest = Utils.getHashDigest();
+            for (int i=0; i<partsHashes.length; i++) {
+                digest.update(value, i * partSize, Math.min(partSize, value.length - i * partSize));
+                partsHashes[i] = digest.digest();
+            }
+            return new EncodedValue(value, cryptoKey, replicas, null, null, partsHashes, partSize);
+        }
+        return new EncodedValue(value, cryptoKey, replicas, null, null, null, 0);
+    }
+
+
+    /**
+     * Reads the bytes [from, to) of the stored value from one of its replicas.
+     * NB: the bytes are not verified (see {@link #setUnverifiedRanges(boolean)}).
+     * @return the bytes read, or null if no replica could be read
+     */
+    private byte[] getRangeFromReplicas(Metadata md, String kvsKey, int from, int to) {
+
+        for (Kvs kvStore : this.kvs.getKvsSortedByReadLatency(md.getReplicasLst())) {
+
+            try {
+                byte[] range = this.kvs.get(kvStore, kvsKey, from, to - from);
+                if (range != null && range.length == to - from) {
+                    logger.info("Range [{}, {}) of {} retrieved from kvStore {}", from, to, kvsKey, kvStore);
+                    return range;
+                }
+            } catch (IOException e) {
+                continue;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Reads the bytes [from, to) of the stored value from the data chunks covering them.
+     * @return the bytes read, or null if any of those chunks could not be retrieved
+     */
+    private byte[] getRangeFromChunks(Metadata md, String kvsKey, int from, int to) {
+
+        int blockSize = this.ec.getBlockSize((int) md.getSize(), k);
+        byte[] range = new byte[to - from];
+        for (int j = from / blockSize; j <= (to - 1) / blockSize; j++) {
+            byte[] chunk = this.getChunk(md, kvsKey, j);
+            if (chunk == null)
+                return null;
+            int chunkFrom = Math.max(from, j * blockSize);
+            int chunkTo = Math.min(to, (j + 1) * blockSize);
+            System.arraycopy(chunk, chunkFrom - j * blockSize, range, chunkFrom - from, chunkTo - chunkFrom);
+        }
+        return range;
+    }
+
+
+    /**
+     * Retrieves and verifies the j-th chunk of a value.
+     * Since KvStores are identified by their id, which may not be unique
+     * (e.g. in tests), all the KvStores with the id of the one
+     * recorded in the metadata are tried.
+     * @return the chunk, or null if it could not be retrieved
+     */
+    private byte[] getChunk(Metadata md, String kvsKey, int j) {
+
+        for (Kvs kvStore : this.kvs.getKvsSortedByReadLatency()) {
+
+            if (!kvStore.equals(md.getReplicasLst().get(j)))
+                continue;
+
+            try {
+                byte[] chunk = this.kvs.get(kvStore, kvsKey, this.ec.getBlockSize((int) md.getSize(), k));
+                if (chunk != null && Arrays.equals(md.getChunksHashes()[j], Utils.getHash(chunk))) {
+                    logger.debug("Chunk {} retrieved from {}", j, kvStore);
+                    return chunk;
+                }
+            } catch (IOException e) {
+                continue;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Matches the outcome of a chunk read with a pending chunk of its KvStore.
+     * Chunks are matched by hash, since KvStores are identified by their id,
+     * which may not be unique (e.g. in tests): a chunk not matching any hash
+     * is tampered and a failed read loses one pending chunk of its KvStore.
+     * @return true if a chunk was retrieved
+     */
+    private boolean collectChunk(Entry<Kvs, byte[]> chunk, EcChunk[] chunks) {
+        if (chunk.getKey().getId().startsWith(KvsManager.FAIL_PREFIX)) {
+            for (int j=0; j<chunks.length; j++)
+                if (chunk.getKey().getId().equals(KvsManager.FAIL_PREFIX + chunks[j].kvs.getId()) &&
+                        ChunkState.PENDING.equals(chunks[j].state)) {
+                    chunks[j].state = ChunkState.KO;
+                    break;
+                }
+            return false;
+        }
+
+        byte[] chunkHash = Utils.getHash(chunk.getValue());
+        int pendingIdx = -1;
+        for (int j=0; j<chunks.length; j++)
+            if (chunk.getKey().equals(chunks[j].kvs) && ChunkState.PENDING.equals(chunks[j].state)) {
+                if (Arrays.equals(chunks[j].hash, chunkHash)) {
+                    chunks[j].state = ChunkState.OK;
+                    chunks[j].data = chunk.getValue();
+                    logger.debug("Chunk {} retrieved from {}", j, chunks[j].kvs);
+                    return true;
+                } else if (pendingIdx == -1)
+                    pendingIdx = j;
+            }
+        if (pendingIdx != -1) {
+            chunks[pendingIdx].state = ChunkState.KO;
+            logger.warn("Tampered chunk {} retrieved from {}", pendingIdx, chunks[pendingIdx].kvs);
+        }
+        return false;
+    }
+
+    private static int countPending(EcChunk[] chunks) {
+        int pending = 0;
+        for (EcChunk chunk : chunks)
+            if (ChunkState.PENDING.equals(chunk.state))
+                pending++;
+        return pending;
+    }
+    
+    /**
+     * Decodes (and decrypts, if needed) the value of <key>
+     * from a set of chunks, at least k of which are in OK state.
+     */
+    private byte[] decodeChunks(String key, Metadata md, EcChunk[] chunks) throws HybrisException {
+
+        boolean dataIntact = true;
+        for (int j=0; j<k && dataIntact; j++)
+            dataIntact = chunks[j].state.equals(ChunkState.OK);
+        if (dataIntact)     // systematic code: the value is the concatenation of the data chunks
+            return this.concatenateChunks(key, md, chunks);
+        
+        byte[][] dataBlocks = new byte[k][], 
+                codingBlocks = new byte[m][];
+        int chunkLen = 0;
+        int[] erasures = new int[k+m];
+        int idxEr = 0;
+        for (int j=0; j<k; j++)
+            if (chunks[j].state.equals(ChunkState.OK)){
+                dataBlocks[j] = chunks[j].data;
+                if (chunkLen == 0) chunkLen = chunks[j].data.length;
+            } else {
+                erasures[idxEr] = j;
+                idxEr++;
+            }
+        for (int j=0; j<m; j++)
+            if (chunks[k + j].state.equals(ChunkState.OK)) {
+                codingBlocks[j] = chunks[k + j].data;
+                if (chunkLen == 0) chunkLen = chunks[k + j].data.length;
+            } else {
+                erasures[idxEr] = k + j;
+                idxEr++;
+            }
+        
+        for (int i = 0; i < idxEr; i++)
+            if (erasures[i] < k)
+                dataBlocks[erasures[i]] = ec.allocate(chunkLen);
+            else 
+                codingBlocks[erasures[i]-k] = ec.allocate(chunkLen);
+        erasures[idxEr] = -1;
+        
+        byte[] value;
+        try {
+            value = ec.decode(dataBlocks, codingBlocks, erasures, k, m, (int) md.getSize(), md.getEcTechnique());
+        } finally {
+            // the downloaded chunks are owned by Hybris (see Kvs#get), the reconstructed ones come from the pool
+            for (int j=0; j<k+m; j++) {
+                byte[] block = j < k ? dataBlocks[j] : codingBlocks[j - k];
+                if (ChunkState.OK.equals(chunks[j].state))
+                    ec.adopt(block);
+                else
+                    ec.release(block);
+            }
+        }
+        return this.decryptChunks(key, md, value);
+    }
+    
+    /**
+     * Builds the value of <key> out of its k data chunks, all retrieved:
+     * neither the coding chunks nor the codec are needed.
+     */
+    private byte[] concatenateChunks(String key, Metadata md, EcChunk[] chunks) throws HybrisException {
+        
+        byte[][] dataBlocks = new byte[k][];
+        for (int j=0; j<k; j++)
+            dataBlocks[j] = chunks[j].data;
+        
+        byte[] value;
+        try {
+            value = ec.concatenate(dataBlocks, k, (int) md.getSize());
+        } finally {
+            for (EcChunk chunk : chunks)
+                if (ChunkState.OK.equals(chunk.state))
+                    ec.adopt(chunk.data);
+        }
+        return this.decryptChunks(key, md, value);
+    }
+    
+    private byte[] decryptChunks(String key, Metadata md, byte[] value) throws HybrisException {
+        if (md.getCryptoKey() != null)
+            try {
+                logger.debug("Decrypting data for key {}", key);
+                value = Utils.decrypt(value, md.getCryptoKey(), this.IV);
+            } catch (GeneralSecurityException | UnsupportedEncodingException e) {
+                logger.error("Could not decrypt data", e);
+                throw new HybrisException("Could not decrypt data", e);
+            }
+        return value;
+    }
+    
+    /**
+     * @return the KvStores holding the chunks of <md> sorted by read latency,
+     *          the available ones holding data chunks first, so that reads
+     *          usually need no decoding (see {@link #decodeChunks(String, Metadata, EcChunk[])})
+     */
+    private List<Kvs> getChunkHoldersSortedByReadLatency(Metadata md) {
+        
+        List<Kvs> sorted = this.kvs.getKvsSortedByReadLatency(md.getReplicasLst());
+        List<Kvs> dataHolders = md.getReplicasLst().subList(0, Math.min(k, md.getReplicasLst().size()));
+        List<Kvs> holders = new ArrayList<Kvs>(sorted.size());
+        List<Kvs> others = new ArrayList<Kvs>(sorted.size());
+        for (Kvs kvStore : sorted) {
+            CircuitBreaker breaker = this.kvs.getCircuitBreaker(kvStore);
+            if (dataHolders.contains(kvStore) && (breaker == null || breaker.isAvailable()))
+                holders.add(kvStore);
+            else
+                others.add(kvStore);    // in the order given by the KvsManager
+        }
+        holders.addAll(others);
+        return holders;
+    }
+
+
+    /**
+     * Replicated GET issuing the read to the fastest replica and, whenever
+     * the last contacted replica does not answer within the configured
+     * percentile of its read latency, to the next one as well.
+     * The first value matching the hash in the metadata is returned
+     * and the other reads are cancelled.
+     * @return a byte array containing the value associated with <key>.
+     * @throws HybrisException
+     */
+    private byte[] hedgedGet(String key, Metadata md, String kvsKey) throws HybrisException {
+
+        List<Kvs> kvsLst = this.kvs.getKvsSortedByReadLatency(md.getReplicasLst());
+
+        CompletionService<Entry<Kvs, byte[]>> compServ =
+                new KvsCompletionService<Entry<Kvs, byte[]>>(this.scheduler);
+        List<Future<Entry<Kvs, byte[]>>> futuresLst = new ArrayList<Future<Entry<Kvs, byte[]>>>(kvsLst.size());
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(this.TIMEOUT_READ);
+        int next = 0, pending = 0;
+        byte[] value = null;
+
+        try {
+            while (next < kvsLst.size() || pending > 0) {
+
+                if (pending == 0) {     // no read in flight: no reason to wait
+                    futuresLst.add(compServ.submit(this.kvs.new KvsGetWorker(kvsLst.get(next), kvsKey, (int) md.getSize())));
+                    next++; pending++;
+                }
+
+                long now = System.currentTimeMillis();
+                if (now >= deadline)
+                    break;
+                long wait = deadline - now;
+                if (next < kvsLst.size())
+                    wait = Math.min(wait, this.getHedgeDelay(kvsLst.get(next - 1)));
+
+                Future<Entry<Kvs, byte[]>> futureResult = compServ.poll(wait, TimeUnit.MILLISECONDS);
+                if (futureResult == null) {
+                    if (next < kvsLst.size()) {
+                        logger.debug("Hedging the read of {} on {}", key, kvsLst.get(next));
+                        futuresLst.add(compServ.submit(this.kvs.new KvsGetWorker(kvsLst.get(next), kvsKey, (int) md.getSize())));
+                        next++; pending++;
+                    }
+                    continue;
+                }
+
+                pending--;
+                Entry<Kvs, byte[]> entry;
+                try {
+                    entry = futureResult.get();
+                } catch (ExecutionException | CancellationException e) {
+                    continue;
+                }
+                if (entry.getKey().getId().startsWith(KvsManager.FAIL_PREFIX))
+                    continue;
+
+                if (Arrays.equals(md.getHash(), Utils.getHash(entry.getValue()))) {
+                    value = entry.getValue();
+                    logger.info("Value of {} retrieved from kvStore {}", key, entry.getKey());
+                    break;
+                } else
+                    logger.warn("Tampered data retrieved from {}", entry.getKey());
+            }
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while reading {}", key, e);
+        } finally {
+            for (Future<Entry<Kvs, byte[]>> future : futuresLst)
+                future.cancel(true);
+        }
+
+        if (value == null)
+            /* This could be due to:
+             * a. Byzantine replicas
+             * b. concurrent gc
+             */
+            return this.parallelGet(key);
+
+        if (this.cacheEnabled && CachePolicy.ONREAD.equals(this.cachePolicy))
+            this.cache.set(kvsKey, this.cacheExp, value);
+
+        if (md.getCryptoKey() != null)
+            try {
+                logger.debug("Decrypting data for key {}", key);
+                value = Utils.decrypt(value, md.getCryptoKey(), this.IV);
+            } catch (GeneralSecurityException | UnsupportedEncodingException e) {
+                logger.error("Could not decrypt data", e);
+                throw new HybrisException("Could not decrypt data", e);
+            }
+        return value;
+    }
+
+
+    /**
+     * @return the time to wait for a read on <kvStore> before hedging it [ms]
+     */
+    private long getHedgeDelay(Kvs kvStore) {
+        LatencyHistogram hist = this.kvs.getReadLatencyHistogram(kvStore);
+        if (hist == null || hist.getCount() < HEDGE_MIN_SAMPLES)
+            return this.hedgeDefaultDelay;
+        return Math.max(1, hist.getPercentile(this.hedgePercentile));
+    }
+
+
+    /**
+     * @param write true for a write, false for a read
+     * @param size of the payload [B]
+     * @return the time to wait for an operation on <kvStore> before failing over [ms]:
+     *          a multiple of the configured percentile of the latencies observed for
+     *          the same size class (or, scaled by size, for the closest smaller one with
+     *          enough samples), never more than the configured timeout
+     */
+    private long getTimeout(Kvs kvStore, boolean write, long size) {
+        long ceiling = TimeUnit.SECONDS.toMillis(write ? this.TIMEOUT_WRITE : this.TIMEOUT_READ);
+        if (!this.adaptiveTimeouts)
+            return ceiling;
+        for (int sizeClass = KvsManager.getSizeClass(size); sizeClass >= 0; sizeClass--) {
+            LatencyHistogram hist = this.kvs.getLatencyHistogram(kvStore, write, sizeClass);
+            if (hist == null || hist.getCount() < TIMEOUT_MIN_SAMPLES)
+                continue;
+            double scale = Math.max(1, (double) size / KvsManager.getSizeClassBound(sizeClass));
+            long timeout = (long) (hist.getPercentile(this.timeoutPercentile) * this.timeoutFactor * scale);
+            return Math.min(ceiling, Math.max(this.timeoutMin, timeout));
+        }
+        return ceiling;
+    }
+
+
+    /**
+     * @return the time to wait for a batch of operations on <kvsLst> [ms]
+     */
+    private long getTimeout(List<Kvs> kvsLst, boolean write, long size) {
+        long timeout = 0;
+        for (Kvs kvStore : kvsLst)
+            timeout = Math.max(timeout, this.getTimeout(kvStore, write, size));
+        return timeout;
+    }
+
+
     /**
      * Fail-safe parallel GET function.
      * This function gets called whenever the main GET API fails
@@ -760,30 +1843,31 @@ public class Hybris {
         }
 
         String kvsKey = Utils.getKvsKey(key, md.getTs());
-        ExecutorService executor = Executors.newFixedThreadPool(this.quorum);
-        CompletionService<Entry<Kvs, byte[]>> compServ = new ExecutorCompletionService<Entry<Kvs, byte[]>>(executor);
+        CompletionService<Entry<Kvs, byte[]>> compServ =
+                new KvsCompletionService<Entry<Kvs, byte[]>>(this.scheduler);
         Future<Entry<Kvs, byte[]>> futureResult;
         byte[] value = null;
         boolean keepRetrieving = true;
 
-        List<Kvs> kvsSublst = this.kvs.getKvsSortedByReadLatency();
-        kvsSublst.retainAll(md.getReplicasLst());
-        @SuppressWarnings("unchecked")
-		Future<Entry<Kvs, byte[]>>[] futuresArray = new Future[kvsSublst.size()];
+        List<Kvs> kvsSublst = this.kvs.getKvsSortedByReadLatency(md.getReplicasLst());
+        List<Future<Entry<Kvs, byte[]>>> futuresLst = new ArrayList<Future<Entry<Kvs, byte[]>>>(kvsSublst.size());
 
         do {
+            futuresLst.clear();
             for (Kvs kvStore : kvsSublst)
-                futuresArray[kvsSublst.indexOf(kvStore)] = compServ.submit(this.kvs.new KvsGetWorker(kvStore, kvsKey));
+                futuresLst.add(compServ.submit(this.kvs.new KvsGetWorker(kvStore, kvsKey, (int) md.getSize())));
 
+            long deadline = System.currentTimeMillis() + this.getTimeout(kvsSublst, false, md.getSize());
             for (int i=0; i<kvsSublst.size(); i++)
                 try {
                     if (hwatcher.isChanged()) {
-                        for (Future<Entry<Kvs, byte[]>> future : futuresArray)
+                        for (Future<Entry<Kvs, byte[]>> future : futuresLst)
                             future.cancel(true);
                         return this.parallelGet(key);
                     }
 
-                    futureResult =  compServ.poll(this.TIMEOUT_READ, TimeUnit.SECONDS);
+                    futureResult =  compServ.poll(Math.max(0, deadline - System.currentTimeMillis()),
+                            TimeUnit.MILLISECONDS);
                     if (futureResult != null && 
                             !futureResult.get().getKey().getId().startsWith(KvsManager.FAIL_PREFIX)) {
                         
@@ -804,7 +1888,7 @@ public class Hybris {
                                 
                                 logger.info("Value of {} retrieved from kvStore {}", key, futureResult.get().getKey().getId());
                                 keepRetrieving = false;
-                                for (Future<Entry<Kvs, byte[]>> future : futuresArray)
+                                for (Future<Entry<Kvs, byte[]>> future : futuresLst)
                                     future.cancel(true);
                                 break;
                         }
@@ -814,7 +1898,6 @@ public class Hybris {
                 }
 
         } while (keepRetrieving);
-        executor.shutdown();
 
         return value;
     }
@@ -835,17 +1918,14 @@ public class Hybris {
         }
 
         if (!this.gcEnabled) {
-            String kvsKey = Utils.getKvsKey(key, md.getTs());
+            List<String> kvsKeys = this.getKvsKeys(key, md);
             for (Kvs kvStore : this.kvs.getKvsList()) {
 
                 if (!md.getReplicasLst().contains(kvStore))
                     continue;
 
-                try {
-                    this.kvs.delete(kvStore, kvsKey);
-                } catch (IOException e) {
+                for (String kvsKey : this.kvs.delete(kvStore, kvsKeys).keySet())
                     logger.warn("Could not delete {} from {}", kvsKey, kvStore);
-                }
             }
         }
         
@@ -856,6 +1936,112 @@ public class Hybris {
     }
 
 
+    /**
+     * Asynchronously writes a byte array associated with a key.
+     * Neither the calling thread nor the threads of the Hybris client
+     * block waiting for the metadata store or the KvStores.
+     * @param key
+     * @param value
+     * @return a future completed with the list of Kvs on which Hybris stored the data,
+     *          or exceptionally with a HybrisException
+     */
+    public CompletableFuture<List<Kvs>> putAsync(final String key, final byte[] value) {
+
+        final Stat stat = new Stat();
+        return this.mds.tsReadAsync(key, stat).thenComposeAsync(md -> {
+
+            final Timestamp ts;
+            if (md == null) {
+                ts = new Timestamp(0, this.clientId);
+                stat.setVersion(ZkRmds.NONODE);
+            } else {
+                ts = md.getTs();
+                ts.inc( this.clientId );
+            }
+
+            final String kvsKey = Utils.getKvsKey(key, ts);
+            final EncodedValue encodedValue = this.encodeValue(key, md, value);
+            final AsyncUpload store = this.newUpload(key, ts, encodedValue);
+            return store.start().whenComplete((savedReplicasLst, t) -> {
+                if (t != null) {
+                    if (this.gcEnabled) mds.markOrphanKey(key, ts, getWritten(store));
+                    logger.warn("Could not store data in cloud stores for key {}.", key);
+                }
+            }).thenCompose(savedReplicasLst -> {
+
+                if (encodedValue.isCacheable() && this.cacheEnabled && CachePolicy.ONWRITE.equals(this.cachePolicy))
+                    this.cache.set(kvsKey, this.cacheExp, encodedValue.data);
+
+                Metadata newMd = encodedValue.toMetadata(ts, savedReplicasLst);
+                return this.mds.tsWriteAsync(key, newMd, stat.getVersion()).handle((overwritten, t) -> {
+                    if (t != null) {
+                        if (this.gcEnabled) mds.markOrphanKey(key, ts, savedReplicasLst);
+                        logger.warn("Could not store metadata on Zookeeper for key {}.", key);
+                        throw new CompletionException(
+                                new HybrisException("Could not store the metadata on Zookeeper", t));
+                    }
+                    if (this.gcEnabled && overwritten) mds.markStaleKey(key);
+                    this.addBonusReplicas(key, ts, store, encodedValue.data.length);
+                    this.markCancelled(key, ts, store);
+                    logger.info("Data stored on: {}", savedReplicasLst);
+                    return savedReplicasLst;
+                });
+            });
+        }, this.asyncExecutor);
+    }
+
+
+    /**
+     * Asynchronously fetches the value associated with <key>.
+     * @param key
+     * @return a future completed with the value associated with <key>
+     *          (null if there is none), or exceptionally with a HybrisException
+     */
+    public CompletableFuture<byte[]> getAsync(final String key) {
+        return this.mds.tsReadAsync(key, null)
+                .thenComposeAsync(md -> this.getAsync(key, md), this.asyncExecutor);
+    }
+
+
+    /**
+     * Asynchronously deletes data and metadata associated with <key>.
+     * @param key
+     * @return a future completed once the tombstone metadata has been written,
+     *          or exceptionally with a HybrisException
+     */
+    public CompletableFuture<Void> deleteAsync(final String key) {
+
+        final Stat stat = new Stat();
+        return this.mds.tsReadAsync(key, stat).thenComposeAsync(md -> {
+
+            if (md == null) {
+                logger.debug("Could not find the metadata associated with key {}.", key);
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+
+            CompletableFuture<Void> dataDeleted = CompletableFuture.completedFuture(null);
+            if (!this.gcEnabled) {
+                List<CompletableFuture<Void>> deletions = new ArrayList<CompletableFuture<Void>>();
+                for (final Kvs kvStore : this.kvs.getKvsList())
+                    if (md.getReplicasLst().contains(kvStore))
+                        for (final String kvsKey : this.getKvsKeys(key, md))
+                            deletions.add(this.scheduler.withTimeout(this.kvs.deleteAsync(kvStore, kvsKey),
+                                    this.TIMEOUT_WRITE, TimeUnit.SECONDS).exceptionally(t -> {
+                                        logger.warn("Could not delete {} from {}", kvsKey, kvStore);
+                                        return null;
+                                    }));
+                dataDeleted = CompletableFuture.allOf(deletions.toArray(new CompletableFuture<?>[deletions.size()]));
+            }
+
+            Timestamp ts = md.getTs();
+            ts.inc( this.clientId );
+            final Metadata tombstone = Metadata.getTombstone(ts);
+            return dataDeleted.thenCompose(v -> this.mds.tsWriteAsync(key, tombstone, stat.getVersion()))
+                    .thenApply(overwritten -> (Void) null);
+        }, this.asyncExecutor);
+    }
+
+
     /**
      * Lists keys by inquiring the MDS.
      * @return
@@ -891,14 +2077,735 @@ public class Hybris {
      * Closes connections and shuts off thread pools.
      */
     public void shutdown() {
-        for (Kvs kvStore : this.kvs.getKvsList())
-            this.kvs.shutdown(kvStore);
+        this.scheduler.shutdown();
+        this.asyncExecutor.shutdown();
+        this.kvs.shutdown();
         this.mds.shutdown();
         if (this.cacheEnabled)
             this.cache.shutdown();
     }
 
 
+    /**
+     * Asynchronously fetches the value described by <md>.
+     */
+    private CompletableFuture<byte[]> getAsync(final String key, final Metadata md) {
+
+        if (md == null || md.isTombstone()) {
+            logger.warn("Could not find metadata associated with key {}.", key);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        if (md.getSize() > Integer.MAX_VALUE)
+            return Utils.failedFuture(new HybrisException("The value of " + key 
+                    + " is too large to be read in a byte array"));
+
+        final String kvsKey = Utils.getKvsKey(key, md.getTs());
+
+        if (md.getPartsHashes() != null)    // Parts
+            return this.getPartsAsync(key, md, 0, md.getSize()).thenApplyAsync(value -> {
+                try {
+                    return this.decrypt(key, md, value);
+                } catch (HybrisException e) {
+                    throw new CompletionException(e);
+                }
+            }, this.asyncExecutor);
+
+        if (this.ecEnabled) {   // Erasure coding
+            EcChunk[] chunks = new EcChunk[md.getReplicasLst().size()];
+            for (int i=0; i<chunks.length; i++)
+                chunks[i] = this.ec.new EcChunk(null, md.getChunksHashes()[i],
+                                                md.getReplicasLst().get(i), ChunkState.KO);
+            return new AsyncFetch(kvsKey, chunks, this.getChunkHoldersSortedByReadLatency(md),
+                    this.ec.getBlockSize((int) md.getSize(), k)).start().thenApplyAsync(retrieved -> {
+                try {
+                    return this.decodeChunks(key, md, retrieved);
+                } catch (HybrisException e) {
+                    throw new CompletionException(e);
+                }
+            }, this.asyncExecutor);
+        }
+
+        // Replication
+        CompletableFuture<byte[]> cached = this.cacheEnabled ?
+                this.getCachedAsync(kvsKey, md) : CompletableFuture.<byte[]>completedFuture(null);
+        return cached.thenCompose(value -> {
+            if (value != null) {
+                logger.debug("Value of {} retrieved from cache", key);
+                return CompletableFuture.completedFuture(value);
+            }
+            List<Kvs> kvsLst = this.kvs.getKvsSortedByReadLatency(md.getReplicasLst());
+            return this.getReplicaAsync(key, md, kvsKey, kvsLst, 0);
+        }).thenComposeAsync(value -> {
+
+            if (value != null) {
+                if (md.getCryptoKey() != null)
+                    try {
+                        logger.debug("Decrypting data for key {}", key);
+                        value = Utils.decrypt(value, md.getCryptoKey(), this.IV);
+                    } catch (GeneralSecurityException | UnsupportedEncodingException e) {
+                        logger.error("Could not decrypt data", e);
+                        return Utils.<byte[]>failedFuture(new HybrisException("Could not decrypt data", e));
+                    }
+                return CompletableFuture.completedFuture(value);
+            }
+
+            /* No valid replica found. This could be due to:
+             * a. Byzantine replicas
+             * b. concurrent gc, after the value has been overwritten
+             */
+            return this.mds.tsReadAsync(key, null).thenComposeAsync(newMd -> {
+                // deleted or overwritten in the meantime
+                if (newMd == null || newMd.isTombstone() || newMd.getTs().isGreater(md.getTs()))
+                    return this.getAsync(key, newMd);
+                logger.error("Could not retrieve a valid value of {} from cloud stores.", key);
+                return Utils.<byte[]>failedFuture(new HybrisException("Could not retrieve data from cloud stores"));
+            }, this.asyncExecutor);
+        }, this.asyncExecutor);
+    }
+
+
+    /**
+     * Fetches a replica from the KvStores in <kvsLst>, one at a time from <idx> on.
+     * @return a future completed with the first replica whose hash matches the metadata,
+     *          or null if there is none
+     */
+    private CompletableFuture<byte[]> getReplicaAsync(final String key, final Metadata md, final String kvsKey,
+            final List<Kvs> kvsLst, final int idx) {
+
+        if (idx >= kvsLst.size())
+            return CompletableFuture.completedFuture(null);
+
+        final Kvs kvStore = kvsLst.get(idx);
+        return this.scheduler.withTimeout(this.kvs.getAsync(kvStore, kvsKey, (int) md.getSize()),
+                this.getTimeout(kvStore, false, md.getSize()), TimeUnit.MILLISECONDS)
+                .handle((value, t) -> {
+                    if (t instanceof TimeoutException)
+                        this.kvs.reportTimeout(kvStore);
+                    if (t != null || value == null)
+                        return null;
+                    if (!Arrays.equals(md.getHash(), Utils.getHash(value))) {
+                        logger.warn("Tampered data retrieved from {}", kvStore);
+                        return null;
+                    }
+                    logger.info("Value of {} retrieved from kvStore {}", key, kvStore);
+                    if (this.cacheEnabled && CachePolicy.ONREAD.equals(this.cachePolicy))
+                        this.cache.set(kvsKey, this.cacheExp, value);
+                    return value;
+                }).thenCompose(value -> value != null ? CompletableFuture.completedFuture(value)
+                        : this.getReplicaAsync(key, md, kvsKey, kvsLst, idx + 1));
+    }
+
+
+    /**
+     * @return a future completed with the cached value of <kvsKey>,
+     *          or null if it is not cached or its hash does not match the metadata
+     */
+    private CompletableFuture<byte[]> getCachedAsync(String kvsKey, final Metadata md) {
+
+        final CompletableFuture<byte[]> result = new CompletableFuture<byte[]>();
+        try {
+            this.cache.asyncGet(kvsKey).addListener(future -> {
+                byte[] value = null;
+                try {
+                    value = (byte[]) future.get();
+                } catch (Exception e) {
+                    logger.warn("Could not read {} from cache", kvsKey);
+                }
+                result.complete(value != null && Arrays.equals(md.getHash(), Utils.getHash(value)) ? value : null);
+            });
+        } catch (Exception e) {
+            logger.warn("Could not read {} from cache", kvsKey);
+            result.complete(null);
+        }
+        return result;
+    }
+
+
+    /**
+     * Value prepared for being stored: encrypted, if needed, and split
+     * in erasure coded chunks or in replicas.
+     */
+    private static class EncodedValue {
+
+        final byte[] data;          // the (encrypted) value
+        final byte[] cryptoKey;
+        final byte[][] slots;       // one per KvStore
+        final byte[][] chunkHashes; // null with replication
+        final boolean ecEnabled;
+        final Technique ecTechnique;
+        final byte[][] partsHashes; // null if the value is not stored in parts
+        final int partSize;
+
+        EncodedValue(byte[] data, byte[] cryptoKey, byte[][] slots, byte[][] chunkHashes,
+                Technique ecTechnique, byte[][] partsHashes, int partSize) {
+            this.data = data;
+            this.cryptoKey = cryptoKey;
+            this.slots = slots;
+            this.chunkHashes = chunkHashes;
+            this.ecEnabled = chunkHashes != null;
+            this.ecTechnique = ecTechnique;
+            this.partsHashes = partsHashes;
+            this.partSize = partSize;
+        }
+
+        boolean isParted() {
+            return this.partsHashes != null;
+        }
+
+        boolean isCacheable() {
+            return !this.ecEnabled && !this.isParted();
+        }
+
+        long getSlotsSize() {
+            long size = 0;
+            for (byte[] slot : this.slots)
+                size += slot.length;
+            return size;
+        }
+
+        Metadata toMetadata(Timestamp ts, List<Kvs> savedReplicasLst) {
+            if (this.ecEnabled)
+                return new Metadata(ts, this.chunkHashes, this.ecTechnique, savedReplicasLst,
+                        this.data.length, this.cryptoKey);
+            if (this.isParted())
+                return new Metadata(ts, this.partsHashes, this.partSize, savedReplicasLst,
+                        this.data.length, this.cryptoKey);
+            return new Metadata(ts, Utils.getHash(this.data), this.data.length, savedReplicasLst, this.cryptoKey);
+        }
+    }
+
+
+    /* ----------------------------------- Asynchronous helpers ----------------------------------- */
+
+    /**
+     * Once the straggler uploads of <upload> are done, adds the KvStores
+     * they stored the value on to the replicas of <key>, unless the value
+     * has been overwritten in the meantime.
+     * @param size of each replica [B]
+     */
+    private void addBonusReplicas(final String key, final Timestamp ts, AsyncUpload upload, final int size) {
+        // the metadata are read and written in background: no pool thread waits for them
+        upload.getBonusReplicas().thenAccept(bonus -> {
+            if (bonus.isEmpty())
+                return;
+            this.recordBonusReplicas(key, ts, bonus, 0).whenComplete((recorded, t) -> {
+                if (t != null)
+                    logger.warn("Could not record the bonus replicas of {}", key, t);
+                if (t == null && recorded) {
+                    logger.debug("Bonus replicas of {} stored on: {}", key, bonus);
+                    this.bonusReplicas.addAndGet(bonus.size());
+                } else
+                    // left to the batch GC: the ids of the bonus replicas may match recorded ones
+                    this.wastedBytes.addAndGet(bonus.size() * (long) size);
+            });
+        });
+    }
+
+
+    /**
+     * Adds <bonus> to the replicas of the value of <key> written with <ts>,
+     * retrying on concurrent modifications of its metadata.
+     * @return a future completed with false if the value has been overwritten
+     *          or the metadata could not be written within BONUS_ATTEMPTS attempts
+     */
+    private CompletableFuture<Boolean> recordBonusReplicas(final String key, final Timestamp ts,
+            final List<Kvs> bonus, final int attempt) {
+
+        if (attempt >= BONUS_ATTEMPTS)
+            return CompletableFuture.completedFuture(false);
+
+        final Stat stat = new Stat();
+        return this.mds.tsReadAsync(key, stat).thenCompose(md -> {
+            if (md == null || !ts.equals(md.getTs()))
+                return CompletableFuture.completedFuture(false);
+            List<Kvs> replicas = new ArrayList<Kvs>(md.getReplicasLst());
+            replicas.addAll(bonus);
+            md.setReplicasLst(replicas);
+            return this.mds.tsWriteAsync(key, md, stat.getVersion()).thenCompose(written -> written ?
+                    CompletableFuture.completedFuture(true) : this.recordBonusReplicas(key, ts, bonus, attempt + 1));
+        });
+    }
+
+
+    /**
+     * Asynchronous write of an encoded value.
+     */
+    private interface AsyncUpload {
+
+        /**
+         * @return a future completed with the KvStores storing the value
+         */
+        CompletableFuture<List<Kvs>> start();
+
+        /**
+         * @return the KvStores storing any slot of the value written so far
+         */
+        List<Kvs> getSaved();
+
+        /**
+         * @return the KvStores of the straggler uploads cancelled so far,
+         *          which may have stored a slot of the value anyway
+         */
+        List<Kvs> getCancelled();
+
+        /**
+         * @return a future completed, once the straggler uploads kept running
+         *          under the COMPLETE policy are done, with the KvStores they stored
+         *          a replica on; the bytes of the others count as wasted
+         */
+        CompletableFuture<List<Kvs>> getBonusReplicas();
+    }
+
+
+    private AsyncUpload newUpload(String key, Timestamp ts, EncodedValue encodedValue) {
+        if (encodedValue.isParted())
+            return new AsyncPartsStore(key, ts, encodedValue);
+        // only whole replicas can be recorded in the metadata afterwards
+        return new AsyncStore(Utils.getKvsKey(key, ts), encodedValue.slots, !encodedValue.ecEnabled,
+                encodedValue.ecEnabled);
+    }
+
+
+    /**
+     * Asynchronous write of the parts of a value, at most <partWindow>
+     * at a time, each one replicated by an AsyncStore.
+     * Completes with the KvStores storing any of the parts.
+     */
+    private class AsyncPartsStore implements AsyncUpload {
+
+        private final String key;
+        private final Timestamp ts;
+        private final EncodedValue encodedValue;
+        private final List<AsyncStore> stores;
+        private final List<Kvs> saved;
+        private final CompletableFuture<List<Kvs>> result;
+        private int next = 0;       // index of the next part to store
+        private int pending = 0;    // parts being stored
+
+        AsyncPartsStore(String key, Timestamp ts, EncodedValue encodedValue) {
+            this.key = key;
+            this.ts = ts;
+            this.encodedValue = encodedValue;
+            this.stores = new ArrayList<AsyncStore>();
+            this.saved = new ArrayList<Kvs>();
+            this.result = new CompletableFuture<List<Kvs>>();
+        }
+
+        public synchronized CompletableFuture<List<Kvs>> start() {
+            while (this.pending < Hybris.this.partWindow && this.next < this.encodedValue.partsHashes.length)
+                this.storeNextPart();
+            return this.result;
+        }
+
+        public synchronized List<Kvs> getSaved() {
+            List<Kvs> saved = new ArrayList<Kvs>();
+            for (AsyncStore store : this.stores)
+                for (Kvs kvStore : store.getSaved())
+                    if (!saved.contains(kvStore))
+                        saved.add(kvStore);
+            return saved;
+        }
+
+        public synchronized List<Kvs> getCancelled() {
+            List<Kvs> cancelled = new ArrayList<Kvs>();
+            for (AsyncStore store : this.stores)
+                for (Kvs kvStore : store.getCancelled())
+                    if (!cancelled.contains(kvStore))
+                        cancelled.add(kvStore);
+            return cancelled;
+        }
+
+        public CompletableFuture<List<Kvs>> getBonusReplicas() {
+            return CompletableFuture.completedFuture(new ArrayList<Kvs>());
+        }
+
+        private void storeNextPart() {
+            int part = this.next++;
+            int partSize = this.encodedValue.partSize;
+            byte[] data = this.encodedValue.data;
+            byte[][] slots = new byte[this.encodedValue.slots.length][];
+            Arrays.fill(slots, Arrays.copyOfRange(data, part * partSize, Math.min(data.length, (part + 1) * partSize)));
+
+            AsyncStore store = new AsyncStore(Utils.getKvsPartKey(this.key, this.ts, part), slots, false, false);
+            this.stores.add(store);
+            this.pending++;
+            store.start().whenComplete((savedReplicasLst, t) -> this.completed(savedReplicasLst, t));
+        }
+
+        private synchronized void completed(List<Kvs> savedReplicasLst, Throwable t) {
+            this.pending--;
+            if (this.result.isDone())
+                return;
+            if (t != null) {
+                this.result.completeExceptionally(t);
+                return;
+            }
+            for (Kvs kvStore : savedReplicasLst)
+                if (!this.saved.contains(kvStore))
+                    this.saved.add(kvStore);
+            if (this.next < this.encodedValue.partsHashes.length)
+                this.storeNextPart();
+            else if (this.pending == 0)
+                this.result.complete(new ArrayList<Kvs>(this.saved));
+        }
+    }
+
+
+    /**
+     * Writes a value stored in parts to <out>, in order, each part once verified:
+     * the next <partWindow> parts are fetched while the current one is written.
+     */
+    private void getParts(String key, Metadata md, OutputStream out) throws HybrisException {
+
+        List<Kvs> kvsLst = this.kvs.getKvsSortedByReadLatency(md.getReplicasLst());
+        int partSize = md.getPartSize();
+        int parts = md.getPartsHashes().length;
+        Deque<CompletableFuture<byte[]>> fetches = new ArrayDeque<CompletableFuture<byte[]>>();
+        OutputStream dst = new FilterOutputStream(out) {
+            public void write(byte[] b, int off, int len) throws IOException { this.out.write(b, off, len); }
+            public void close() throws IOException { this.out.flush(); }   // do not close <out>
+        };
+        try {
+            if (md.getCryptoKey() != null)
+                dst = new CipherOutputStream(dst,
+                        Utils.getCipher(Cipher.DECRYPT_MODE, md.getCryptoKey(), this.IV));
+            for (int i=0, next=0; i<parts; i++) {
+                for (; next<parts && fetches.size()<this.partWindow; next++)
+                    fetches.add(this.getPartAsync(Utils.getKvsPartKey(key, md.getTs(), next),
+                            md.getPartsHashes()[next], partSize, kvsLst, 0));
+                dst.write(fetches.poll().join());
+            }
+            dst.close();
+        } catch (GeneralSecurityException e) {
+            logger.error("Could not decrypt data", e);
+            throw new HybrisException("Could not decrypt data", e);
+        } catch (CompletionException | CancellationException e) {
+            throw new HybrisException("Could not retrieve the value of " + key + " from cloud stores", e.getCause());
+        } catch (IOException e) {
+            throw new HybrisException("Could not write the value of " + key, e);
+        } finally {
+            for (CompletableFuture<byte[]> fetch : fetches)
+                fetch.cancel(true);
+        }
+    }
+
+
+    /**
+     * Asynchronously retrieves the bytes [from, to) of a value stored in parts,
+     * fetching only the parts covering them, at most <partWindow> at a time.
+     * The range must fit in a byte array, the value may not.
+     */
+    private CompletableFuture<byte[]> getPartsAsync(String key, Metadata md, final long from, final long to) {
+
+        final List<Kvs> kvsLst = this.kvs.getKvsSortedByReadLatency(md.getReplicasLst());
+        final int partSize = md.getPartSize();
+        final int first = (int) (from / partSize);
+        final int last = (int) ((to - 1) / partSize);
+        final List<CompletableFuture<byte[]>> fetches = new ArrayList<CompletableFuture<byte[]>>();
+        for (int i=first; i<=last; i++) {
+            final String partKey = Utils.getKvsPartKey(key, md.getTs(), i);
+            final byte[] partHash = md.getPartsHashes()[i];
+            // a part is fetched once the one <partWindow> positions before is done
+            CompletableFuture<?> previous = fetches.size() < this.partWindow ?
+                    CompletableFuture.completedFuture(null) : fetches.get(fetches.size() - this.partWindow);
+            fetches.add(previous.handle((v, t) -> null)
+                    .thenCompose(v -> this.getPartAsync(partKey, partHash, partSize, kvsLst, 0)));
+        }
+
+        return CompletableFuture.allOf(fetches.toArray(new CompletableFuture<?>[fetches.size()])).thenApply(v -> {
+            byte[] range = new byte[(int) (to - from)];
+            for (int i=first; i<=last; i++) {
+                byte[] part = fetches.get(i - first).join();
+                long partFrom = Math.max(from, (long) i * partSize);
+                long partTo = Math.min(to, (long) (i + 1) * partSize);
+                System.arraycopy(part, (int) (partFrom - (long) i * partSize), range, (int) (partFrom - from),
+                        (int) (partTo - partFrom));
+            }
+            return range;
+        });
+    }
+
+
+    /**
+     * Asynchronously retrieves and verifies a part,
+     * trying the KvStores of <kvsLst> from the <idx>-th on.
+     */
+    private CompletableFuture<byte[]> getPartAsync(final String partKey, final byte[] partHash,
+            final int partSize, final List<Kvs> kvsLst, final int idx) {
+
+        if (idx >= kvsLst.size())
+            return Utils.failedFuture(new HybrisException("Could not retrieve " + partKey + " from cloud stores"));
+
+        final Kvs kvStore = kvsLst.get(idx);
+        return this.scheduler.withTimeout(this.kvs.getAsync(kvStore, partKey, partSize),
+                this.getTimeout(kvStore, false, partSize), TimeUnit.MILLISECONDS)
+                .handle((part, t) -> {
+                    if (t instanceof TimeoutException)
+                        this.kvs.reportTimeout(kvStore);
+                    if (t == null && part != null && Arrays.equals(partHash, Utils.getHash(part)))
+                        return CompletableFuture.completedFuture(part);
+                    logger.warn("Could not retrieve a valid {} from {}", partKey, kvStore);
+                    return this.getPartAsync(partKey, partHash, partSize, kvsLst, idx + 1);
+                }).thenCompose(f -> f);
+    }
+
+    /**
+     * Asynchronous write of a set of slots (replicas or erasure coded chunks),
+     * each one on a different KvStore.
+     * A slot whose write fails or times out is written on the next
+     * KvStore (by write latency) not used yet.
+     * The upload that timed out is a straggler: depending on the straggler
+     * policy it is cancelled, or it is left running and, if <keepStragglers>,
+     * the KvStore it completes on is a bonus replica.
+     */
+    private class AsyncStore implements AsyncUpload {
+
+        private final String kvsKey;
+        private final byte[][] slots;
+        private final Kvs[] stored;
+        private final List<Kvs> kvsLst;
+        private final boolean keepStragglers;
+        private final boolean pooledSlots;      // erasure coded chunks, from the EcManager pool
+        private final CompletableFuture<List<Kvs>> result;
+        private final Map<CompletableFuture<Kvs>, Integer> inFlight;   // uploads not timed out yet, by slot
+        private final Map<CompletableFuture<Kvs>, Kvs> targets;        // KvStores of the uploads
+        private final List<Kvs> cancelled;      // KvStores of the straggler uploads not kept
+        private final List<CompletableFuture<Kvs>> kept;        // straggler uploads left running
+        private final List<CompletableFuture<Kvs>> bonus;       // completed with their bonus replica, or null
+        private final int[] readers;        // uploads which may still be reading each slot
+        private final Set<CompletableFuture<Kvs>> reading;
+        private final boolean[] released;
+        private int next = 0;       // index of the next KvStore to use
+        private int remaining;      // number of slots not stored yet
+        private boolean settled = false;    // no slot is going to be uploaded again
+
+        /**
+         * @param pooledSlots whether the slots are returned to the EcManager pool once the
+         *          outcome of the write is known, whatever it is, and no upload is reading them
+         *          (the slots of cancelled uploads are left to the GC)
+         */
+        AsyncStore(String kvsKey, byte[][] slots, boolean bonusReplicas, boolean pooledSlots) {
+            this.kvsKey = kvsKey;
+            this.slots = slots;
+            this.stored = new Kvs[slots.length];
+            this.kvsLst = Hybris.this.kvs.getKvsSortedByWriteLatency();
+            this.keepStragglers = bonusReplicas && StragglerPolicy.COMPLETE.equals(Hybris.this.stragglerPolicy);
+            this.pooledSlots = pooledSlots;
+            this.remaining = slots.length;
+            this.result = new CompletableFuture<List<Kvs>>();
+            this.inFlight = new IdentityHashMap<CompletableFuture<Kvs>, Integer>();
+            this.targets = new IdentityHashMap<CompletableFuture<Kvs>, Kvs>();
+            this.cancelled = new ArrayList<Kvs>();
+            this.kept = new ArrayList<CompletableFuture<Kvs>>();
+            this.bonus = new ArrayList<CompletableFuture<Kvs>>();
+            this.readers = new int[slots.length];
+            this.reading = Collections.newSetFromMap(new IdentityHashMap<CompletableFuture<Kvs>, Boolean>());
+            this.released = new boolean[slots.length];
+        }
+
+        public synchronized CompletableFuture<List<Kvs>> start() {
+            for (int j=0; j<this.slots.length && !this.result.isDone(); j++)
+                this.storeOnNextKvs(j);
+            return this.result;
+        }
+
+        public synchronized List<Kvs> getSaved() {
+            List<Kvs> saved = new ArrayList<Kvs>();
+            for (Kvs kvStore : this.stored)
+                if (kvStore != null)
+                    saved.add(kvStore);
+            return saved;
+        }
+
+        public synchronized List<Kvs> getCancelled() {
+            return new ArrayList<Kvs>(this.cancelled);
+        }
+
+        public synchronized CompletableFuture<List<Kvs>> getBonusReplicas() {
+            final List<CompletableFuture<Kvs>> uploads = new ArrayList<CompletableFuture<Kvs>>(this.bonus);
+            return CompletableFuture.allOf(uploads.toArray(new CompletableFuture<?>[uploads.size()]))
+                    .thenApply(v -> {
+                        List<Kvs> bonus = new ArrayList<Kvs>();
+                        for (CompletableFuture<Kvs> upload : uploads)
+                            if (upload.join() != null)
+                                bonus.add(upload.join());
+                        return bonus;
+                    });
+        }
+
+        private void storeOnNextKvs(final int slot) {
+            if (this.next >= this.kvsLst.size()) {
+                this.settle();
+                // the value cannot be committed: no upload is worth completing
+                for (CompletableFuture<Kvs> upload : new ArrayList<CompletableFuture<Kvs>>(this.inFlight.keySet()))
+                    this.straggler(this.inFlight.get(upload), upload, false);
+                for (CompletableFuture<Kvs> upload : this.kept)
+                    upload.cancel(true);
+                this.result.completeExceptionally(new HybrisException("Could not store data on cloud stores"));
+                return;
+            }
+            final Kvs kvStore = this.kvsLst.get(this.next++);
+            final long start = System.currentTimeMillis();
+            final CompletableFuture<Kvs> upload = Hybris.this.kvs.putAsync(kvStore, this.kvsKey, this.slots[slot]);
+            this.inFlight.put(upload, slot);
+            this.targets.put(upload, kvStore);
+            this.readers[slot]++;
+            this.reading.add(upload);
+            upload.whenComplete((savedReplica, t) -> this.uploaded(slot, upload));
+            // the timeout completes a copy, so that the upload is left to the straggler policy
+            Hybris.this.scheduler.withTimeout(upload.thenApply(savedReplica -> savedReplica),
+                    Hybris.this.getTimeout(kvStore, true, this.slots[slot].length), TimeUnit.MILLISECONDS)
+                    .whenComplete((savedReplica, t) -> this.completed(slot, kvStore, upload, t, start));
+        }
+
+        private synchronized void completed(int slot, Kvs kvStore, CompletableFuture<Kvs> upload,
+                Throwable t, long start) {
+            if (upload.isDone()) {
+                this.inFlight.remove(upload);
+                this.uploaded(slot, upload);
+            }
+            if (this.settled)
+                return;
+            if (t == null) {
+                logger.debug("Data ({} B) stored on {}, {} ms", this.slots[slot].length, kvStore,
+                        System.currentTimeMillis() - start);
+                this.stored[slot] = kvStore;
+                if (--this.remaining == 0) {
+                    this.settle();
+                    this.result.complete(new ArrayList<Kvs>(Arrays.asList(this.stored)));
+                }
+            } else {
+                logger.warn("Could not store {} on {}: {}", this.kvsKey, kvStore, t.toString());
+                if (t instanceof TimeoutException)
+                    Hybris.this.kvs.reportTimeout(kvStore);
+                if (!upload.isDone())
+                    this.straggler(slot, upload, this.keepStragglers);
+                this.storeOnNextKvs(slot);
+            }
+        }
+
+        private synchronized void uploaded(int slot, CompletableFuture<Kvs> upload) {
+            // the driver of a cancelled upload may still be reading the slot
+            if (upload.isCancelled() || !this.reading.remove(upload))
+                return;
+            this.readers[slot]--;
+            this.releaseSlots();
+        }
+
+        private void settle() {
+            this.settled = true;
+            this.releaseSlots();
+        }
+
+        private void releaseSlots() {
+            if (!this.pooledSlots || !this.settled)
+                return;
+            for (int j=0; j<this.slots.length; j++)
+                if (this.readers[j] == 0 && !this.released[j]) {
+                    this.released[j] = true;
+                    Hybris.this.ec.release(this.slots[j]);
+                }
+        }
+
+        private void straggler(int slot, CompletableFuture<Kvs> upload, boolean keep) {
+            final long size = this.slots[slot].length;
+            this.inFlight.remove(upload);
+            Hybris.this.stragglers.incrementAndGet();
+            if (keep) {
+                this.kept.add(upload);
+                this.bonus.add(upload.handle((savedReplica, t) -> {
+                    if (t == null)
+                        return savedReplica;
+                    Hybris.this.wastedBytes.addAndGet(size);
+                    return null;
+                }));
+            } else {
+                // an upload completing before being cancelled stored the slot as well
+                this.cancelled.add(this.targets.get(upload));
+                if (upload.cancel(true))
+                    Hybris.this.wastedBytes.addAndGet(size);
+            }
+        }
+    }
+
+
+    /**
+     * Asynchronous retrieval of k erasure coded chunks.
+     * Chunks are matched by hash, since KvStores are identified by their id,
+     * which may not be unique (e.g. in tests).
+     */
+    private class AsyncFetch {
+
+        private final String kvsKey;
+        private final EcChunk[] chunks;
+        private final int chunkSize;
+        private final List<Kvs> kvsLst;
+        private final CompletableFuture<EcChunk[]> result;
+        private int next = 0;       // index of the next KvStore to read from
+        private int pending = 0;    // reads in flight
+        private int retrieved = 0;
+
+        /**
+         * @param kvsLst the KvStores storing the chunks, sorted by read latency
+         */
+        AsyncFetch(String kvsKey, EcChunk[] chunks, List<Kvs> kvsLst, int chunkSize) {
+            this.kvsKey = kvsKey;
+            this.chunks = chunks;
+            this.chunkSize = chunkSize;
+            this.kvsLst = kvsLst;
+            this.result = new CompletableFuture<EcChunk[]>();
+        }
+
+        synchronized CompletableFuture<EcChunk[]> start() {
+            for (int i=0; i<k && !this.result.isDone(); i++)
+                this.fetchFromNextKvs();
+            return this.result;
+        }
+
+        private void fetchFromNextKvs() {
+            if (this.next >= this.kvsLst.size()) {
+                if (this.pending == 0) {
+                    logger.error("Could not retrieve enough chunks for decoding data.");
+                    this.result.completeExceptionally(
+                            new HybrisException("Could not retrieve enough chunks for decoding data"));
+                }
+                return;
+            }
+            final Kvs kvStore = this.kvsLst.get(this.next++);
+            this.pending++;
+            Hybris.this.scheduler.withTimeout(Hybris.this.kvs.getAsync(kvStore, this.kvsKey, this.chunkSize),
+                    Hybris.this.getTimeout(kvStore, false, this.chunkSize), TimeUnit.MILLISECONDS)
+                    .whenComplete((value, t) -> {
+                        if (t instanceof TimeoutException)
+                            Hybris.this.kvs.reportTimeout(kvStore);
+                        this.completed(kvStore, value);
+                    });
+        }
+
+        private synchronized void completed(Kvs kvStore, byte[] value) {
+            this.pending--;
+            if (this.result.isDone())
+                return;
+            if (value != null) {
+                byte[] hash = Utils.getHash(value);
+                for (int j=0; j<this.chunks.length; j++)
+                    if (kvStore.equals(this.chunks[j].kvs) && !ChunkState.OK.equals(this.chunks[j].state)
+                            && Arrays.equals(this.chunks[j].hash, hash)) {
+                        this.chunks[j].state = ChunkState.OK;
+                        this.chunks[j].data = value;
+                        logger.debug("Chunk {} retrieved from {}", j, kvStore);
+                        if (++this.retrieved == k)
+                            this.result.complete(this.chunks);
+                        return;
+                    }
+                logger.warn("Tampered chunk retrieved from {}", kvStore);
+            }
+            this.fetchFromNextKvs();
+        }
+    }
+
+
     /* -------------------------------------- HybrisWatcher -------------------------------------- */
 
     /**
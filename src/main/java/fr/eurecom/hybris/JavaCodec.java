@@ -0,0 +1,412 @@
+/**
+ * Copyright (C) 2013 EURECOM (www.eurecom.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.eurecom.hybris;
+
+import java.util.Arrays;
+
+/**
+ * Erasure code computed in Java, table-driven over GF(2^8).
+ * Its coding matrices are built the same way as Jerasure's (reed_sol.c, cauchy.c),
+ * so that its chunks can be decoded by the native library and vice versa.
+ * @author P. Viotti
+ */
+class JavaCodec extends EcCodec {
+
+    /* second row of the Cauchy coding matrices with the fewest ones for m=2 (cbest_8 of cauchy.c) */
+    private static final int[] CAUCHY_BEST_R6 = {
+            1, 2, 142, 4, 71, 8, 70, 173, 3, 35, 143, 16, 17, 67, 134, 140,
+            172, 6, 34, 69, 201, 216, 5, 33, 86, 12, 65, 138, 158, 159, 175, 10,
+            32, 43, 66, 108, 130, 193, 234, 9, 24, 25, 50, 68, 79, 100, 132, 174,
+            200, 217, 20, 21, 42, 48, 87, 169, 41, 54, 64, 84, 96, 117, 154, 155,
+            165, 226, 77, 82, 135, 136, 141, 168, 192, 218, 238, 7, 18, 19, 39, 40,
+            78, 113, 116, 128, 164, 180, 195, 205, 220, 232, 14, 26, 27, 58, 109, 156,
+            157, 203, 235, 13, 28, 29, 38, 51, 56, 75, 85, 90, 101, 110, 112, 139,
+            171, 11, 37, 49, 52, 76, 83, 102, 119, 131, 150, 151, 167, 182, 184, 188,
+            197, 219, 224, 45, 55, 80, 94, 97, 133, 170, 194, 204, 221, 227, 236, 36,
+            47, 73, 92, 98, 104, 118, 152, 153, 166, 202, 207, 239, 251, 22, 23, 44,
+            74, 91, 148, 149, 161, 181, 190, 233, 46, 59, 88, 137, 146, 147, 163, 196,
+            208, 212, 222, 250, 57, 81, 95, 106, 111, 129, 160, 176, 199, 243, 249, 15,
+            53, 72, 93, 103, 115, 125, 162, 183, 185, 189, 206, 225, 255, 186, 210, 230,
+            237, 242, 248, 30, 31, 62, 89, 99, 105, 114, 121, 124, 178, 209, 213, 223,
+            228, 241, 254, 60, 191, 198, 247, 120, 240, 107, 127, 144, 145, 177, 211, 214,
+            246, 245, 123, 126, 187, 231, 253, 63, 179, 229, 244, 61, 122, 215, 252
+    };
+
+    JavaCodec(int k, int m, int w, Technique technique) {
+        super(k, m, w, technique, codingMatrix(k, m, w, technique));
+    }
+
+    private static int[] codingMatrix(int k, int m, int w, Technique technique) {
+        switch (technique) {
+            case CAUCHY:
+                return toBitMatrix(k, m, w, cauchyGoodCodingMatrix(k, m, w));
+            case REED_SOL_VAN:
+            default:
+                return vandermondeCodingMatrix(k, m, w);
+        }
+    }
+
+    @Override
+    protected void multiply(int[] matrix, int rows, byte[][] in, byte[][] out, int size) {
+        if (this.isBitMatrix()) {
+            this.multiplyBitMatrix(matrix, rows, in, out, size);
+            return;
+        }
+        for (int i = 0; i < rows; i++) {
+            byte[] dst = out[i];
+            boolean first = true;
+            for (int j = 0; j < this.k; j++) {
+                int c = matrix[i * this.k + j];
+                if (c == 0)
+                    continue;
+                byte[] src = in[j];
+                if (c == 1) {
+                    if (first)
+                        System.arraycopy(src, 0, dst, 0, size);
+                    else
+                        for (int p = 0; p < size; p++)
+                            dst[p] ^= src[p];
+                } else {
+                    byte[] mul = GaloisField.MUL[c];
+                    if (first)
+                        for (int p = 0; p < size; p++)
+                            dst[p] = mul[src[p] & 0xff];
+                    else
+                        for (int p = 0; p < size; p++)
+                            dst[p] ^= mul[src[p] & 0xff];
+                }
+                first = false;
+            }
+            if (first)
+                Arrays.fill(dst, 0, size, (byte) 0);
+        }
+    }
+
+    /**
+     * Port of jerasure_bitmatrix_dotprod: each chunk is a sequence of groups of w packets,
+     * and packet j of a group of an output chunk is the XOR of the input packets
+     * selected by its row of the bit-matrix.
+     */
+    private void multiplyBitMatrix(int[] bitMatrix, int rows, byte[][] in, byte[][] out, int size) {
+        int packetSize = this.getPacketSize(size);
+        int rowLength = this.k * this.w;
+        for (int i = 0; i < rows; i++) {
+            byte[] dst = out[i];
+            for (int group = 0; group < size; group += packetSize * this.w)
+                for (int j = 0; j < this.w; j++) {
+                    int to = group + j * packetSize;
+                    int row = (i * this.w + j) * rowLength;
+                    boolean first = true;
+                    for (int x = 0; x < rowLength; x++) {
+                        if (bitMatrix[row + x] == 0)
+                            continue;
+                        byte[] src = in[x / this.w];
+                        int from = group + (x % this.w) * packetSize;
+                        if (first)
+                            System.arraycopy(src, from, dst, to, packetSize);
+                        else
+                            for (int p = 0; p < packetSize; p++)
+                                dst[to + p] ^= src[from + p];
+                        first = false;
+                    }
+                    if (first)
+                        Arrays.fill(dst, to, to + packetSize, (byte) 0);
+                }
+        }
+    }
+
+    @Override
+    protected boolean makeDecodingMatrix(int[] matrix, boolean[] erased,
+                                    int[] decodingMatrix, int[] survivors) {
+
+        // the rows of the distribution matrix of the first k chunks not erased
+        int n = this.isBitMatrix() ? this.k * this.w : this.k;
+        int chunkRows = this.isBitMatrix() ? this.w : 1;
+        int[] selected = new int[n * n];
+        for (int i = 0, j = 0; j < this.k && i < this.k + this.m; i++) {
+            if (erased[i])
+                continue;
+            survivors[j] = i;
+            if (i < this.k)
+                for (int r = 0; r < chunkRows; r++)
+                    selected[(j * chunkRows + r) * n + i * chunkRows + r] = 1;
+            else
+                System.arraycopy(matrix, (i - this.k) * chunkRows * n, selected, j * chunkRows * n, chunkRows * n);
+            j++;
+        }
+        return this.isBitMatrix() ? invertBitMatrix(selected, decodingMatrix, n)
+                : invert(selected, decodingMatrix, n);
+    }
+
+    /**
+     * Gauss-Jordan inversion of a n x n matrix (which is overwritten).
+     * @return false if the matrix is singular
+     */
+    private static boolean invert(int[] mat, int[] inv, int n) {
+
+        Arrays.fill(inv, 0);
+        for (int i = 0; i < n; i++)
+            inv[i * n + i] = 1;
+
+        for (int i = 0; i < n; i++) {
+            // find a pivot, swapping rows if needed
+            int pivot = i;
+            while (pivot < n && mat[pivot * n + i] == 0)
+                pivot++;
+            if (pivot == n)
+                return false;
+            if (pivot != i)
+                for (int x = 0; x < n; x++) {
+                    int tmp = mat[i * n + x];
+                    mat[i * n + x] = mat[pivot * n + x];
+                    mat[pivot * n + x] = tmp;
+                    tmp = inv[i * n + x];
+                    inv[i * n + x] = inv[pivot * n + x];
+                    inv[pivot * n + x] = tmp;
+                }
+
+            int scale = GaloisField.divide(1, mat[i * n + i]);
+            for (int x = 0; x < n; x++) {
+                mat[i * n + x] = GaloisField.multiply(mat[i * n + x], scale);
+                inv[i * n + x] = GaloisField.multiply(inv[i * n + x], scale);
+            }
+
+            for (int j = 0; j < n; j++) {
+                int e = mat[j * n + i];
+                if (j == i || e == 0)
+                    continue;
+                for (int x = 0; x < n; x++) {
+                    mat[j * n + x] ^= GaloisField.multiply(e, mat[i * n + x]);
+                    inv[j * n + x] ^= GaloisField.multiply(e, inv[i * n + x]);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gauss-Jordan inversion of a n x n matrix over GF(2) (which is overwritten).
+     * @return false if the matrix is singular
+     */
+    private static boolean invertBitMatrix(int[] mat, int[] inv, int n) {
+
+        Arrays.fill(inv, 0);
+        for (int i = 0; i < n; i++)
+            inv[i * n + i] = 1;
+
+        for (int i = 0; i < n; i++) {
+            int pivot = i;
+            while (pivot < n && mat[pivot * n + i] == 0)
+                pivot++;
+            if (pivot == n)
+                return false;
+            if (pivot != i)
+                for (int x = 0; x < n; x++) {
+                    int tmp = mat[i * n + x];
+                    mat[i * n + x] = mat[pivot * n + x];
+                    mat[pivot * n + x] = tmp;
+                    tmp = inv[i * n + x];
+                    inv[i * n + x] = inv[pivot * n + x];
+                    inv[pivot * n + x] = tmp;
+                }
+
+            for (int j = 0; j < n; j++)
+                if (j != i && mat[j * n + i] != 0)
+                    for (int x = 0; x < n; x++) {
+                        mat[j * n + x] ^= mat[i * n + x];
+                        inv[j * n + x] ^= inv[i * n + x];
+                    }
+        }
+        return true;
+    }
+
+    /**
+     * Port of jerasure_matrix_to_bitmatrix: element e of the matrix becomes
+     * a w x w block whose column x holds the bits of e * 2^x.
+     */
+    static int[] toBitMatrix(int k, int m, int w, int[] matrix) {
+        int rowLength = k * w;
+        int[] bitMatrix = new int[k * m * w * w];
+        for (int i = 0; i < m; i++)
+            for (int j = 0; j < k; j++) {
+                int e = matrix[i * k + j];
+                for (int x = 0; x < w; x++) {
+                    for (int l = 0; l < w; l++)
+                        bitMatrix[(i * w + l) * rowLength + j * w + x] = (e >> l) & 1;
+                    e = GaloisField.multiply(e, 2);
+                }
+            }
+        return bitMatrix;
+    }
+
+    /**
+     * @return the m x k coding matrix of cauchy_good_general_coding_matrix
+     */
+    static int[] cauchyGoodCodingMatrix(int k, int m, int w) {
+        if (w != 8)
+            throw new IllegalArgumentException("Only w=8 is supported");
+        if (k + m > GaloisField.SIZE)
+            throw new IllegalArgumentException("k+m must not exceed " + GaloisField.SIZE);
+
+        int[] matrix = new int[k * m];
+        if (m == 2 && k <= CAUCHY_BEST_R6.length) {
+            for (int i = 0; i < k; i++) {
+                matrix[i] = 1;
+                matrix[i + k] = CAUCHY_BEST_R6[i];
+            }
+            return matrix;
+        }
+
+        // cauchy_original_coding_matrix
+        for (int i = 0; i < m; i++)
+            for (int j = 0; j < k; j++)
+                matrix[i * k + j] = GaloisField.divide(1, i ^ (m + j));
+
+        // cauchy_improve_coding_matrix: ones in the first row, then the fewest ones in the bit-matrix
+        for (int j = 0; j < k; j++)
+            if (matrix[j] != 1) {
+                int tmp = GaloisField.divide(1, matrix[j]);
+                for (int i = 0; i < m; i++)
+                    matrix[i * k + j] = GaloisField.multiply(matrix[i * k + j], tmp);
+            }
+        for (int i = 1; i < m; i++) {
+            int index = i * k;
+            int bestOnes = 0;
+            for (int j = 0; j < k; j++)
+                bestOnes += bitMatrixOnes(matrix[index + j]);
+            int bestIndex = -1;
+            for (int j = 0; j < k; j++)
+                if (matrix[index + j] != 1) {
+                    int tmp = GaloisField.divide(1, matrix[index + j]);
+                    int ones = 0;
+                    for (int x = 0; x < k; x++)
+                        ones += bitMatrixOnes(GaloisField.multiply(matrix[index + x], tmp));
+                    if (ones < bestOnes) {
+                        bestOnes = ones;
+                        bestIndex = j;
+                    }
+                }
+            if (bestIndex != -1) {
+                int tmp = GaloisField.divide(1, matrix[index + bestIndex]);
+                for (int j = 0; j < k; j++)
+                    matrix[index + j] = GaloisField.multiply(matrix[index + j], tmp);
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * @return the number of ones in the w x w bit-matrix of e (cauchy_n_ones)
+     */
+    private static int bitMatrixOnes(int e) {
+        int ones = 0;
+        for (int x = 0; x < 8; x++) {
+            ones += Integer.bitCount(e);
+            e = GaloisField.multiply(e, 2);
+        }
+        return ones;
+    }
+
+    /**
+     * @return the m x k coding matrix of reed_sol_vandermonde_coding_matrix
+     */
+    static int[] vandermondeCodingMatrix(int k, int m, int w) {
+        if (w != 8)
+            throw new IllegalArgumentException("Only w=8 is supported");
+        if (k + m > GaloisField.SIZE)
+            throw new IllegalArgumentException("k+m must not exceed " + GaloisField.SIZE);
+        int[] dist = bigVandermondeDistributionMatrix(k + m, k);
+        return Arrays.copyOfRange(dist, k * k, (k + m) * k);
+    }
+
+    /**
+     * Port of reed_sol_extended_vandermonde_matrix.
+     */
+    private static int[] extendedVandermondeMatrix(int rows, int cols) {
+        int[] vdm = new int[rows * cols];
+        vdm[0] = 1;
+        if (rows == 1)
+            return vdm;
+        vdm[(rows - 1) * cols + cols - 1] = 1;
+        for (int i = 1; i < rows - 1; i++) {
+            int e = 1;
+            for (int j = 0; j < cols; j++) {
+                vdm[i * cols + j] = e;
+                e = GaloisField.multiply(e, i);
+            }
+        }
+        return vdm;
+    }
+
+    /**
+     * Port of reed_sol_big_vandermonde_distribution_matrix:
+     * column operations turn the top cols x cols block into the identity,
+     * then row <cols> and the first column of the rows below it into ones.
+     */
+    private static int[] bigVandermondeDistributionMatrix(int rows, int cols) {
+
+        int[] dist = extendedVandermondeMatrix(rows, cols);
+
+        for (int i = 1; i < cols; i++) {
+            int sindex = i * cols;
+
+            int j = i;
+            while (j < rows && dist[j * cols + i] == 0)
+                j++;
+            if (j >= rows)
+                throw new IllegalStateException("Could not make the distribution matrix");
+            if (j != i)
+                for (int x = 0; x < cols; x++) {
+                    int tmp = dist[j * cols + x];
+                    dist[j * cols + x] = dist[sindex + x];
+                    dist[sindex + x] = tmp;
+                }
+
+            if (dist[sindex + i] != 1) {
+                int tmp = GaloisField.divide(1, dist[sindex + i]);
+                for (int r = 0; r < rows; r++)
+                    dist[r * cols + i] = GaloisField.multiply(tmp, dist[r * cols + i]);
+            }
+
+            for (j = 0; j < cols; j++) {
+                int tmp = dist[sindex + j];
+                if (j != i && tmp != 0)
+                    for (int r = 0; r < rows; r++)
+                        dist[r * cols + j] ^= GaloisField.multiply(tmp, dist[r * cols + i]);
+            }
+        }
+
+        int sindex = cols * cols;
+        for (int j = 0; j < cols; j++) {
+            int tmp = dist[sindex + j];
+            if (tmp != 1) {
+                tmp = GaloisField.divide(1, tmp);
+                for (int r = cols; r < rows; r++)
+                    dist[r * cols + j] = GaloisField.multiply(tmp, dist[r * cols + j]);
+            }
+        }
+
+        for (int r = cols + 1; r < rows; r++) {
+            int tmp = dist[r * cols];
+            if (tmp != 1) {
+                tmp = GaloisField.divide(1, tmp);
+                for (int j = 0; j < cols; j++)
+                    dist[r * cols + j] = GaloisField.multiply(dist[r * cols + j], tmp);
+            }
+        }
+        return dist;
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2013 EURECOM (www.eurecom.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.eurecom.hybris;
+
+import java.nio.ByteBuffer;
+
+import eu.vandertil.jerasure.jni.Cauchy;
+import eu.vandertil.jerasure.jni.Jerasure;
+import eu.vandertil.jerasure.jni.ReedSolomon;
+
+/**
+ * Erasure code computed by the native Jerasure library.
+ * @author P. Viotti
+ */
+class JerasureCodec extends EcCodec {
+
+    JerasureCodec(int k, int m, int w, Technique technique) {
+        super(k, m, w, technique, codingMatrix(k, m, w, technique));
+    }
+
+    private static int[] codingMatrix(int k, int m, int w, Technique technique) {
+        switch (technique) {
+            case CAUCHY:
+                return Jerasure.jerasure_matrix_to_bitmatrix(k, m, w,
+                        Cauchy.cauchy_good_general_coding_matrix(k, m, w));
+            case REED_SOL_VAN:
+            default:
+                return ReedSolomon.reed_sol_vandermonde_coding_matrix(k, m, w);
+        }
+    }
+
+    @Override
+    protected void multiply(int[] matrix, int rows, byte[][] in, byte[][] out, int size) {
+        // the encoding of a region is its product by the coding matrix
+        if (this.isBitMatrix())
+            Jerasure.jerasure_bitmatrix_encode(this.k, rows, this.w, matrix, in, out,
+                    size, this.getPacketSize(size));
+        else
+            Jerasure.jerasure_matrix_encode(this.k, rows, this.w, matrix, in, out, size);
+    }
+
+    @Override
+    protected void multiply(int[] matrix, int rows, ByteBuffer slab, int[] in, int[] out, int size) {
+        if (slab.isDirect() && JerasureDirect.isAvailable())
+            JerasureDirect.multiply(this.k, rows, this.w, matrix, this.isBitMatrix() ? this.getPacketSize(size) : 0,
+                    slab, size, in, out);
+        else
+            super.multiply(matrix, rows, slab, in, out, size);
+    }
+
+    @Override
+    protected boolean makeDecodingMatrix(int[] matrix, boolean[] erased,
+                                    int[] decodingMatrix, int[] survivors) {
+        if (this.isBitMatrix())
+            return Jerasure.jerasure_make_decoding_bitmatrix(this.k, this.m, this.w, matrix,
+                    erased, decodingMatrix, survivors);
+        return Jerasure.jerasure_make_decoding_matrix(this.k, this.m, this.w, matrix,
+                erased, decodingMatrix, survivors);
+    }
+}
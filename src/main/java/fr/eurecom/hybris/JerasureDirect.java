@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2013 EURECOM (www.eurecom.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.eurecom.hybris;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Entry points of the native Jerasure library (jerasure/jni/JDirect.cpp) which work
+ * in place on the chunks of a direct buffer, while the byte[][] ones of the JNI bindings
+ * copy every chunk in and out of the Java heap.
+ * @author P. Viotti
+ */
+final class JerasureDirect {
+
+    private static Boolean available;
+
+    private JerasureDirect() { }
+
+    /**
+     * Chunk outIds[i] = row i of matrix * chunks inIds, where the chunks have <size> bytes
+     * and lie one after the other in <slab>.
+     * @param packetSize of the bit-matrix codes, or 0 if matrix is a GF(2^w) matrix
+     */
+    static native void multiply(int k, int rows, int w, int[] matrix, int packetSize,
+                                ByteBuffer slab, int size, int[] inIds, int[] outIds);
+
+    /**
+     * @return whether the loaded native library provides these entry points
+     *          (builds older than JDirect.cpp do not)
+     */
+    static synchronized boolean isAvailable() {
+        if (available == null)
+            try {
+                ByteBuffer slab = ByteBuffer.allocateDirect(2 * Long.BYTES);
+                multiply(1, 1, 8, new int[] { 1 }, 0, slab, Long.BYTES, new int[] { 0 }, new int[] { 1 });
+                available = true;
+            } catch (UnsatisfiedLinkError e) {
+                available = false;
+            }
+        return available;
+    }
+}
@@ -18,6 +18,7 @@ package fr.eurecom.hybris;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
@@ -25,6 +26,7 @@ import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.SecureRandom;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
@@ -48,6 +50,7 @@ public class Utils {
     private final static String ENC_ALGORITHM = "AES";
     private final static String ENC_ALGORITHM_MODE = "AES/CFB/NoPadding";
     public final static int CRYPTO_KEY_LENGTH = 16; // length of AES key (16,24,32)
+    public final static int CRYPTO_BLOCK_SIZE = 16; // length of AES blocks
 
     /** hashing algorithm */
     private final static String HASH_ALGORITHM = "SHA-224";
@@ -55,6 +58,27 @@ public class Utils {
 
     public final static SecureRandom random = new SecureRandom();
 
+    /**
+     * @return a future already completed exceptionally with <t>
+     */
+    public static <T> CompletableFuture<T> failedFuture(Throwable t) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        future.completeExceptionally(t);
+        return future;
+    }
+
+    /**
+     * @return a new MessageDigest computing the same hash as {@link #getHash},
+     *          to hash streams (e.g. with DigestInputStream)
+     */
+    public static MessageDigest getHashDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     public static byte[] getHash(byte[] inputBytes) {
         MessageDigest hash;
         try {
@@ -91,6 +115,27 @@ public class Utils {
         return key + KVS_KEY_SEPARATOR + ts;
     }
 
+    /**
+     * @return the KvStore key of the <part>-th part of a value stored as a sequence of parts
+     */
+    public static String getKvsPartKey(String key, Timestamp ts, int part) {
+        return getKvsKey(key, ts) + KVS_KEY_SEPARATOR + part;
+    }
+
+    /**
+     * @return the common prefix of the KvStore keys of the parts of the value stored under <kvsKey>
+     */
+    public static String getKvsPartKeyPrefix(String kvsKey) {
+        return kvsKey + KVS_KEY_SEPARATOR;
+    }
+
+    /**
+     * @return the common prefix of the KvStore keys of all the versions (and parts) of <key>
+     */
+    public static String getKvsKeyPrefix(String key) {
+        return key + KVS_KEY_SEPARATOR;
+    }
+
     public static String getKeyFromKvsKey(String kvsKey) {
         return kvsKey.split(KVS_KEY_SEPARATOR)[0];
     }
@@ -133,6 +178,19 @@ public class Utils {
         return cipher.doFinal(plainValue);
     }
 
+    /**
+     * Returns a Cipher initialized with the given mode, key and IV,
+     * to encrypt or decrypt streams (e.g. with CipherInputStream).
+     * Since the adopted mode does not pad, it produces the same bytes
+     * as {@link #encrypt} and {@link #decrypt}.
+     * @param mode - Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE
+     */
+    public static Cipher getCipher(int mode, byte[] encKey, byte[] iv) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(ENC_ALGORITHM_MODE);
+        cipher.init(mode, new SecretKeySpec(encKey, ENC_ALGORITHM), new IvParameterSpec(iv));
+        return cipher;
+    }
+
     /**
      * Decrypts the given ciphertext using the supplied encryption key.
      * @param cipherText
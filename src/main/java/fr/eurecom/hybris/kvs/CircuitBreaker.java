@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2013 EURECOM (www.eurecom.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.eurecom.hybris.kvs;
+
+/**
+ * Circuit breaker tracking the health of a KvStore.
+ * While closed, the outcomes of the latest operations are recorded and,
+ * once too many of them failed, the circuit opens: the KvStore is ranked
+ * last, so that operations are routed to the other ones.
+ * After <openTime> the circuit becomes half-open: a few probe operations
+ * at a time are let through, and the circuit closes again once enough
+ * of them succeed in a row, or opens again on the first failure.
+ * @author P. Viotti
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN };
+
+    private static final int WINDOW = 20;           // outcomes recorded while closed
+    private static final int MIN_CALLS = 10;        // before the failure rate is considered
+    private static final int PROBES = 1;            // operations in flight while half-open
+    private static final int PROBE_SUCCESSES = 3;   // to close the circuit again
+
+    private final double failureRate;   // in (0, 1]
+    private final long openTime;        // [ms]
+
+    private State state = State.CLOSED;
+    private final boolean[] outcomes = new boolean[WINDOW];    // true: failure
+    private int calls = 0;
+    private int failures = 0;
+    private int next = 0;       // slot of the next outcome
+    private long openedAt;
+    private int probesInFlight = 0;
+    private int probeSuccesses = 0;
+
+    /**
+     * @param failureRate the fraction of failed operations opening the circuit
+     * @param openTime [ms] the time before letting probe operations through
+     */
+    public CircuitBreaker(double failureRate, long openTime) {
+        if (failureRate <= 0 || failureRate > 1)
+            throw new IllegalArgumentException("The failure rate must be in (0, 1]");
+        this.failureRate = failureRate;
+        this.openTime = openTime;
+    }
+
+    public synchronized State getState() {
+        if (this.state == State.OPEN && System.currentTimeMillis() - this.openedAt >= this.openTime) {
+            this.state = State.HALF_OPEN;
+            this.probeSuccesses = 0;
+            this.probesInFlight = 0;    // probes that timed out may never complete
+        }
+        return this.state;
+    }
+
+    /**
+     * @return true if operations can be issued to the KvStore
+     *          (while half-open, only if there are fewer than PROBES in flight)
+     */
+    public synchronized boolean isAvailable() {
+        switch (this.getState()) {
+            case CLOSED:    return true;
+            case HALF_OPEN: return this.probesInFlight < PROBES;
+            default:        return false;
+        }
+    }
+
+    /**
+     * Records the start of an operation.
+     * @return true if the operation is a probe of a half-open circuit
+     */
+    public synchronized boolean started() {
+        if (this.getState() != State.HALF_OPEN)
+            return false;
+        this.probesInFlight++;
+        return true;
+    }
+
+    /**
+     * Records the outcome of an operation.
+     * @param probe the value returned by {@link #started()}
+     * @param failed true if the operation failed or timed out
+     */
+    public synchronized void completed(boolean probe, boolean failed) {
+        if (probe && this.probesInFlight > 0)
+            this.probesInFlight--;
+
+        switch (this.getState()) {
+            case CLOSED:
+                if (this.calls < WINDOW)
+                    this.calls++;
+                else if (this.outcomes[this.next])     // the oldest outcome is overwritten
+                    this.failures--;
+                this.outcomes[this.next] = failed;
+                this.next = (this.next + 1) % WINDOW;
+                if (failed)
+                    this.failures++;
+                if (this.calls >= MIN_CALLS && this.failures >= this.failureRate * this.calls)
+                    this.open();
+                break;
+            case HALF_OPEN:
+                if (failed)
+                    this.open();
+                else if (++this.probeSuccesses >= PROBE_SUCCESSES)
+                    this.close();
+                break;
+            default:    // late outcomes of operations issued before opening
+                break;
+        }
+    }
+
+    private void open() {
+        this.state = State.OPEN;
+        this.openedAt = System.currentTimeMillis();
+    }
+
+    private void close() {
+        this.state = State.CLOSED;
+        this.calls = 0;
+        this.failures = 0;
+        this.next = 0;
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2013 EURECOM (www.eurecom.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.eurecom.hybris.kvs;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free exponentially weighted moving average,
+ * used to track the latencies of the operations on a KvStore.
+ * @author P. Viotti
+ */
+public class Ewma {
+
+    private static final long NO_SAMPLES = Double.doubleToLongBits(Double.NaN);
+
+    private final double alpha;     // weight of the latest sample
+    private final AtomicLong average = new AtomicLong(NO_SAMPLES);     // bits of a double
+
+    /**
+     * @param alpha in (0, 1]: the higher, the faster older samples are forgotten
+     */
+    public Ewma(double alpha) {
+        if (alpha <= 0 || alpha > 1)
+            throw new IllegalArgumentException("The weight of the samples must be in (0, 1]");
+        this.alpha = alpha;
+    }
+
+    public void update(double sample) {
+        long current, next;
+        do {
+            current = this.average.get();
+            double avg = Double.longBitsToDouble(current);
+            next = Double.doubleToLongBits(Double.isNaN(avg) ? sample : avg + this.alpha * (sample - avg));
+        } while (!this.average.compareAndSet(current, next));
+    }
+
+    /**
+     * @return the average, or NaN if no sample has been recorded
+     */
+    public double get() {
+        return Double.longBitsToDouble(this.average.get());
+    }
+
+    public boolean hasSamples() {
+        return !Double.isNaN(this.get());
+    }
+}
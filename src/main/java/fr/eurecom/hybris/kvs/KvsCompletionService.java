@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2013 EURECOM (www.eurecom.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.eurecom.hybris.kvs;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import fr.eurecom.hybris.kvs.KvsManager.KvsWorker;
+import fr.eurecom.hybris.kvs.drivers.Kvs;
+
+/**
+ * CompletionService running KVS workers on the shared {@link KvsScheduler}.
+ * Unlike an ExecutorCompletionService, it is cheap to instantiate
+ * (one per Hybris operation) and it routes each worker to the lane
+ * of the KvStore it targets.
+ * @author P. Viotti
+ */
+public class KvsCompletionService<V> implements CompletionService<V> {
+
+    private final KvsScheduler scheduler;
+    private final BlockingQueue<Future<V>> completionQueue;
+
+    private class QueueingFuture extends FutureTask<V> {
+        QueueingFuture(Callable<V> task)            { super(task); }
+        QueueingFuture(Runnable task, V result)     { super(task, result); }
+        protected void done() { KvsCompletionService.this.completionQueue.add(this); }
+    }
+
+    public KvsCompletionService(KvsScheduler scheduler) {
+        this.scheduler = scheduler;
+        this.completionQueue = new LinkedBlockingQueue<Future<V>>();
+    }
+
+    public Future<V> submit(Callable<V> task) {
+        Kvs kvStore = null;
+        if (task instanceof KvsWorker)
+            kvStore = ((KvsWorker<?>) task).getKvs();
+        QueueingFuture f = new QueueingFuture(task);
+        this.scheduler.execute(kvStore, f);
+        return f;
+    }
+
+    public Future<V> submit(Runnable task, V result) {
+        QueueingFuture f = new QueueingFuture(task, result);
+        this.scheduler.execute(null, f);
+        return f;
+    }
+
+    public Future<V> take() throws InterruptedException {
+        return this.completionQueue.take();
+    }
+
+    public Future<V> poll() {
+        return this.completionQueue.poll();
+    }
+
+    public Future<V> poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.completionQueue.poll(timeout, unit);
+    }
+}
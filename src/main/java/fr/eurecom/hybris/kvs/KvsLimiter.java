@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2013 EURECOM (www.eurecom.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.eurecom.hybris.kvs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulkhead and rate limiter of the operations issued to a KvStore:
+ * at most <maxConcurrency> operations run at a time and they are started
+ * at most at <maxRate> per second (token bucket, with bursts of up to
+ * <maxRate> operations), so that a burst directed to a cloud waits
+ * on the client instead of being throttled by the provider.
+ * @author P. Viotti
+ */
+public class KvsLimiter {
+
+    private final Semaphore slots;      // null: unbounded concurrency
+    private final double rate;          // [ops/s] 0: unbounded rate
+    private final double burst;
+    private double tokens;
+    private long refilledAt;            // [ns]
+
+    /**
+     * @param maxConcurrency 0 for no limit
+     * @param maxRate [ops/s] 0 for no limit
+     */
+    public KvsLimiter(int maxConcurrency, double maxRate) {
+        if (maxConcurrency < 0 || maxRate < 0)
+            throw new IllegalArgumentException("The limits must not be negative");
+        this.slots = maxConcurrency > 0 ? new Semaphore(maxConcurrency, true) : null;
+        this.rate = maxRate;
+        this.burst = Math.max(1, maxRate);
+        this.tokens = this.burst;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Waits until an operation can be issued.
+     * @throws InterruptedIOException if the calling thread is interrupted
+     */
+    public void acquire() throws IOException {
+        try {
+            if (this.slots != null)
+                this.slots.acquire();
+            long wait = this.reserveToken();
+            if (wait > 0)
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    if (this.slots != null)
+                        this.slots.release();
+                    throw e;
+                }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the KvStore limits");
+        }
+    }
+
+    /**
+     * Records the end of an operation started after {@link #acquire()}.
+     */
+    public void release() {
+        if (this.slots != null)
+            this.slots.release();
+    }
+
+    /**
+     * @return the time to wait before the reserved token is available [ns]
+     */
+    private synchronized long reserveToken() {
+        if (this.rate == 0)
+            return 0;
+        long now = System.nanoTime();
+        this.tokens = Math.min(this.burst, this.tokens + (now - this.refilledAt) * this.rate / 1e9);
+        this.refilledAt = now;
+        this.tokens -= 1;
+        return this.tokens >= 0 ? 0 : (long) (-this.tokens * 1e9 / this.rate);
+    }
+}
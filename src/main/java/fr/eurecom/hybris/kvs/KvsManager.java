@@ -16,22 +16,43 @@
 package fr.eurecom.hybris.kvs;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 import org.jclouds.rest.AuthorizationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
+
 import fr.eurecom.hybris.Config;
 import fr.eurecom.hybris.Utils;
 import fr.eurecom.hybris.kvs.drivers.AmazonKvs;
@@ -55,10 +76,31 @@ public class KvsManager {
     private static final Logger logger = LoggerFactory.getLogger(Config.LOGGER_NAME);
 
     private final List<Kvs> kvsLst;                     // kvStores list (not sorted)
-    private final List<Kvs> kvsLstByReads;              // kvStores sorted by read latency
-    private final List<Kvs> kvsLstByWrites;             // kvStores sorted by write latency
+    private final AtomicReference<KvsRanking> kvsLstByReads;    // kvStores sorted by read latency
+    private final AtomicReference<KvsRanking> kvsLstByWrites;   // kvStores sorted by write latency
+
+    /* moving averages of the latencies of real traffic, periodically
+     * copied to the KvStores to re-rank them */
+    private final Map<Kvs, Ewma> readEwmas;
+    private final Map<Kvs, Ewma> writeEwmas;
+
+    private final Map<Kvs, CircuitBreaker> breakers;    // empty if circuit breakers are disabled
+    private final Map<Kvs, KvsLimiter> limiters;        // only for the KvStores with configured limits
+
+    private final KvsScheduler scheduler;               // shared thread pool for KVS operations
+    private final boolean ownsScheduler;                // created by this KvsManager, hence shut down by it
+    private final Map<Kvs, LatencyHistogram> readLatencies;     // latencies of successful reads
+
+    /* latencies of successful reads and writes by payload size class:
+     * up to 4 kB, 64 kB, 1 MB, 16 MB, 256 MB and larger */
+    public static final int SIZE_CLASSES = 6;
+    private static final int SIZE_CLASS_BASE = 4096;    // [B]
+    private final Map<Kvs, LatencyHistogram[]> readLatenciesBySize;
+    private final Map<Kvs, LatencyHistogram[]> writeLatenciesBySize;
 
     private static final int LATENCY_TEST_DATA_SIZE = 100;     // default value: 100kB
+    private static final int MAX_PARALLEL_DELETES = 1000;    // deletions in flight per KvStore, without batch delete
+    private static final int LIST_BATCH = 1000;     // keys listed per limited operation, as in a page of most KvStores
     
     public static final String FAIL_PREFIX = "FAIL-";
 
@@ -99,17 +141,37 @@ public class KvsManager {
         }
     };
 
+    /**
+     * Creates a KvsManager with its own scheduler, which is shut down by {@link #shutdown()}.
+     */
     public KvsManager(String accountsFile, String container, boolean testLatency) throws IOException {
+        this(accountsFile, container, testLatency,
+                new KvsScheduler(KvsScheduler.DEFAULT_THREADS, KvsScheduler.DEFAULT_THREADS_PER_KVS), true);
+    }
+
+    /**
+     * Creates a KvsManager running its operations on <scheduler>,
+     * which is owned by the caller: {@link #shutdown()} leaves it running.
+     */
+    public KvsManager(String accountsFile, String container, boolean testLatency,
+            KvsScheduler scheduler) throws IOException {
+        this(accountsFile, container, testLatency, scheduler, false);
+    }
+
+    private KvsManager(String accountsFile, String container, boolean testLatency,
+            KvsScheduler scheduler, boolean ownsScheduler) throws IOException {
 
     	Config conf = Config.getInstance();
         conf.loadAccountsProperties(accountsFile);
+        this.scheduler = scheduler;
+        this.ownsScheduler = ownsScheduler;
 
         this.kvsLst = new ArrayList<Kvs>();
-        this.kvsLstByReads = new ArrayList<Kvs>();
-        this.kvsLstByWrites = new ArrayList<Kvs>();
 
         String[] accountIds = conf.getAccountsIds();
 
+        this.limiters = new IdentityHashMap<Kvs, KvsLimiter>();
+
         Kvs kvStore;
         String accessKey, secretKey;
         boolean enabled;
@@ -158,19 +220,152 @@ public class KvsManager {
             }
 
             this.kvsLst.add(kvStore);
+
+            String maxConcurrency = conf.getAccountsProperty( String.format(Config.C_MAX_CONCURRENCY, accountId) );
+            String maxRate = conf.getAccountsProperty( String.format(Config.C_MAX_RATE, accountId) );
+            if (maxConcurrency != null || maxRate != null)
+                this.limiters.put(kvStore, new KvsLimiter(
+                        maxConcurrency == null ? 0 : Integer.parseInt(maxConcurrency.trim()),
+                        maxRate == null ? 0 : Double.parseDouble(maxRate.trim())));
+        }
+
+        this.kvsLstByReads = new AtomicReference<KvsRanking>();
+        this.kvsLstByWrites = new AtomicReference<KvsRanking>();
+        this.publishRankings();
+
+        this.readLatencies = new IdentityHashMap<Kvs, LatencyHistogram>();
+        this.readLatenciesBySize = new IdentityHashMap<Kvs, LatencyHistogram[]>();
+        this.writeLatenciesBySize = new IdentityHashMap<Kvs, LatencyHistogram[]>();
+        this.breakers = new IdentityHashMap<Kvs, CircuitBreaker>();
+        if (Boolean.parseBoolean(conf.getProperty(Config.KVS_BREAKER, "true"))) {
+            double failureRate = Double.parseDouble(conf.getProperty(Config.KVS_BREAKER_FAILURE_RATE, "0.5"));
+            long openTime = TimeUnit.SECONDS.toMillis(
+                    Long.parseLong(conf.getProperty(Config.KVS_BREAKER_OPEN_TIME, "30")));
+            for (Kvs kvs : this.kvsLst)
+                this.breakers.put(kvs, new CircuitBreaker(failureRate, openTime));
         }
 
-        this.kvsLstByReads.addAll(this.kvsLst);
-        this.kvsLstByWrites.addAll(this.kvsLst);
+        this.readEwmas = new IdentityHashMap<Kvs, Ewma>();
+        this.writeEwmas = new IdentityHashMap<Kvs, Ewma>();
+        double alpha = Double.parseDouble(conf.getProperty(Config.KVS_EWMA_ALPHA, "0.1"));
+        for (Kvs kvs : this.kvsLst) {
+            this.readLatencies.put(kvs, new LatencyHistogram());
+            this.readLatenciesBySize.put(kvs, newHistograms());
+            this.writeLatenciesBySize.put(kvs, newHistograms());
+            this.readEwmas.put(kvs, new Ewma(alpha));
+            this.writeEwmas.put(kvs, new Ewma(alpha));
+        }
 
         if (testLatency)
             this.testLatencyAndSortClouds(LATENCY_TEST_DATA_SIZE);
+
+        long rerankPeriod = Long.parseLong(conf.getProperty(Config.KVS_RERANK_PERIOD, "60"));
+        if (rerankPeriod > 0)
+            this.scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    KvsManager.this.rerank();
+                }
+            }, rerankPeriod, TimeUnit.SECONDS);
     }
 
 
     public List<Kvs> getKvsList()                   { return this.kvsLst; }
-    public List<Kvs> getKvsSortedByReadLatency()    { return this.kvsLstByReads; }
-    public List<Kvs> getKvsSortedByWriteLatency()   { return this.kvsLstByWrites; }
+    public KvsScheduler getScheduler()              { return this.scheduler; }
+
+    /**
+     * @return an immutable snapshot of the KvStores sorted by read latency
+     */
+    public List<Kvs> getKvsSortedByReadLatency() {
+        return this.routeAround(this.kvsLstByReads.get().getSorted());
+    }
+
+    /**
+     * @return an immutable snapshot of the KvStores sorted by write latency
+     */
+    public List<Kvs> getKvsSortedByWriteLatency() {
+        return this.routeAround(this.kvsLstByWrites.get().getSorted());
+    }
+
+    /**
+     * @return an immutable snapshot of the KvStores equal to any of <replicas>
+     *          (e.g. the replicas listed in the metadata of a value) sorted by read latency
+     */
+    public List<Kvs> getKvsSortedByReadLatency(List<Kvs> replicas) {
+        return this.routeAround(this.kvsLstByReads.get().getSorted(replicas));
+    }
+
+    /**
+     * @return the circuit breaker of <kvStore>, or null if circuit breakers are disabled
+     */
+    public CircuitBreaker getCircuitBreaker(Kvs kvStore) {
+        return this.breakers.get(kvStore);
+    }
+
+    /**
+     * Records that an operation on <kvStore> did not complete in time.
+     */
+    public void reportTimeout(Kvs kvStore) {
+        this.completed(kvStore, false, true);
+    }
+
+    /**
+     * @return the histogram of the latencies of the reads successfully
+     *          performed on <kvStore>, or null if it is not managed by this KvsManager
+     */
+    public LatencyHistogram getReadLatencyHistogram(Kvs kvStore) {
+        return this.readLatencies.get(kvStore);
+    }
+
+
+    /**
+     * @param write true for the latencies of writes, false for those of reads
+     * @return the histogram of the latencies of the operations of <sizeClass>
+     *          successfully performed on <kvStore>, or null if it is not managed by this KvsManager
+     */
+    public LatencyHistogram getLatencyHistogram(Kvs kvStore, boolean write, int sizeClass) {
+        LatencyHistogram[] histograms = (write ? this.writeLatenciesBySize : this.readLatenciesBySize).get(kvStore);
+        return histograms == null ? null : histograms[sizeClass];
+    }
+
+
+    /**
+     * @return the class of payloads of <size> bytes
+     */
+    public static int getSizeClass(long size) {
+        int sizeClass = 0;
+        for (long bound = SIZE_CLASS_BASE; size > bound && sizeClass < SIZE_CLASSES - 1; bound *= 16)
+            sizeClass++;
+        return sizeClass;
+    }
+
+
+    /**
+     * @return the size of the largest payloads of <sizeClass> [B]
+     *          (for the last class, the lower bound of its sizes)
+     */
+    public static long getSizeClassBound(int sizeClass) {
+        long bound = SIZE_CLASS_BASE;
+        for (int i=0; i<sizeClass && i<SIZE_CLASSES - 2; i++)
+            bound *= 16;
+        return bound;
+    }
+
+
+    /**
+     * Base class of the workers performing operations on a single KvStore,
+     * which allows the scheduler to run them in the lane of their KvStore.
+     * @author p.viotti
+     */
+    public abstract class KvsWorker<V> implements Callable<V> {
+
+        protected final Kvs kvStore;
+
+        public KvsWorker(Kvs kvStore) {
+            this.kvStore = kvStore;
+        }
+
+        public Kvs getKvs() { return this.kvStore; }
+    }
 
 
     /**
@@ -178,14 +373,13 @@ public class KvsManager {
      * write operations on cloud stores.
      * @author p.viotti
      */
-    public class KvsPutWorker implements Callable<Kvs> {
+    public class KvsPutWorker extends KvsWorker<Kvs> {
 
-        private final Kvs kvStore;
         private final String key;
         private final byte[] value;
 
         public KvsPutWorker(Kvs kvStore, String key, byte[] value) {
-            this.kvStore = kvStore;
+            super(kvStore);
             this.key = key;
             this.value = value;
         }
@@ -201,24 +395,76 @@ public class KvsManager {
     }
 
 
+    /**
+     * Worker thread class in charge of asynchronously writing
+     * a stream on cloud stores. The stream is closed once done.
+     * @author p.viotti
+     */
+    public class KvsStreamPutWorker extends KvsWorker<Kvs> {
+
+        private final String key;
+        private final InputStream in;
+        private final long length;
+        private final CountDownLatch started;
+
+        public KvsStreamPutWorker(Kvs kvStore, String key, InputStream in, long length) {
+            this(kvStore, key, in, length, null);
+        }
+
+        /**
+         * @param started counted down once the worker starts reading <in>, or null
+         */
+        public KvsStreamPutWorker(Kvs kvStore, String key, InputStream in, long length, CountDownLatch started) {
+            super(kvStore);
+            this.key = key;
+            this.in = in;
+            this.length = length;
+            this.started = started;
+        }
+
+        public Kvs call() {
+            if (this.started != null)
+                this.started.countDown();
+            try {
+                KvsManager.this.put(this.kvStore, this.key, this.in, this.length);
+                return this.kvStore;
+            } catch (Exception e) {
+                return new Kvs(FAIL_PREFIX + kvStore.getId(), "", false, 0);
+            } finally {
+                try {
+                    this.in.close();
+                } catch (IOException e) { }
+            }
+        }
+    }
+
+
     /**
      * Worker thread class in charge of asynchronously performing
      * read operations on cloud stores.
      * @author p.viotti
      */
-    public class KvsGetWorker implements Callable<Entry<Kvs, byte[]>> {
+    public class KvsGetWorker extends KvsWorker<Entry<Kvs, byte[]>> {
 
-        private final Kvs kvStore;
         private final String key;
+        private final int expectedLength;
 
         public KvsGetWorker(Kvs kvStore, String key) {
-            this.kvStore = kvStore;
+            this(kvStore, key, -1);
+        }
+
+        /**
+         * @param expectedLength the size of the value, or -1 if unknown
+         */
+        public KvsGetWorker(Kvs kvStore, String key, int expectedLength) {
+            super(kvStore);
             this.key = key;
+            this.expectedLength = expectedLength;
         }
 
         public Entry<Kvs, byte[]> call() {
             try {
-                byte[] result = KvsManager.this.get(this.kvStore, this.key);
+                byte[] result = KvsManager.this.get(this.kvStore, this.key, this.expectedLength);
                 if (result == null)
                     throw new Exception();
                 return new AbstractMap.SimpleEntry<Kvs, byte[]>(kvStore, result);
@@ -297,48 +543,322 @@ public class KvsManager {
 
 
     public void put(Kvs kvStore, String key, byte[] data) throws IOException {
+        this.acquire(kvStore);
+        boolean probe = this.started(kvStore), failed = true;
         try {
+            long start = System.currentTimeMillis();
             kvStore.put(key, data);
+            this.written(kvStore, data.length, start);
+            failed = false;
         } catch (IOException e) {
             logger.warn("Could not put " + key + " on " + kvStore, e);
             throw e;
+        } finally {
+            this.completed(kvStore, probe, failed);
+            this.release(kvStore);
         }
     }
 
 
     public byte[] get(Kvs kvStore, String key) throws IOException {
+        return this.get(kvStore, key, -1);
+    }
+
+
+    /**
+     * Size-hinted version of get.
+     * @param expectedLength the size of the value, or -1 if unknown
+     * @see Kvs#get(String, int)
+     */
+    public byte[] get(Kvs kvStore, String key, int expectedLength) throws IOException {
+        this.acquire(kvStore);
+        boolean probe = this.started(kvStore), failed = true;
         try {
-            byte[] value = kvStore.get(key);
+            long start = System.currentTimeMillis();
+            byte[] value = expectedLength < 0 ? kvStore.get(key) : kvStore.get(key, expectedLength);
+            this.read(kvStore, key, value, start);
+            failed = false;
+            return value;
+        } catch (IOException e) {
+            logger.warn("Could not get " + key + " from " + kvStore, e);
+            throw e;
+        } finally {
+            this.completed(kvStore, probe, failed);
+            this.release(kvStore);
+        }
+    }
+
+
+    public void put(Kvs kvStore, String key, InputStream in, long length) throws IOException {
+        this.acquire(kvStore);
+        boolean probe = this.started(kvStore), failed = true;
+        try {
+            kvStore.put(key, in, length);
+            failed = false;
+        } catch (IOException e) {
+            logger.warn("Could not put " + key + " on " + kvStore, e);
+            throw e;
+        } finally {
+            this.completed(kvStore, probe, failed);
+            this.release(kvStore);
+        }
+    }
+
+
+    /**
+     * @return false if the key is not found
+     */
+    public boolean get(Kvs kvStore, String key, OutputStream out) throws IOException {
+        this.acquire(kvStore);
+        boolean probe = this.started(kvStore), failed = true;
+        try {
+            boolean found = kvStore.get(key, out);
+            if (!found)
+                logger.warn("Could not find key {} in {}", key, kvStore);
+            failed = false;
+            return found;
+        } catch (IOException e) {
+            logger.warn("Could not get " + key + " from " + kvStore, e);
+            throw e;
+        } finally {
+            this.completed(kvStore, probe, failed);
+            this.release(kvStore);
+        }
+    }
+
+
+    /**
+     * Ranged version of get.
+     * @param offset the position of the first byte to read
+     * @param length the number of bytes to read
+     * @return the bytes read, or null if the key was not found
+     */
+    public byte[] get(Kvs kvStore, String key, long offset, int length) throws IOException {
+        this.acquire(kvStore);
+        boolean probe = this.started(kvStore), failed = true;
+        try {
+            long start = System.currentTimeMillis();
+            byte[] value = kvStore.get(key, offset, length);
             if (value == null)
                 logger.warn("Could not find key {} in {}", key, kvStore);
+            else
+                this.recordLatency(this.readLatenciesBySize, kvStore, value.length, start);
+            failed = false;
             return value;
         } catch (IOException e) {
             logger.warn("Could not get " + key + " from " + kvStore, e);
             throw e;
+        } finally {
+            this.completed(kvStore, probe, failed);
+            this.release(kvStore);
         }
     }
 
 
     public void delete(Kvs kvStore, String key) throws IOException {
+        this.acquire(kvStore);
+        boolean probe = this.started(kvStore), failed = true;
         try {
             kvStore.delete(key);
+            failed = false;
         } catch (IOException e) {
             logger.warn("Could not delete " + key + " from " + kvStore, e);
             throw e;
+        } finally {
+            this.completed(kvStore, probe, failed);
+            this.release(kvStore);
         }
     }
 
 
+    /**
+     * Deletes several keys from <kvStore>: in batches if the driver supports it,
+     * otherwise issuing the deletions in parallel in the lane of <kvStore>.
+     * @return the keys that could not be deleted, with the respective errors
+     */
+    public Map<String, IOException> delete(Kvs kvStore, Collection<String> keys) {
+        Map<String, IOException> failed = new HashMap<String, IOException>();
+        if (keys.isEmpty())
+            return failed;
+
+        if (kvStore.hasBatchDelete()) {
+            try {
+                this.acquire(kvStore);
+            } catch (IOException e) {
+                for (String key : keys)
+                    failed.put(key, e);
+                return failed;
+            }
+            boolean probe = this.started(kvStore), error = true;
+            try {
+                failed.putAll(kvStore.delete(keys));
+                error = false;
+            } catch (IOException e) {
+                logger.warn("Could not delete " + keys.size() + " keys from " + kvStore, e);
+                for (String key : keys)
+                    failed.put(key, e);
+            } finally {
+                this.completed(kvStore, probe, error);
+                this.release(kvStore);
+            }
+        } else
+            for (List<String> batch : Iterables.partition(keys, MAX_PARALLEL_DELETES)) {
+                Map<String, CompletableFuture<Void>> deletions = new LinkedHashMap<String, CompletableFuture<Void>>();
+                for (String key : batch)
+                    deletions.put(key, this.deleteAsync(kvStore, key));
+                for (Entry<String, CompletableFuture<Void>> deletion : deletions.entrySet())
+                    try {
+                        deletion.getValue().get();
+                    } catch (ExecutionException e) {
+                        failed.put(deletion.getKey(), e.getCause() instanceof IOException ?
+                                (IOException) e.getCause() : new IOException(e.getCause()));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        failed.put(deletion.getKey(), new InterruptedIOException());
+                    }
+            }
+        return failed;
+    }
+
+
+    /**
+     * Asynchronously writes a value on a KvStore, in its scheduler lane.
+     * @return a future completed with the KvStore once the value is stored
+     */
+    public CompletableFuture<Kvs> putAsync(final Kvs kvStore, final String key, final byte[] data) {
+        if (this.isAsync(kvStore))
+            return this.callAsync(kvStore, "put " + key + " on " + kvStore,
+                    lane -> kvStore.putAsync(key, data, lane),
+                    (v, start) -> {
+                        this.written(kvStore, data.length, start);
+                        return kvStore;
+                    });
+        return this.runAsync(kvStore, () -> {
+            KvsManager.this.put(kvStore, key, data);
+            return kvStore;
+        });
+    }
+
+
+    /**
+     * Asynchronously reads a value from a KvStore, in its scheduler lane.
+     * @return a future completed with the value, or null if the key is not found
+     */
+    public CompletableFuture<byte[]> getAsync(final Kvs kvStore, final String key) {
+        return this.getAsync(kvStore, key, -1);
+    }
+
+
+    /**
+     * Size-hinted version of getAsync.
+     * @param expectedLength the size of the value, or -1 if unknown
+     * @see Kvs#get(String, int)
+     */
+    public CompletableFuture<byte[]> getAsync(final Kvs kvStore, final String key, final int expectedLength) {
+        if (this.isAsync(kvStore))
+            return this.callAsync(kvStore, "get " + key + " from " + kvStore,
+                    lane -> expectedLength < 0 ? kvStore.getAsync(key, lane) : kvStore.getAsync(key, expectedLength, lane),
+                    (value, start) -> {
+                        this.read(kvStore, key, value, start);
+                        return value;
+                    });
+        return this.runAsync(kvStore, () -> KvsManager.this.get(kvStore, key, expectedLength));
+    }
+
+
+    public CompletableFuture<Void> deleteAsync(final Kvs kvStore, final String key) {
+        if (this.isAsync(kvStore))
+            return this.callAsync(kvStore, "delete " + key + " from " + kvStore,
+                    lane -> kvStore.deleteAsync(key, lane), (v, start) -> v);
+        return this.runAsync(kvStore, () -> {
+            KvsManager.this.delete(kvStore, key);
+            return null;
+        });
+    }
+
+
+    /**
+     * Lists the keys in <kvStore> starting with <prefix>, lazily if the driver supports it.
+     * The keys are fetched from the driver in batches of LIST_BATCH, each one
+     * counted as an operation by the limits and the circuit breaker of <kvStore>
+     * (the drivers do not expose their page boundaries, so a batch stands for a page).
+     * @see Kvs#list(String)
+     */
+    public Iterator<String> list(final Kvs kvStore, final String prefix) throws IOException {
+        final Iterator<String> keys;
+        this.acquire(kvStore);
+        boolean probe = this.started(kvStore), failed = true;
+        try {
+            keys = kvStore.list(prefix);
+            failed = false;
+        } catch (IOException e) {
+            logger.warn("Could not list keys starting with {} in {}", prefix, kvStore, e);
+            throw e;
+        } finally {
+            this.completed(kvStore, probe, failed);
+            this.release(kvStore);
+        }
+
+        return new AbstractIterator<String>() {
+            private Iterator<String> batch = Collections.<String>emptyIterator();
+
+            protected String computeNext() {
+                if (!this.batch.hasNext()) {
+                    this.batch = this.fetch();
+                    if (!this.batch.hasNext())
+                        return this.endOfData();
+                }
+                return this.batch.next();
+            }
+
+            private Iterator<String> fetch() {
+                try {
+                    KvsManager.this.acquire(kvStore);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                boolean probe = KvsManager.this.started(kvStore), failed = true;
+                try {
+                    List<String> batch = new ArrayList<String>();
+                    while (batch.size() < LIST_BATCH && keys.hasNext())
+                        batch.add(keys.next());
+                    failed = false;
+                    return batch.iterator();
+                } catch (UncheckedIOException e) {
+                    logger.warn("Could not list keys starting with {} in {}", prefix, kvStore, e);
+                    throw e;
+                } finally {
+                    KvsManager.this.completed(kvStore, probe, failed);
+                    KvsManager.this.release(kvStore);
+                }
+            }
+        };
+    }
+
+
     public List<String> list(Kvs kvStore) throws IOException {
+        this.acquire(kvStore);
         try {
             return kvStore.list();
         } catch (IOException e) {
             logger.warn("Could not list keys in {}", kvStore, e);
             throw e;
+        } finally {
+            this.release(kvStore);
         }
     }
 
 
+    /**
+     * Shuts down all the KvStores and, if it was created by this KvsManager, the scheduler.
+     */
+    public void shutdown() {
+        if (this.ownsScheduler)
+            this.scheduler.shutdown();
+        for (Kvs kvStore : this.kvsLst)
+            this.shutdown(kvStore);
+    }
+
     public void shutdown(Kvs kvStore) {
         try {
             kvStore.shutdown();
@@ -353,20 +873,42 @@ public class KvsManager {
         logger.info("Performing {} kB latency tests on cloud kvStores..", testDataSize);
         this.testLatency(testDataSize);
 
-        Collections.sort(this.kvsLstByReads, Kvs.COMPARATOR_BY_READS);
-        Collections.sort(this.kvsLstByWrites, Kvs.COMPARATOR_BY_WRITES);
+        this.publishRankings();
 
         if (logger.isDebugEnabled()) {
             logger.debug("Cloud kvStores sorted by write latency:");
-            for(Kvs kvs : this.kvsLstByWrites)
+            for(Kvs kvs : this.getKvsSortedByWriteLatency())
                 logger.debug("\t* {}", kvs.toVerboseString());
             logger.debug("Cloud kvStores sorted by read latency:");
-            for(Kvs kvs : this.kvsLstByReads)
+            for(Kvs kvs : this.getKvsSortedByReadLatency())
                 logger.debug("\t* {}", kvs.toVerboseString());
         }
     }
 
 
+    /**
+     * Ranks the KvStores by the moving averages of the latencies of the
+     * operations performed on them since startup. KvStores without any
+     * operation of a kind keep the latency measured by the latency test.
+     */
+    public void rerank() {
+        for (Kvs kvStore : this.kvsLst) {
+            Ewma reads = this.readEwmas.get(kvStore);
+            Ewma writes = this.writeEwmas.get(kvStore);
+            if (reads.hasSamples())
+                kvStore.setReadLatency(Math.round(reads.get()));
+            if (writes.hasSamples())
+                kvStore.setWriteLatency(Math.round(writes.get()));
+        }
+        this.publishRankings();
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Cloud kvStores sorted by write latency: {}", this.getKvsSortedByWriteLatency());
+            logger.debug("Cloud kvStores sorted by read latency: {}", this.getKvsSortedByReadLatency());
+        }
+    }
+
+
     /**
      * Empty the data storage root container.
      * ATTENTION: it erases all data stored in the root container!
@@ -376,11 +918,8 @@ public class KvsManager {
     public void emptyStorageContainer(Kvs kvStore) throws IOException {
         logger.debug("Listing {}", kvStore);
         List<String> keys = kvStore.list();
-        for (String key : keys)
-            try {
-                logger.debug("Removing {} from {}", key, kvStore);
-                kvStore.delete(key);
-            } catch (IOException e) { }
+        logger.debug("Removing {} keys from {}", keys.size(), kvStore);
+        this.delete(kvStore, keys);
     }
 
     /* ---------------------------------------------------------------------------------------
@@ -388,13 +927,205 @@ public class KvsManager {
        --------------------------------------------------------------------------------------- */
 
 
+    private static LatencyHistogram[] newHistograms() {
+        LatencyHistogram[] histograms = new LatencyHistogram[SIZE_CLASSES];
+        for (int i=0; i<SIZE_CLASSES; i++)
+            histograms[i] = new LatencyHistogram();
+        return histograms;
+    }
+
+
+    private void recordLatency(Map<Kvs, LatencyHistogram[]> latencies, Kvs kvStore, long size, long start) {
+        LatencyHistogram[] histograms = latencies.get(kvStore);
+        if (histograms != null)
+            histograms[getSizeClass(size)].record(System.currentTimeMillis() - start);
+    }
+
+
+    /**
+     * @return <ranked> itself if all the KvStores are available, otherwise
+     *          a copy in which the ones with an open circuit come last
+     *          (they are still tried as a last resort)
+     */
+    private List<Kvs> routeAround(List<Kvs> ranked) {
+        List<Kvs> available = null;
+        List<Kvs> unavailable = null;
+        for (int i=0; i<ranked.size(); i++) {
+            CircuitBreaker breaker = this.breakers.get(ranked.get(i));
+            if (breaker == null || breaker.isAvailable()) {
+                if (available != null)
+                    available.add(ranked.get(i));
+            } else {
+                if (available == null) {
+                    available = new ArrayList<Kvs>(ranked.subList(0, i));
+                    unavailable = new ArrayList<Kvs>();
+                }
+                unavailable.add(ranked.get(i));
+            }
+        }
+        if (available == null)
+            return ranked;
+        available.addAll(unavailable);
+        return Collections.unmodifiableList(available);
+    }
+
+
+    /**
+     * Waits until the limits of <kvStore> allow issuing an operation.
+     */
+    private void acquire(Kvs kvStore) throws IOException {
+        KvsLimiter limiter = this.limiters.get(kvStore);
+        if (limiter != null)
+            limiter.acquire();
+    }
+
+
+    private void release(Kvs kvStore) {
+        KvsLimiter limiter = this.limiters.get(kvStore);
+        if (limiter != null)
+            limiter.release();
+    }
+
+
+    private boolean started(Kvs kvStore) {
+        CircuitBreaker breaker = this.breakers.get(kvStore);
+        return breaker != null && breaker.started();
+    }
+
+
+    private void completed(Kvs kvStore, boolean probe, boolean failed) {
+        CircuitBreaker breaker = this.breakers.get(kvStore);
+        if (breaker != null)
+            breaker.completed(probe, failed);
+    }
+
+
+    /**
+     * Records the latency of a successful put of <size> bytes started at <start>.
+     */
+    private void written(Kvs kvStore, int size, long start) {
+        this.recordLatency(this.writeLatenciesBySize, kvStore, size, start);
+        this.recordLatency(this.writeEwmas, kvStore, start);
+    }
+
+
+    /**
+     * Records the latency of a successful get started at <start>.
+     */
+    private void read(Kvs kvStore, String key, byte[] value, long start) {
+        if (value == null)
+            logger.warn("Could not find key {} in {}", key, kvStore);
+        else if (this.readLatencies.containsKey(kvStore)) {
+            this.readLatencies.get(kvStore).record(System.currentTimeMillis() - start);
+            this.recordLatency(this.readLatenciesBySize, kvStore, value.length, start);
+            this.recordLatency(this.readEwmas, kvStore, start);
+        }
+    }
+
+
+    private void recordLatency(Map<Kvs, Ewma> ewmas, Kvs kvStore, long start) {
+        Ewma ewma = ewmas.get(kvStore);
+        if (ewma != null)
+            ewma.update(System.currentTimeMillis() - start);
+    }
+
+
+    /**
+     * Sorts the KvStores by latency and publishes the new rankings,
+     * so that the snapshots handed out before are never reordered.
+     */
+    private void publishRankings() {
+        this.kvsLstByReads.set(new KvsRanking(this.kvsLst, Kvs.COMPARATOR_BY_READS));
+        this.kvsLstByWrites.set(new KvsRanking(this.kvsLst, Kvs.COMPARATOR_BY_WRITES));
+    }
+
+
+    /**
+     * Runs a blocking task in the lane of <kvStore>.
+     * Cancelling the returned future skips the task if it is still queued,
+     * or interrupts the thread running it (which drivers may or may not honour).
+     */
+    private <T> CompletableFuture<T> runAsync(final Kvs kvStore, final Callable<T> task) {
+        return Kvs.callAsync(task, this.getLaneExecutor(kvStore));
+    }
+
+
+    /**
+     * Issues an operation through the asynchronous API of <kvStore>, so that
+     * natively asynchronous drivers do not hold a scheduler thread while
+     * the request is in flight. Cancelling the returned future cancels the request.
+     * @param onSuccess bookkeeping of a successful request, given its result
+     *          and start time, returning the result of the operation
+     */
+    private <T, R> CompletableFuture<R> callAsync(final Kvs kvStore, final String description,
+            Function<Executor, CompletableFuture<T>> request, final BiFunction<T, Long, R> onSuccess) {
+        final CompletableFuture<R> result = new CompletableFuture<R>();
+        if (this.scheduler.isShutdown()) {
+            result.completeExceptionally(new RejectedExecutionException("KvsScheduler has been shut down"));
+            return result;
+        }
+
+        final boolean probe = this.started(kvStore);
+        final long start = System.currentTimeMillis();
+        final CompletableFuture<T> pending;
+        try {
+            pending = request.apply(this.getLaneExecutor(kvStore));
+        } catch (RuntimeException e) {
+            this.completed(kvStore, probe, true);
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        pending.whenComplete((value, t) -> {
+            R res = null;
+            if (t == null)
+                try {
+                    res = onSuccess.apply(value, start);
+                } catch (RuntimeException e) {
+                    t = e;
+                }
+            else if (t instanceof CompletionException && t.getCause() != null)
+                t = t.getCause();
+            if (t != null && !(t instanceof CancellationException))
+                logger.warn("Could not " + description, t);
+            this.completed(kvStore, probe, t != null);
+            if (t == null)
+                result.complete(res);
+            else
+                result.completeExceptionally(t);
+        });
+        result.whenComplete((value, t) -> {
+            if (result.isCancelled())
+                pending.cancel(true);
+        });
+        return result;
+    }
+
+
+    /**
+     * @return whether the operations on <kvStore> can be issued through its
+     *          asynchronous API (the limits of a KvStore are enforced by blocking)
+     */
+    private boolean isAsync(Kvs kvStore) {
+        return kvStore.isAsync() && !this.limiters.containsKey(kvStore);
+    }
+
+
+    private Executor getLaneExecutor(final Kvs kvStore) {
+        return task -> this.scheduler.execute(kvStore, task);
+    }
+
+
     private void testLatency(int testDataSize) {
-        ExecutorService executor = Executors.newFixedThreadPool(this.kvsLst.size());
         List<FutureTask<Object>> futureLst = new ArrayList<FutureTask<Object>>(this.kvsLst.size());
         for (Kvs kvStore : this.kvsLst) {
             FutureTask<Object> f = new FutureTask<Object>(new LatencyTester(kvStore, testDataSize), null);
-            futureLst.add(f);
-            executor.execute(f);
+            try {
+                this.scheduler.execute(kvStore, f);
+                futureLst.add(f);
+            } catch (RejectedExecutionException e) {
+                logger.warn("Could not run latency test on {}: KVS scheduler shut down.", kvStore);
+            }
         }
 
         for (FutureTask<Object> future : futureLst)
@@ -403,7 +1134,5 @@ public class KvsManager {
             } catch (InterruptedException | ExecutionException e) {
                 logger.warn("Exception while running latency test.", e);
             }
-
-        executor.shutdown();
     }
 }
\ No newline at end of file
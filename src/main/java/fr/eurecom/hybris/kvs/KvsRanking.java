@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2013 EURECOM (www.eurecom.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.eurecom.hybris.kvs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import fr.eurecom.hybris.kvs.drivers.Kvs;
+
+/**
+ * Immutable ranking of the KvStores, published as a whole
+ * whenever the KvStores are re-ranked.
+ * The rankings of the subsets of KvStores storing a value are
+ * computed once per snapshot and shared by all the readers.
+ * @author P. Viotti
+ */
+public class KvsRanking {
+
+    private static final int MAX_CACHED_KVS = 64;   // subsets are cached by bitmask
+
+    private final List<Kvs> kvsLst;     // all KvStores, in configuration order
+    private final List<Kvs> sorted;
+    private final ConcurrentMap<Long, List<Kvs>> subsets;
+
+    public KvsRanking(List<Kvs> kvsLst, Comparator<Kvs> comparator) {
+        this.kvsLst = Collections.unmodifiableList(new ArrayList<Kvs>(kvsLst));
+        List<Kvs> sorted = new ArrayList<Kvs>(kvsLst);
+        Collections.sort(sorted, comparator);
+        this.sorted = Collections.unmodifiableList(sorted);
+        this.subsets = new ConcurrentHashMap<Long, List<Kvs>>();
+    }
+
+    /**
+     * @return the unmodifiable list of all the KvStores, sorted
+     */
+    public List<Kvs> getSorted() {
+        return this.sorted;
+    }
+
+    /**
+     * @param replicas e.g. the replicas listed in the metadata of a value
+     * @return the unmodifiable list of the KvStores equal to any of <replicas>, sorted
+     */
+    public List<Kvs> getSorted(List<Kvs> replicas) {
+        if (this.kvsLst.size() > MAX_CACHED_KVS)
+            return this.filter(replicas);
+
+        long mask = 0;
+        for (int i=0; i<this.kvsLst.size(); i++)
+            if (replicas.contains(this.kvsLst.get(i)))
+                mask |= 1L << i;
+        List<Kvs> subset = this.subsets.get(mask);
+        if (subset == null) {
+            subset = this.filter(replicas);
+            this.subsets.putIfAbsent(mask, subset);
+        }
+        return subset;
+    }
+
+    private List<Kvs> filter(List<Kvs> replicas) {
+        List<Kvs> subset = new ArrayList<Kvs>();
+        for (Kvs kvStore : this.sorted)
+            if (replicas.contains(kvStore))
+                subset.add(kvStore);
+        return Collections.unmodifiableList(subset);
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright (C) 2013 EURECOM (www.eurecom.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.eurecom.hybris.kvs;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.eurecom.hybris.Config;
+import fr.eurecom.hybris.kvs.drivers.Kvs;
+
+/**
+ * Bounded, long-lived thread pool shared by all the KVS operations
+ * of a Hybris client.
+ * Tasks directed to a KvStore are queued in a per-Kvs lane which can
+ * occupy at most <threadsPerKvs> pool threads at a time, so that a slow
+ * or unresponsive cloud cannot starve the operations issued to the others.
+ * @author P. Viotti
+ */
+public class KvsScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(Config.LOGGER_NAME);
+
+    public static final int DEFAULT_THREADS = 32;
+    public static final int DEFAULT_THREADS_PER_KVS = 8;
+
+    private static final int SHUTDOWN_TIMEOUT = 5;     // [s]
+    private static final AtomicInteger poolCounter = new AtomicInteger();
+
+    private final ThreadPoolExecutor pool;
+    private final ScheduledExecutorService timer;       // timeouts of asynchronous operations
+    private final int threadsPerKvs;
+    private final Map<Kvs, Lane> lanes;     // identity map: different KvStores may share the same id
+
+    public KvsScheduler(int threads, int threadsPerKvs) {
+        if (threads <= 0 || threadsPerKvs <= 0)
+            throw new IllegalArgumentException("The number of threads must be positive");
+
+        this.threadsPerKvs = threadsPerKvs;
+        this.lanes = new IdentityHashMap<Kvs, Lane>();
+
+        final int poolId = poolCounter.incrementAndGet();
+        ThreadFactory tf = new ThreadFactory() {
+            private final AtomicInteger threadCounter = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "hybris-kvs-" + poolId + "-" + threadCounter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        this.pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), tf);
+        this.pool.allowCoreThreadTimeOut(true);
+
+        ScheduledThreadPoolExecutor stpe = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "hybris-kvs-" + poolId + "-timer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        stpe.setRemoveOnCancelPolicy(true);
+        this.timer = stpe;
+    }
+
+    /**
+     * Executes a task directed to a KvStore in its own lane.
+     * @param kvStore the target KvStore, or null for tasks not bound to any KvStore
+     * @param task
+     * @throws RejectedExecutionException if the scheduler has been shut down
+     */
+    public void execute(Kvs kvStore, Runnable task) {
+        if (this.pool.isShutdown())
+            throw new RejectedExecutionException("KvsScheduler has been shut down");
+        if (kvStore == null)
+            this.pool.execute(task);
+        else
+            this.getLane(kvStore).enqueue(task);
+    }
+
+    /**
+     * Completes the given future exceptionally with a TimeoutException
+     * if it is not completed within the given timeout.
+     * @return the same future, for chaining
+     */
+    public <T> CompletableFuture<T> withTimeout(final CompletableFuture<T> future, long timeout, TimeUnit unit) {
+        if (future.isDone())
+            return future;
+        final ScheduledFuture<?> task = this.timer.schedule(
+                () -> future.completeExceptionally(new TimeoutException()), timeout, unit);
+        future.whenComplete((result, t) -> task.cancel(false));
+        return future;
+    }
+
+    /**
+     * Runs a short task (e.g. aborting an operation) on the timer thread after <delay>.
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return this.timer.schedule(task, delay, unit);
+    }
+
+    /**
+     * Periodically runs a short task (e.g. bookkeeping) on the timer thread,
+     * until the scheduler is shut down.
+     */
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long delay, TimeUnit unit) {
+        return this.timer.scheduleWithFixedDelay(task, delay, delay, unit);
+    }
+
+    public boolean isShutdown() {
+        return this.pool.isShutdown();
+    }
+
+    /**
+     * Stops accepting new tasks, cancels the queued ones and waits
+     * a bounded amount of time for the running ones to complete.
+     */
+    public void shutdown() {
+        List<Lane> lanesLst;
+        synchronized (this.lanes) {
+            lanesLst = new ArrayList<Lane>(this.lanes.values());
+        }
+        this.pool.shutdown();
+        this.timer.shutdownNow();
+        for (Lane lane : lanesLst)
+            lane.cancelQueued();
+
+        try {
+            if (!this.pool.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                logger.warn("KvsScheduler: forcing the shutdown of pending KVS operations");
+                this.pool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            this.pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Lane getLane(Kvs kvStore) {
+        synchronized (this.lanes) {
+            Lane lane = this.lanes.get(kvStore);
+            if (lane == null) {
+                lane = new Lane();
+                this.lanes.put(kvStore, lane);
+            }
+            return lane;
+        }
+    }
+
+
+    /**
+     * FIFO queue of the tasks directed to a single KvStore.
+     */
+    private class Lane {
+
+        private final Queue<Runnable> queue = new ArrayDeque<Runnable>();
+        private int running = 0;
+
+        synchronized void enqueue(Runnable task) {
+            this.queue.add(task);
+            this.dispatch();
+        }
+
+        synchronized void cancelQueued() {
+            Runnable task;
+            while ((task = this.queue.poll()) != null)
+                if (task instanceof Future)
+                    ((Future<?>) task).cancel(false);
+        }
+
+        private synchronized void completed() {
+            this.running--;
+            if (!KvsScheduler.this.pool.isShutdown())
+                this.dispatch();
+        }
+
+        private void dispatch() {
+            while (this.running < KvsScheduler.this.threadsPerKvs && !this.queue.isEmpty()) {
+                final Runnable task = this.queue.poll();
+                this.running++;
+                try {
+                    KvsScheduler.this.pool.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                task.run();
+                            } finally {
+                                Lane.this.completed();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    this.running--;
+                    if (task instanceof Future)
+                        ((Future<?>) task).cancel(false);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2013 EURECOM (www.eurecom.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.eurecom.hybris.kvs;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of the latencies of the operations on a KvStore.
+ * Buckets grow exponentially (4 per power of two), so that percentiles
+ * are approximated within ~19% for any latency up to several minutes.
+ * @author P. Viotti
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 4;       // buckets per power of two
+    private static final int BUCKETS = 20 * SUB_BUCKETS + 1;   // up to 2^20 ms (~17 min)
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * @param latency [ms]
+     */
+    public void record(long latency) {
+        this.counts.incrementAndGet(bucketOf(latency));
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i=0; i<BUCKETS; i++)
+            count += this.counts.get(i);
+        return count;
+    }
+
+    /**
+     * @param percentile in (0, 100]
+     * @return the upper bound of the bucket containing the given percentile [ms],
+     *          or -1 if no latency has been recorded
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i=0; i<BUCKETS; i++) {
+            snapshot[i] = this.counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0)
+            return -1;
+
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i=0; i<BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return upperBoundOf(i);
+        }
+        return upperBoundOf(BUCKETS - 1);
+    }
+
+    public void reset() {
+        for (int i=0; i<BUCKETS; i++)
+            this.counts.set(i, 0);
+    }
+
+    private static int bucketOf(long latency) {
+        if (latency <= 1)
+            return 0;
+        int bucket = (int) Math.ceil(Math.log(latency) / Math.log(2) * SUB_BUCKETS);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    private static long upperBoundOf(int bucket) {
+        return (long) Math.floor(Math.pow(2, (double) bucket / SUB_BUCKETS));
+    }
+}
@@ -17,17 +17,32 @@ package fr.eurecom.hybris.kvs.drivers;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.http.HttpStatus;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.event.ProgressEvent;
+import com.amazonaws.event.ProgressEventType;
+import com.amazonaws.event.ProgressListener;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
 import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
@@ -35,13 +50,18 @@ import com.amazonaws.services.s3.model.Region;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.amazonaws.services.s3.model.StorageClass;
+import com.amazonaws.services.s3.transfer.Transfer.TransferState;
 import com.amazonaws.services.s3.transfer.TransferManager;
 import com.amazonaws.services.s3.transfer.TransferManagerConfiguration;
 import com.amazonaws.services.s3.transfer.Upload;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
 import com.google.common.io.ByteStreams;
 
 public class AmazonKvs extends Kvs {
 
+    private static final int MAX_BATCH_DELETE = 1000;   // keys per multi-object delete request
+
     private transient final AmazonS3 s3;
     private transient final TransferManager tm;
 
@@ -78,6 +98,104 @@ public class AmazonKvs extends Kvs {
         }
     }
 
+    public boolean isAsync() {
+        return true;
+    }
+
+    /**
+     * Uploads through the TransferManager, completing the returned future
+     * from its progress events instead of waiting for the upload:
+     * no thread but the TransferManager's is held while the upload is in flight.
+     */
+    public CompletableFuture<Void> putAsync(final String key, byte[] value, final Executor executor) {
+        final CompletableFuture<Void> result = new CompletableFuture<Void>();
+        try {
+            ObjectMetadata om = new ObjectMetadata();
+            om.setContentLength(value.length);
+
+            PutObjectRequest request = new PutObjectRequest(this.rootContainer, key, new ByteArrayInputStream(value), om);
+            request.setStorageClass(StorageClass.ReducedRedundancy);
+
+            final Upload upload = this.tm.upload(request);
+            upload.addProgressListener(new ProgressListener() {
+                public void progressChanged(ProgressEvent event) {
+                    ProgressEventType type = event.getEventType();
+                    if (type == ProgressEventType.TRANSFER_COMPLETED_EVENT ||
+                            type == ProgressEventType.TRANSFER_FAILED_EVENT ||
+                            type == ProgressEventType.TRANSFER_CANCELED_EVENT)
+                        uploaded(key, upload, result, executor);
+                }
+            });
+            if (upload.isDone())    // before the listener was added
+                uploaded(key, upload, result, executor);
+            result.whenComplete((v, t) -> {
+                if (result.isCancelled())
+                    upload.abort();
+            });
+        } catch (AmazonClientException e) {
+            result.completeExceptionally(new IOException(e));
+        }
+        return result;
+    }
+
+    /**
+     * Completes <result> with the outcome of a finished <upload>, as given by its state,
+     * which the TransferManager sets before publishing the final progress event
+     * (whereas the result of the upload may not be published yet).
+     * The future is completed on <executor>, so that the stages depending on it
+     * do not run on the thread publishing the progress events.
+     */
+    private static void uploaded(final String key, final Upload upload, final CompletableFuture<Void> result,
+            Executor executor) {
+        final TransferState state = upload.getState();
+        if (state != TransferState.Completed && state != TransferState.Failed && state != TransferState.Canceled)
+            return;     // not done yet: the final event is still to come
+        try {
+            executor.execute(() -> {
+                if (state == TransferState.Completed)
+                    result.complete(null);
+                else
+                    result.completeExceptionally(new IOException("Upload of " + key + " " + state.toString().toLowerCase()));
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    public void put(String key, InputStream in, long length) throws IOException {
+        try {
+            ObjectMetadata om = new ObjectMetadata();
+            om.setContentLength(length);
+
+            PutObjectRequest request = new PutObjectRequest(this.rootContainer, key, in, om);
+            request.setStorageClass(StorageClass.ReducedRedundancy);
+
+            Upload upload = this.tm.upload(request);
+            upload.waitForCompletion();
+        } catch (AmazonClientException | InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public boolean get(String key, OutputStream out) throws IOException {
+        try {
+            S3Object object = this.s3.getObject(new GetObjectRequest(this.rootContainer, key));
+            try (InputStream in = object.getObjectContent()) {
+                ByteStreams.copy(in, out);
+            }
+            return true;
+        } catch (AmazonClientException e) {
+
+            if (e instanceof AmazonS3Exception) {
+                AmazonS3Exception as3e = (AmazonS3Exception) e;
+                if (as3e.getStatusCode() == HttpStatus.SC_NOT_FOUND)
+                    return false;
+            }
+
+            throw new IOException(e);
+        }
+    }
+
     public byte[] get(String key) throws IOException {
         try {
             S3Object object = this.s3.getObject(new GetObjectRequest(this.rootContainer, key));
@@ -94,6 +212,48 @@ public class AmazonKvs extends Kvs {
         }
     }
 
+    public byte[] get(String key, int expectedLength) throws IOException {
+        try {
+            S3Object object = this.s3.getObject(new GetObjectRequest(this.rootContainer, key));
+            long contentLength = object.getObjectMetadata().getContentLength();
+            if (contentLength > expectedLength) {
+                object.getObjectContent().abort();  // do not download it
+                throw this.tooLarge(key, contentLength, expectedLength);
+            }
+            try (InputStream in = object.getObjectContent()) {
+                return this.read(key, in, contentLength, expectedLength);
+            }
+        } catch (AmazonClientException e) {
+
+            if (e instanceof AmazonS3Exception) {
+                AmazonS3Exception as3e = (AmazonS3Exception) e;
+                if (as3e.getStatusCode() == HttpStatus.SC_NOT_FOUND)
+                    return null;
+            }
+
+            throw new IOException(e);
+        }
+    }
+
+    public byte[] get(String key, long offset, int length) throws IOException {
+        if (length == 0)
+            return new byte[0];
+        try {
+            S3Object object = this.s3.getObject(new GetObjectRequest(this.rootContainer, key)
+                                                    .withRange(offset, offset + length - 1));
+            return ByteStreams.toByteArray(object.getObjectContent());
+        } catch (AmazonClientException e) {
+
+            if (e instanceof AmazonS3Exception) {
+                AmazonS3Exception as3e = (AmazonS3Exception) e;
+                if (as3e.getStatusCode() == HttpStatus.SC_NOT_FOUND)
+                    return null;
+            }
+
+            throw new IOException(e);
+        }
+    }
+
     public void delete(String key) throws IOException {
         try {
             this.s3.deleteObject(this.rootContainer, key);
@@ -102,6 +262,31 @@ public class AmazonKvs extends Kvs {
         }
     }
 
+    public boolean hasBatchDelete() {
+        return true;
+    }
+
+    /**
+     * Deletes the keys with S3 multi-object delete requests.
+     */
+    public Map<String, IOException> delete(Collection<String> keys) throws IOException {
+        Map<String, IOException> failed = new HashMap<String, IOException>();
+        try {
+            for (List<String> batch : Iterables.partition(keys, MAX_BATCH_DELETE))
+                try {
+                    this.s3.deleteObjects(new DeleteObjectsRequest(this.rootContainer)
+                                                .withKeys(batch.toArray(new String[batch.size()]))
+                                                .withQuiet(true));
+                } catch (MultiObjectDeleteException e) {
+                    for (MultiObjectDeleteException.DeleteError error : e.getErrors())
+                        failed.put(error.getKey(), new IOException(error.getCode() + ": " + error.getMessage()));
+                }
+        } catch (AmazonClientException e) {
+            throw new IOException(e);
+        }
+        return failed;
+    }
+
     public List<String> list() throws IOException {
         try {
             List<String> keys = new ArrayList<String>();
@@ -126,6 +311,32 @@ public class AmazonKvs extends Kvs {
         }
     }
 
+    public Iterator<String> list(String prefix) throws IOException {
+        try {
+            final ObjectListing first = this.s3.listObjects(this.rootContainer, prefix);
+            return new AbstractIterator<String>() {
+                private ObjectListing listing = first;
+                private Iterator<S3ObjectSummary> page = first.getObjectSummaries().iterator();
+
+                protected String computeNext() {
+                    while (!this.page.hasNext()) {
+                        if (!this.listing.isTruncated())
+                            return this.endOfData();
+                        try {
+                            this.listing = AmazonKvs.this.s3.listNextBatchOfObjects(this.listing);
+                        } catch (AmazonClientException e) {
+                            throw new UncheckedIOException(new IOException(e));
+                        }
+                        this.page = this.listing.getObjectSummaries().iterator();
+                    }
+                    return this.page.next().getKey();
+                }
+            };
+        } catch (AmazonClientException e) {
+            throw new IOException(e);
+        }
+    }
+
     private void createContainer() throws IOException {
         try {
             if (!this.s3.doesBucketExist(this.rootContainer))
@@ -18,15 +18,20 @@ package fr.eurecom.hybris.kvs.drivers;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.security.InvalidKeyException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Iterators;
 import com.microsoft.azure.storage.CloudStorageAccount;
 import com.microsoft.azure.storage.StorageException;
 import com.microsoft.azure.storage.blob.BlobRequestOptions;
@@ -105,6 +110,79 @@ public class AzureKvs extends Kvs {
 		}
 	}
 
+	public byte[] get(String key, int expectedLength) throws IOException {
+		try {
+			CloudBlockBlob blob = this.blobRefs.get(key);
+			if (blob == null)
+				blob = this.containerRef.getBlockBlobReference(key);
+			// opening the stream fetches the blob properties, so the length is known
+			try (InputStream in = blob.openInputStream()) {
+				return this.read(key, in, blob.getProperties().getLength(), expectedLength);
+			}
+		} catch (URISyntaxException | StorageException e) {
+
+			if (e instanceof StorageException) {
+				StorageException se = (StorageException) e;
+				if (ERROR_BLOB_NOT_FOUND.equals(se.getErrorCode()))
+					return null;
+			}
+
+			throw new IOException(e);
+		}
+	}
+
+	public byte[] get(String key, long offset, int length) throws IOException {
+		if (length == 0)
+			return new byte[0];
+		try {
+			CloudBlockBlob blob = this.blobRefs.get(key);
+			if (blob == null)
+				blob = this.containerRef.getBlockBlobReference(key);
+			byte[] buffer = new byte[length];
+			int read = blob.downloadRangeToByteArray(offset, (long) length, buffer, 0);
+			return read < length ? Arrays.copyOf(buffer, read) : buffer;
+		} catch (URISyntaxException | StorageException e) {
+
+			if (e instanceof StorageException) {
+				StorageException se = (StorageException) e;
+				if (ERROR_BLOB_NOT_FOUND.equals(se.getErrorCode()))
+					return null;
+			}
+
+			throw new IOException(e);
+		}
+	}
+
+	public void put(String key, InputStream in, long length) throws IOException {
+		try {
+			CloudBlockBlob blob = this.containerRef.getBlockBlobReference(key);
+			blob.getProperties().setContentMD5(null);
+			blob.upload(in, length);
+			this.blobRefs.put(key, blob);
+		} catch (URISyntaxException | StorageException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public boolean get(String key, OutputStream out) throws IOException {
+		try {
+			CloudBlockBlob blob = this.blobRefs.get(key);
+			if (blob == null)
+				blob = this.containerRef.getBlockBlobReference(key);
+			blob.download(out);
+			return true;
+		} catch (URISyntaxException | StorageException e) {
+
+			if (e instanceof StorageException) {
+				StorageException se = (StorageException) e;
+				if (ERROR_BLOB_NOT_FOUND.equals(se.getErrorCode()))
+					return false;
+			}
+
+			throw new IOException(e);
+		}
+	}
+
 	public void delete(String key) throws IOException {
 		try {
 			CloudBlockBlob blob = this.blobRefs.get(key);
@@ -136,6 +214,12 @@ public class AzureKvs extends Kvs {
 
 	}
 
+	public Iterator<String> list(String prefix) {
+		// flat listing: only blobs, fetched lazily segment by segment
+		return Iterators.transform(this.containerRef.listBlobs(prefix, true).iterator(),
+				blobItem -> ((CloudBlob) blobItem).getName());
+	}
+
 	private void createContainer() throws IOException {
 		try {
 			this.containerRef = this.blobClient.getContainerReference(this.rootContainer);
@@ -34,7 +34,7 @@ public class FaultyKvs extends Kvs {
     }
 
     public void put(String key, byte[] value) {
-        this.hashMap.put(key, value);
+        this.hashMap.put(key, value.clone());
     }
 
     // Faulty get API: returns bogus data.
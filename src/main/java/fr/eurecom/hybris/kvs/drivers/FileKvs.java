@@ -17,12 +17,31 @@ package fr.eurecom.hybris.kvs.drivers;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.io.ByteStreams;
 
 /**
  * File-based key-value backend - for testing purposes.
@@ -48,9 +67,102 @@ public class FileKvs extends Kvs {
 		return Files.readAllBytes(path);
 	}
 
+	public byte[] get(String key, int expectedLength) throws IOException {
+		Path path = Paths.get(this.rootContainer + File.separator + key);
+		long length = Files.size(path);
+		if (length > expectedLength)
+			throw this.tooLarge(key, length, expectedLength);
+		return Files.readAllBytes(path);
+	}
+
+	public void put(String key, InputStream in, long length) throws IOException {
+		Path path = Paths.get(this.rootContainer + File.separator + key);
+		Files.copy(ByteStreams.limit(in, length), path, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	public boolean get(String key, OutputStream out) throws IOException {
+		Path path = Paths.get(this.rootContainer + File.separator + key);
+		try {
+			Files.copy(path, out);
+			return true;
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+	}
+
+	public byte[] get(String key, long offset, int length) throws IOException {
+		Path path = Paths.get(this.rootContainer + File.separator + key);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, Math.min(length, channel.size() - offset)));
+			while (buffer.hasRemaining())
+				if (channel.read(buffer, offset + buffer.position()) < 0)
+					break;
+			return buffer.position() < buffer.capacity() ?
+					Arrays.copyOf(buffer.array(), buffer.position()) : buffer.array();
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	public boolean isAsync() {
+		return true;
+	}
+
+	public CompletableFuture<Void> putAsync(String key, byte[] value, Executor executor) {
+		Path path = Paths.get(this.rootContainer + File.separator + key);
+		final CompletableFuture<Void> result = new CompletableFuture<Void>();
+		try {
+			AsynchronousFileChannel channel = AsynchronousFileChannel.open(path,
+					StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+			final CompletableFuture<ByteBuffer> transfer = new Transfer(channel, ByteBuffer.wrap(value), true).start();
+			transfer.whenComplete((buffer, t) -> {
+				if (t == null)
+					result.complete(null);
+				else
+					result.completeExceptionally(t);
+			});
+			result.whenComplete((v, t) -> transfer.cancel(true));
+		} catch (IOException e) {
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+
+	public CompletableFuture<byte[]> getAsync(String key, Executor executor) {
+		return this.getAsync(key, Integer.MAX_VALUE, executor);
+	}
+
+	public CompletableFuture<byte[]> getAsync(String key, int expectedLength, Executor executor) {
+		Path path = Paths.get(this.rootContainer + File.separator + key);
+		final CompletableFuture<byte[]> result = new CompletableFuture<byte[]>();
+		try {
+			AsynchronousFileChannel channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+			final CompletableFuture<ByteBuffer> transfer;
+			try {
+				if (channel.size() > expectedLength)
+					throw this.tooLarge(key, channel.size(), expectedLength);
+				transfer = new Transfer(channel, ByteBuffer.allocate((int) channel.size()), false).start();
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+			transfer.whenComplete((buffer, t) -> {
+				if (t != null)
+					result.completeExceptionally(t);
+				else
+					result.complete(buffer.position() < buffer.capacity() ?
+							Arrays.copyOf(buffer.array(), buffer.position()) : buffer.array());
+			});
+			result.whenComplete((v, t) -> transfer.cancel(true));
+		} catch (IOException e) {
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+
 	public void delete(String key) throws IOException {
 		Path path = Paths.get(this.rootContainer + File.separator + key);
-		Files.delete(path);
+		Files.deleteIfExists(path);	// as the cloud stores, a missing key is not an error
 	}
 
 	public List<String> list() {
@@ -61,4 +173,86 @@ public class FileKvs extends Kvs {
 			return new ArrayList<String>(Arrays.asList(objs));
 	}
 
+	/**
+	 * Lists the keys starting with <prefix> lazily, while reading the directory,
+	 * which is closed when the iteration ends (or fails).
+	 */
+	public Iterator<String> list(final String prefix) throws IOException {
+		final DirectoryStream<Path> dir;
+		try {
+			dir = Files.newDirectoryStream(Paths.get(this.rootContainer),
+					path -> path.getFileName().toString().startsWith(prefix));
+		} catch (NoSuchFileException e) {
+			return Collections.<String>emptyIterator();
+		}
+		final Iterator<Path> paths = dir.iterator();
+		return new AbstractIterator<String>() {
+			protected String computeNext() {
+				try {
+					if (paths.hasNext())
+						return paths.next().getFileName().toString();
+				} catch (DirectoryIteratorException e) {
+					this.close();
+					throw new UncheckedIOException(e.getCause());
+				}
+				this.close();
+				return this.endOfData();
+			}
+
+			private void close() {
+				try {
+					dir.close();
+				} catch (IOException e) { }
+			}
+		};
+	}
+
+	/**
+	 * Reads or writes a whole buffer through an asynchronous channel
+	 * (reads stop early at the end of the file), then closes the channel.
+	 */
+	private static class Transfer implements CompletionHandler<Integer, Void> {
+
+		private final AsynchronousFileChannel channel;
+		private final ByteBuffer buffer;
+		private final boolean write;
+		private final CompletableFuture<ByteBuffer> result = new CompletableFuture<ByteBuffer>();
+
+		Transfer(AsynchronousFileChannel channel, ByteBuffer buffer, boolean write) {
+			this.channel = channel;
+			this.buffer = buffer;
+			this.write = write;
+			this.result.whenComplete((b, t) -> {
+				try {
+					this.channel.close();	// also aborts a pending transfer, if cancelled
+				} catch (IOException e) { }
+			});
+		}
+
+		CompletableFuture<ByteBuffer> start() {
+			this.next();
+			return this.result;
+		}
+
+		public void completed(Integer transferred, Void attachment) {
+			if (transferred < 0 || !this.buffer.hasRemaining())
+				this.result.complete(this.buffer);
+			else if (!this.result.isDone())
+				this.next();
+		}
+
+		public void failed(Throwable t, Void attachment) {
+			this.result.completeExceptionally(t);
+		}
+
+		private void next() {
+			if (!this.buffer.hasRemaining())
+				this.result.complete(this.buffer);
+			else if (this.write)
+				this.channel.write(this.buffer, this.buffer.position(), null, this);
+			else
+				this.channel.read(this.buffer, this.buffer.position(), null, this);
+		}
+	}
+
 }
@@ -18,18 +18,25 @@ package fr.eurecom.hybris.kvs.drivers;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 import org.apache.http.HttpStatus;
 import org.jets3t.service.ServiceException;
+import org.jets3t.service.StorageObjectsChunk;
 import org.jets3t.service.impl.rest.httpclient.GoogleStorageService;
 import org.jets3t.service.model.GSBucket;
 import org.jets3t.service.model.GSObject;
+import org.jets3t.service.model.StorageObject;
 import org.jets3t.service.security.GSCredentials;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.AbstractIterator;
 import com.google.common.io.ByteStreams;
 
 import fr.eurecom.hybris.Config;
@@ -38,6 +45,8 @@ public class GoogleKvs extends Kvs {
 
     private static final Logger logger = LoggerFactory.getLogger(Config.LOGGER_NAME);
 
+    private static final long LIST_CHUNK_SIZE = 1000;   // keys per listing request
+
     private transient final GoogleStorageService gsService;
 
     public GoogleKvs(String id, String accessKey, String secretKey,
@@ -84,6 +93,67 @@ public class GoogleKvs extends Kvs {
         }
     }
 
+    public byte[] get(String key, int expectedLength) throws IOException {
+        try {
+            GSObject object = this.gsService.getObject(this.rootContainer, key);
+            try (InputStream in = object.getDataInputStream()) {
+                // NB: jets3t reports 0 for an unknown length
+                long contentLength = object.getContentLength() > 0 ? object.getContentLength() : -1;
+                return this.read(key, in, contentLength, expectedLength);
+            }
+        } catch (ServiceException e) {
+            if (e.getResponseCode() == HttpStatus.SC_NOT_FOUND)
+                return null;
+
+            throw new IOException(e);
+        }
+    }
+
+    public byte[] get(String key, long offset, int length) throws IOException {
+        if (length == 0)
+            return new byte[0];
+        try {
+            StorageObject object = this.gsService.getObject(this.rootContainer, key,
+                    null, null, null, null, offset, offset + length - 1);
+            return ByteStreams.toByteArray(object.getDataInputStream());
+        } catch (ServiceException | IOException e) {
+
+            if (e instanceof ServiceException) {
+                ServiceException se = (ServiceException) e;
+                if (se.getResponseCode() == HttpStatus.SC_NOT_FOUND)
+                    return null;
+            }
+
+            throw new IOException(e);
+        }
+    }
+
+    public void put(String key, InputStream in, long length) throws IOException {
+        try {
+            GSObject object = new GSObject(key);
+            object.setDataInputStream(in);
+            object.setContentLength(length);
+            this.gsService.putObject(this.rootContainer, object);
+        } catch (ServiceException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public boolean get(String key, OutputStream out) throws IOException {
+        try {
+            GSObject objectComplete = this.gsService.getObject(this.rootContainer, key);
+            try (InputStream ins = objectComplete.getDataInputStream()) {
+                ByteStreams.copy(ins, out);
+            }
+            return true;
+        } catch (ServiceException e) {
+            if (e.getResponseCode() == HttpStatus.SC_NOT_FOUND)
+                return false;
+
+            throw new IOException(e);
+        }
+    }
+
     public void delete(String key) throws IOException {
         try {
             this.gsService.deleteObject(this.rootContainer, key);
@@ -109,6 +179,36 @@ public class GoogleKvs extends Kvs {
         }
     }
 
+    public Iterator<String> list(final String prefix) throws IOException {
+        final StorageObjectsChunk first = this.listChunk(prefix, null);
+        return new AbstractIterator<String>() {
+            private StorageObjectsChunk chunk = first;
+            private Iterator<StorageObject> page = Arrays.asList(first.getObjects()).iterator();
+
+            protected String computeNext() {
+                while (!this.page.hasNext()) {
+                    if (this.chunk.isListingComplete())
+                        return this.endOfData();
+                    try {
+                        this.chunk = GoogleKvs.this.listChunk(prefix, this.chunk.getPriorLastKey());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    this.page = Arrays.asList(this.chunk.getObjects()).iterator();
+                }
+                return this.page.next().getName();
+            }
+        };
+    }
+
+    private StorageObjectsChunk listChunk(String prefix, String priorLastKey) throws IOException {
+        try {
+            return this.gsService.listObjectsChunked(this.rootContainer, prefix, null, LIST_CHUNK_SIZE, priorLastKey);
+        } catch (ServiceException e) {
+            throw new IOException(e);
+        }
+    }
+
     private void createContainer() throws IOException {
         try {
             this.gsService.createBucket(this.rootContainer, GSBucket.LOCATION_EUROPE, null);	// XXX hardcoded bucket location 
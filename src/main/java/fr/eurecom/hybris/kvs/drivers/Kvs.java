@@ -16,8 +16,24 @@
 package fr.eurecom.hybris.kvs.drivers;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.collect.Iterators;
+import com.google.common.io.ByteStreams;
 
 public class Kvs {
 
@@ -33,25 +49,20 @@ public class Kvs {
     /**
      * Static Comparator objects for ordering the Kvs list
      * according to both read and write latencies.
+     * Disabled KvStores come last.
      */
     public transient static final Comparator<Kvs> COMPARATOR_BY_READS = new Comparator<Kvs>() {
         public int compare(Kvs kvs1, Kvs kvs2) {
-            if (kvs1.getReadLatency() < kvs2.getReadLatency() || !kvs2.isEnabled())
-                return -1;
-            else if (kvs1.getReadLatency() > kvs2.getReadLatency() || !kvs1.isEnabled())
-                return 1;
-            else
-                return 0;
+            if (kvs1.isEnabled() != kvs2.isEnabled())
+                return kvs1.isEnabled() ? -1 : 1;
+            return Long.compare(kvs1.getReadLatency(), kvs2.getReadLatency());
         }
     };
     public transient static final Comparator<Kvs> COMPARATOR_BY_WRITES = new Comparator<Kvs>() {
         public int compare(Kvs kvs1, Kvs kvs2) {
-            if (kvs1.getWriteLatency() < kvs2.getWriteLatency() || !kvs2.isEnabled())
-                return -1;
-            else if (kvs1.getWriteLatency() > kvs2.getWriteLatency() || !kvs1.isEnabled())
-                return 1;
-            else
-                return 0;
+            if (kvs1.isEnabled() != kvs2.isEnabled())
+                return kvs1.isEnabled() ? -1 : 1;
+            return Long.compare(kvs1.getWriteLatency(), kvs2.getWriteLatency());
         }
     };
 
@@ -75,13 +86,214 @@ public class Kvs {
     public int getCost()            { return this.cost; }
     public void setCost(int cost)   { this.cost = cost; }
 
-    /* APIs */
+    /* APIs
+     * NB: the arrays passed to put and returned by get belong to the caller,
+     * which may reuse them (e.g. erasure coded chunks, see EcManager#release):
+     * drivers must neither retain nor share them. */
     public void put(String key, byte[] value) throws IOException { }
     public byte[] get(String key) throws IOException { return null; }
     public List<String> list() throws IOException { return null; }
     public void delete(String key) throws IOException { }
+
+    /**
+     * @return true if the driver deletes several keys per request
+     *          (otherwise, callers should rather issue deletions in parallel)
+     */
+    public boolean hasBatchDelete() { return false; }
+
+    /**
+     * Deletes several keys: drivers supporting it use the batch endpoints
+     * of their cloud, by default the keys are deleted one by one.
+     * @return the keys that could not be deleted, with the respective errors
+     * @throws IOException if the whole request failed
+     */
+    public Map<String, IOException> delete(Collection<String> keys) throws IOException {
+        Map<String, IOException> failed = new HashMap<String, IOException>();
+        for (String key : keys)
+            try {
+                this.delete(key);
+            } catch (IOException e) {
+                failed.put(key, e);
+            }
+        return failed;
+    }
+
+    /**
+     * Lists the keys starting with <prefix>. Drivers supporting it filter
+     * the keys server-side and fetch them lazily, page by page, while
+     * iterating: errors occurring then are thrown as UncheckedIOException.
+     */
+    public Iterator<String> list(final String prefix) throws IOException {
+        List<String> keys = this.list();
+        if (keys == null)
+            return Collections.<String>emptyIterator();
+        return Iterators.filter(keys.iterator(), key -> key.startsWith(prefix));
+    }
+
+    /**
+     * Streaming version of put: drivers supporting it upload the value
+     * while reading it, without buffering it in memory.
+     * @param in the stream of the value
+     * @param length the number of bytes to read from <in>
+     */
+    public void put(String key, InputStream in, long length) throws IOException {
+        this.put(key, ByteStreams.toByteArray(ByteStreams.limit(in, length)));
+    }
+
+    /**
+     * Streaming version of get: drivers supporting it write the value
+     * to <out> while downloading it, without buffering it in memory.
+     * @return false if the key was not found
+     */
+    public boolean get(String key, OutputStream out) throws IOException {
+        byte[] value = this.get(key);
+        if (value == null)
+            return false;
+        out.write(value);
+        return true;
+    }
+
+    /**
+     * Size-hinted version of get: drivers supporting it read the value
+     * directly into an array of the right size, and reject values larger
+     * than <expectedLength> before downloading them.
+     * @param expectedLength the size of the value, e.g. as recorded in its metadata
+     * @return the value, or null if the key was not found
+     * @throws IOException also if the value is larger than <expectedLength>
+     */
+    public byte[] get(String key, int expectedLength) throws IOException {
+        byte[] value = this.get(key);
+        if (value != null && value.length > expectedLength)
+            throw tooLarge(key, value.length, expectedLength);
+        return value;
+    }
+
+    /**
+     * Ranged version of get: drivers supporting it download only
+     * the requested bytes.
+     * @param offset the position of the first byte to read
+     * @param length the number of bytes to read
+     * @return the bytes read, fewer than <length> if the value ends before,
+     *          or null if the key was not found
+     */
+    public byte[] get(String key, long offset, int length) throws IOException {
+        byte[] value = this.get(key);
+        if (value == null)
+            return null;
+        int from = (int) Math.min(offset, value.length);
+        return Arrays.copyOfRange(value, from, (int) Math.min((long) from + length, value.length));
+    }
+
+    /**
+     * @return true if the driver implements (some of) the asynchronous APIs
+     *          natively, i.e. without holding a thread while the request is in flight
+     */
+    public boolean isAsync() { return false; }
+
+    /**
+     * Asynchronous version of put. By default, runs the blocking put on <executor>.
+     * Cancelling the returned future aborts the upload, if the driver allows it.
+     */
+    public CompletableFuture<Void> putAsync(final String key, final byte[] value, Executor executor) {
+        return callAsync(() -> {
+            this.put(key, value);
+            return null;
+        }, executor);
+    }
+
+    /**
+     * Asynchronous version of get. By default, runs the blocking get on <executor>.
+     * @return a future completed with the value, or null if the key was not found
+     */
+    public CompletableFuture<byte[]> getAsync(final String key, Executor executor) {
+        return callAsync(() -> this.get(key), executor);
+    }
+
+    /**
+     * Asynchronous version of the size-hinted get.
+     * By default, runs the blocking size-hinted get on <executor>.
+     * @see #get(String, int)
+     */
+    public CompletableFuture<byte[]> getAsync(final String key, final int expectedLength, Executor executor) {
+        return callAsync(() -> this.get(key, expectedLength), executor);
+    }
+
+    /**
+     * Asynchronous version of delete. By default, runs the blocking delete on <executor>.
+     */
+    public CompletableFuture<Void> deleteAsync(final String key, Executor executor) {
+        return callAsync(() -> {
+            this.delete(key);
+            return null;
+        }, executor);
+    }
+
+    /**
+     * Runs a blocking task on <executor>.
+     * Cancelling the returned future skips the task if it has not started yet,
+     * or interrupts the thread running it (which drivers may or may not honour).
+     */
+    public static <T> CompletableFuture<T> callAsync(final Callable<T> task, Executor executor) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        final AtomicReference<Thread> runner = new AtomicReference<Thread>();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    synchronized (runner) {
+                        runner.set(Thread.currentThread());
+                    }
+                    try {
+                        if (!result.isDone())   // e.g. timed out or cancelled while queued
+                            result.complete(task.call());
+                    } catch (Exception e) {
+                        result.completeExceptionally(e);
+                    } finally {
+                        synchronized (runner) {
+                            runner.set(null);
+                            Thread.interrupted();   // do not leak a late interrupt to the next task
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        result.whenComplete((value, t) -> {
+            if (result.isCancelled())
+                synchronized (runner) {
+                    Thread thread = runner.get();
+                    if (thread != null)
+                        thread.interrupt();
+                }
+        });
+        return result;
+    }
+
     public void shutdown() throws IOException { }
 
+    /**
+     * Reads a value of at most <expectedLength> bytes from <in>
+     * directly into an array of the right size.
+     * @param contentLength the length of the value announced by the cloud, or -1 if unknown
+     * @throws IOException also if the value is larger than <expectedLength>
+     */
+    protected byte[] read(String key, InputStream in, long contentLength, int expectedLength) throws IOException {
+        if (contentLength > expectedLength)
+            throw tooLarge(key, contentLength, expectedLength);
+        byte[] value = new byte[contentLength >= 0 ? (int) contentLength : expectedLength];
+        int read = ByteStreams.read(in, value, 0, value.length);
+        if (read < value.length)
+            return Arrays.copyOf(value, read);
+        if (in.read() != -1)
+            throw tooLarge(key, -1, expectedLength);
+        return value;
+    }
+
+    protected IOException tooLarge(String key, long length, int expectedLength) {
+        return new IOException("Value of " + key + " in " + this.id + " larger than expected ("
+                + (length < 0 ? "more than " + expectedLength : length) + " B instead of " + expectedLength + " B)");
+    }
+
     public boolean equals(Object obj) {
         if (this == obj)
             return true;
@@ -16,7 +16,10 @@
 package fr.eurecom.hybris.kvs.drivers;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 
@@ -25,11 +28,13 @@ import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStores;
 import org.jclouds.blobstore.domain.Blob;
 import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.options.GetOptions;
 import org.jclouds.blobstore.options.ListContainerOptions;
 import org.jclouds.openstack.swift.v1.blobstore.RegionScopedBlobStoreContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Iterators;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
 
@@ -92,6 +97,59 @@ public class RackspaceKvs extends Kvs {
         }
     }
 
+    public byte[] get(String key, int expectedLength) throws IOException {
+        Blob blob;
+        try {
+            blob = this.blobStore.getBlob(this.rootContainer, key);
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+        if (blob == null)
+            return null;
+        Long contentLength = blob.getPayload().getContentMetadata().getContentLength();
+        try (InputStream in = blob.getPayload().openStream()) {
+            return this.read(key, in, contentLength == null ? -1 : contentLength, expectedLength);
+        }
+    }
+
+    public byte[] get(String key, long offset, int length) throws IOException {
+        if (length == 0)
+            return new byte[0];
+        try {
+            Blob blob = this.blobStore.getBlob(this.rootContainer, key,
+                    GetOptions.Builder.range(offset, offset + length - 1));
+            if (blob == null)
+                return null;
+            return ByteStreams.toByteArray(blob.getPayload().openStream());
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    public void put(String key, InputStream in, long length) throws IOException {
+        try {
+            Blob blob = this.blobStore.blobBuilder(key)
+                    .payload(in).contentLength(length).build();
+            this.blobStore.putBlob(this.rootContainer, blob);
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    public boolean get(String key, OutputStream out) throws IOException {
+        try {
+            Blob blob = this.blobStore.getBlob(this.rootContainer, key);
+            if (blob == null)
+                return false;
+            try (InputStream in = blob.getPayload().openStream()) {
+                ByteStreams.copy(in, out);
+            }
+            return true;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
     public void delete(String key) throws IOException {
         try {
             this.blobStore.removeBlob(this.rootContainer, key);
@@ -114,6 +172,20 @@ public class RackspaceKvs extends Kvs {
         }
     }
 
+    /**
+     * NB: the jclouds BlobStore API does not expose prefix listings (only
+     * directories), so the keys are filtered while lazily iterating the pages.
+     */
+    public Iterator<String> list(final String prefix) throws IOException {
+        try {
+            Iterator<String> keys = Iterators.transform(BlobStores.listAll(this.blobStore,
+                    this.rootContainer, ListContainerOptions.NONE).iterator(), resourceMd -> resourceMd.getName());
+            return Iterators.filter(keys, key -> key.startsWith(prefix));
+        } catch (Exception ex) {
+            throw new IOException(ex);
+        }
+    }
+
     private void createContainer() throws IOException {
         try {
             this.blobStore.createContainerInLocation(null, this.rootContainer);
@@ -15,6 +15,7 @@
  */
 package fr.eurecom.hybris.kvs.drivers;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -27,18 +28,59 @@ import java.util.concurrent.ConcurrentHashMap;
 public class TransientKvs extends Kvs {
 
     private transient final Map<String, byte[]> hashMap;
+    private volatile long readDelay = 0;    // [ms]
+    private volatile long writeDelay = 0;   // [ms]
+    private volatile boolean failingWrites = false;
 
     public TransientKvs(String id, String container, boolean enabled, int cost) {
         super(id, container, enabled, cost);
         this.hashMap = new ConcurrentHashMap<String, byte[]>();
     }
 
-    public void put(String key, byte[] value) {
-        this.hashMap.put(getOriginalKey(key), value);
+    public void put(String key, byte[] value) throws IOException {
+        if (this.writeDelay > 0)
+            try {
+                Thread.sleep(this.writeDelay);
+            } catch (InterruptedException e) {     // e.g. a straggler upload cancelled
+                Thread.currentThread().interrupt();
+                throw new IOException("Write interrupted on " + this.getId());
+            }
+        if (this.failingWrites)
+            throw new IOException("Write failed on " + this.getId());
+        this.hashMap.put(getOriginalKey(key), value.clone());
+    }
+
+    /**
+     * Delays every write by <writeDelay> ms, e.g. to test straggler uploads.
+     */
+    public void setWriteDelay(long writeDelay) {
+        this.writeDelay = writeDelay;
+    }
+
+    /**
+     * Makes every write fail (after its delay), e.g. to test failed puts.
+     */
+    public void setFailingWrites(boolean failingWrites) {
+        this.failingWrites = failingWrites;
+    }
+
+    /**
+     * Delays every read by <readDelay> ms, e.g. to test hedged reads.
+     */
+    public void setReadDelay(long readDelay) {
+        this.readDelay = readDelay;
     }
 
     public byte[] get(String key) {
-        return this.hashMap.get(getOriginalKey(key));
+        if (this.readDelay > 0)
+            try {
+                Thread.sleep(this.readDelay);
+            } catch (InterruptedException e) {     // e.g. a hedged read cancelled
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        byte[] value = this.hashMap.get(getOriginalKey(key));
+        return value == null ? null : value.clone();
     }
 
     public void delete(String key) {
@@ -53,11 +95,15 @@ public class TransientKvs extends Kvs {
      * To test this dummy key-value store using clients 
      * on different machines we need the keys stored in memory 
      * to be equal to the original (Hybris) one. 
-     * Hence, this function strips the "#sn_cid" suffix.
+     * Hence, this function strips the "#sn_cid" timestamp
+     * (but not the "#part" suffix of the parts of a value).
      */
     private String getOriginalKey(String compositeKey) {
-    	if (compositeKey.indexOf("#") != -1)
-    		return compositeKey.substring(0, compositeKey.indexOf("#"));
+    	int tsStart = compositeKey.indexOf("#");
+    	if (tsStart != -1) {
+    		int tsEnd = compositeKey.indexOf("#", tsStart + 1);
+    		return compositeKey.substring(0, tsStart) + (tsEnd == -1 ? "" : compositeKey.substring(tsEnd));
+    	}
     	else
     		return compositeKey;
     }
@@ -20,7 +20,12 @@ import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
@@ -55,6 +60,13 @@ public class ConsulRmds implements Rmds {
     private final String gcRoot;
     private final String gcStaleDir;
     private final String gcOrphansDir;
+
+	private static final int ASYNC_THREADS = 4;
+	// keys sharing a shorter prefix are read one by one: a recursive read
+	// of their prefix may fetch most of the namespace
+	private static final int MULTIREAD_MIN_PREFIX = 8;
+	// the Consul client library is blocking: asynchronous calls are run on this pool
+	private final ExecutorService asyncExecutor;
     
 	public ConsulRmds(String connectionStr, String root, boolean qRead) {
 		storageRoot = root;
@@ -64,6 +76,12 @@ public class ConsulRmds implements Rmds {
         
 		cClient = new ConsulClient(connectionStr);
 		cClient.setKVBinaryValue(storageRoot, new byte[1]);
+
+		asyncExecutor = Executors.newFixedThreadPool(ASYNC_THREADS, r -> {
+			Thread t = new Thread(r, "hybris-consul-async");
+			t.setDaemon(true);
+			return t;
+		});
 	}
 
 	public boolean tsWrite(String key, Metadata md, long version) throws HybrisException {
@@ -116,15 +134,90 @@ public class ConsulRmds implements Rmds {
 		}
 	}
 
+	public CompletableFuture<Metadata> tsReadAsync(final String key, final Stat stat) {
+		final CompletableFuture<Metadata> result = new CompletableFuture<Metadata>();
+		asyncExecutor.execute(() -> {
+			try {
+				result.complete(tsRead(key, stat));
+			} catch (Exception e) {
+				result.completeExceptionally(e instanceof HybrisException ? e : new HybrisException(e));
+			}
+		});
+		return result;
+	}
+
+	public CompletableFuture<Boolean> tsWriteAsync(final String key, final Metadata md, final long version) {
+		final CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+		asyncExecutor.execute(() -> {
+			try {
+				result.complete(tsWrite(key, md, version));
+			} catch (Exception e) {
+				result.completeExceptionally(e instanceof HybrisException ? e : new HybrisException(e));
+			}
+		});
+		return result;
+	}
+
 	public boolean tsMultiWrite(LinkedHashMap<String, Metadata> mdMap, LinkedHashMap<String, Stat> statMap)
 			throws HybrisException {
 		// XXX not implemented - available only for Consul > 0.7
 		return false;
 	}
 
+	/**
+	 * Reads all the requested keys with a single recursive read
+	 * of their longest common prefix, if it is long enough,
+	 * otherwise with concurrent reads of the single keys.
+	 */
 	public LinkedHashMap<String, Metadata> tsMultiRead(LinkedHashMap<String, Stat> lst) throws HybrisException {
-		// XXX not implemented - available only for Consul > 0.7
-		return null;
+
+		LinkedHashMap<String, Metadata> mdLst = new LinkedHashMap<String, Metadata>(lst.size());
+		if (lst.isEmpty())
+			return mdLst;
+
+		String prefix = null;
+		for (String key : lst.keySet()) {
+			mdLst.put(key, null);
+			if (prefix == null)
+				prefix = key;
+			else {
+				int i = 0;
+				while (i < prefix.length() && i < key.length() && prefix.charAt(i) == key.charAt(i))
+					i++;
+				prefix = prefix.substring(0, i);
+			}
+		}
+
+		if (prefix.length() < MULTIREAD_MIN_PREFIX) {
+			LinkedHashMap<String, CompletableFuture<Metadata>> futures =
+					new LinkedHashMap<String, CompletableFuture<Metadata>>(lst.size());
+			for (Entry<String, Stat> entry : lst.entrySet())
+				futures.put(entry.getKey(), this.tsReadAsync(entry.getKey(), entry.getValue()));
+			try {
+				for (Entry<String, CompletableFuture<Metadata>> entry : futures.entrySet())
+					mdLst.put(entry.getKey(), entry.getValue().join());
+			} catch (CompletionException e) {
+				logger.error("Could not perform multiple timestamped read.", e.getCause());
+				throw new HybrisException("Could not perform multiple timestamped read", e.getCause());
+			}
+			return mdLst;
+		}
+
+		QueryParams qp = new QueryParams(ConsistencyMode.CONSISTENT);
+		Response<List<GetBinaryValue>> res = cClient.getKVBinaryValues(this.storageRoot + "/" + prefix, qp);
+		if (res.getValue() == null)     // none of the keys exists
+			return mdLst;
+
+		for (GetBinaryValue value : res.getValue()) {
+			String key = value.getKey().substring(this.storageRoot.length() + 1);
+			if (!mdLst.containsKey(key))
+				continue;
+			Stat stat = lst.get(key);
+			if (stat != null)
+				stat.setVersion(Math.toIntExact(value.getModifyIndex()));
+			mdLst.put(key, new Metadata(value.getValue()));
+		}
+		return mdLst;
 	}
 
 	public Metadata tsRead(String key, Stat stat, HybrisWatcher watcher) throws HybrisException {
@@ -185,6 +278,7 @@ public class ConsulRmds implements Rmds {
 	}
 
 	public void shutdown() {
+		asyncExecutor.shutdown();
 	}
 
 	/* -------------------------------------- GC functions */
@@ -210,7 +304,8 @@ public class ConsulRmds implements Rmds {
 			public void run() {
 				// create ZNode <root>-gc/orphans/<KvsKey>
                 String path = ConsulRmds.this.gcOrphansDir + "/" + Utils.getKvsKey(key, ts);
-                byte[] value = new Metadata(ts, null, 0, savedReplicas, null).serialize();
+                // only the KvStores are recorded: the hash is a placeholder, which cannot be null
+                byte[] value = new Metadata(ts, new byte[Utils.HASH_LENGTH], 0, savedReplicas, null).serialize();
                 try {
                 	ConsulRmds.this.cClient.setKVBinaryValue(path, value);
                     logger.debug("GcMarker: marked {} as orphan", path);
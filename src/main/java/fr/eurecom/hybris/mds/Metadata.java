@@ -28,6 +28,7 @@ import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 
 import fr.eurecom.hybris.Config;
+import fr.eurecom.hybris.EcCodec.Technique;
 import fr.eurecom.hybris.Utils;
 import fr.eurecom.hybris.kvs.KvsManager.KvsId;
 import fr.eurecom.hybris.kvs.drivers.Kvs;
@@ -115,13 +116,16 @@ public class Metadata implements KryoSerializable {
 
     private static final Logger logger = LoggerFactory.getLogger(Config.LOGGER_NAME);
 
-    public enum MetadataType { TOMBSTONE, REPLICATION, EC };
+    public enum MetadataType { TOMBSTONE, REPLICATION, EC, PARTS };
     
     private Timestamp ts;
     private byte[] hash;
     private byte[][] chunksHashes;
+    private Technique ecTechnique;
+    private byte[][] partsHashes;
+    private int partSize;
     private byte[] cryptoKey;
-    private int size;
+    private long size;                  // only values stored in parts may exceed 2 GiB
     private List<Kvs> replicasLst;
     private MetadataType type;
 
@@ -139,15 +143,41 @@ public class Metadata implements KryoSerializable {
     
     public Metadata(Timestamp ts, byte[][] hashes, 
             List<Kvs> replicas, int size, byte[] cryptoKeyIV) {
+        this(ts, hashes, Technique.REED_SOL_VAN, replicas, size, cryptoKeyIV);
+    }
+
+    /**
+     * Metadata of an erasure coded value, whose chunks have been encoded with <technique>.
+     */
+    public Metadata(Timestamp ts, byte[][] hashes, Technique technique,
+            List<Kvs> replicas, int size, byte[] cryptoKeyIV) {
         this.ts = ts;
         this.hash = null;
         this.chunksHashes = hashes;
+        this.ecTechnique = technique;
         this.size = size;
         this.replicasLst = replicas;
         this.cryptoKey = cryptoKeyIV;
         this.type = MetadataType.EC;
     }
 
+    /**
+     * Metadata of a value stored as a sequence of parts of <partSize> bytes
+     * (but the last one), each one replicated on the KvStores.
+     */
+    public Metadata(Timestamp ts, byte[][] partsHashes, int partSize,
+            List<Kvs> replicas, long size, byte[] cryptoKeyIV) {
+        this.ts = ts;
+        this.hash = null;
+        this.chunksHashes = null;
+        this.partsHashes = partsHashes;
+        this.partSize = partSize;
+        this.size = size;
+        this.replicasLst = replicas;
+        this.cryptoKey = cryptoKeyIV;
+        this.type = MetadataType.PARTS;
+    }
+
     public Metadata(byte[] raw) {
         Kryo kryo = new Kryo();
         kryo.register(Metadata.class);
@@ -159,6 +189,9 @@ public class Metadata implements KryoSerializable {
         this.replicasLst = md.getReplicasLst();
         this.hash = md.getHash();
         this.chunksHashes = md.getChunksHashes();
+        this.ecTechnique = md.getEcTechnique();
+        this.partsHashes = md.getPartsHashes();
+        this.partSize = md.getPartSize();
         this.cryptoKey = md.getCryptoKey();
         this.size = md.getSize();
         this.type = md.getType();
@@ -168,8 +201,7 @@ public class Metadata implements KryoSerializable {
         Kryo kryo = new Kryo();
         kryo.register(Metadata.class);
         kryo.register(Timestamp.class);
-        byte[] buff = new byte[512];
-        Output output = new Output(buff);
+        Output output = new Output(512, -1);   // the hashes of the parts may exceed the initial size
         kryo.writeObject(output, this);
         output.close();
         return output.toBytes();
@@ -184,6 +216,7 @@ public class Metadata implements KryoSerializable {
     public boolean isTombstone() {
         return this.hash == null &&
                 this.chunksHashes == null &&
+                this.partsHashes == null &&
                 this.replicasLst == null &&
                 this.size == 0 &&
                 this.cryptoKey == null;
@@ -197,8 +230,14 @@ public class Metadata implements KryoSerializable {
     public void setHash(byte[] hash) { this.hash = hash; }
     public byte[][] getChunksHashes() { return this.chunksHashes; }
     public void setChunksHashes(byte[][] hashes) { this.chunksHashes = hashes; }
-    public int getSize() { return this.size; }
-    public void setSize(int s) { this.size = s; }
+    public Technique getEcTechnique() { return this.ecTechnique; }
+    public void setEcTechnique(Technique technique) { this.ecTechnique = technique; }
+    public byte[][] getPartsHashes() { return this.partsHashes; }
+    public void setPartsHashes(byte[][] hashes) { this.partsHashes = hashes; }
+    public int getPartSize() { return this.partSize; }
+    public void setPartSize(int partSize) { this.partSize = partSize; }
+    public long getSize() { return this.size; }
+    public void setSize(long s) { this.size = s; }
     public byte[] getCryptoKey() { return this.cryptoKey; }
     public void setCryptoKey(byte[] ck) { this.cryptoKey = ck; }
     public MetadataType getType() { return this.type; }
@@ -213,9 +252,14 @@ public class Metadata implements KryoSerializable {
                         + ", size=" + this.size + ", replicasLst=" + this.replicasLst
                         + ", cryptoKey=" + Utils.bytesToHexStr(this.cryptoKey) + "]";
             case EC:
-                return "Metadata [EC - ts=" + this.ts + ", size=" + this.size + 
+                return "Metadata [EC - ts=" + this.ts + ", size=" + this.size + ", technique=" + this.ecTechnique +
                         ", replicasLst=" + this.replicasLst 
                         + ", cryptoKey=" + Utils.bytesToHexStr(this.cryptoKey) + "]";
+            case PARTS:
+                return "Metadata [Parts - ts=" + this.ts + ", size=" + this.size +
+                        ", parts=" + this.partsHashes.length + ", partSize=" + this.partSize +
+                        ", replicasLst=" + this.replicasLst
+                        + ", cryptoKey=" + Utils.bytesToHexStr(this.cryptoKey) + "]";
             default:
                 return "Metadata [(this_should_not_happen)]";
         }
@@ -227,9 +271,12 @@ public class Metadata implements KryoSerializable {
         result = prime * result + Arrays.hashCode(this.cryptoKey);
         result = prime * result + Arrays.hashCode(this.hash);
         result = prime * result + Arrays.hashCode(this.chunksHashes);
+        result = prime * result + (this.ecTechnique == null ? 0 : this.ecTechnique.hashCode());
+        result = prime * result + Arrays.deepHashCode(this.partsHashes);
+        result = prime * result + this.partSize;
         result = prime * result
                 + (this.replicasLst == null ? 0 : this.replicasLst.hashCode());
-        result = prime * result + this.size;
+        result = prime * result + (int) (this.size ^ this.size >>> 32);
         result = prime * result + (this.ts == null ? 0 : this.ts.hashCode());
         return result;
     }
@@ -248,6 +295,12 @@ public class Metadata implements KryoSerializable {
             return false;
         if (!Arrays.deepEquals(this.chunksHashes, other.chunksHashes))
             return false;
+        if (this.ecTechnique != other.ecTechnique)
+            return false;
+        if (!Arrays.deepEquals(this.partsHashes, other.partsHashes))
+            return false;
+        if (this.partSize != other.partSize)
+            return false;
         if (this.replicasLst == null) {
             if (other.replicasLst != null)
                 return false;
@@ -275,11 +328,24 @@ public class Metadata implements KryoSerializable {
                 out.write(this.hash);
                 break;
             case EC:
-                out.writeByte(0x02);
+                // Reed-Solomon keeps the original format, other techniques are recorded
+                if (Technique.REED_SOL_VAN.equals(this.ecTechnique))
+                    out.writeByte(0x02);
+                else {
+                    out.writeByte(0x04);
+                    out.writeByte(this.ecTechnique.getCode());
+                }
                 out.writeByte(chunksHashes.length);
                 for (byte[] h : chunksHashes)
                     out.write(h);
                 break;
+            case PARTS:
+                out.writeByte(0x05);     // 0x03 recorded the size as an int
+                out.writeInt(this.partSize);
+                out.writeInt(this.partsHashes.length);
+                for (byte[] h : this.partsHashes)
+                    out.write(h);
+                break;
         }
 
         if (this.cryptoKey == null)
@@ -289,7 +355,10 @@ public class Metadata implements KryoSerializable {
             out.write(this.cryptoKey);
         }
 
-        out.writeInt(this.size);
+        if (MetadataType.PARTS.equals(this.type))
+            out.writeLong(this.size);
+        else
+            out.writeInt((int) this.size);
 
         if (this.replicasLst != null)
             if (this.replicasLst.size() > 0)
@@ -309,7 +378,8 @@ public class Metadata implements KryoSerializable {
     public void read(Kryo kryo, Input in) {
         this.ts = (Timestamp) kryo.readClassAndObject(in);
         
-        switch (in.readByte()) {
+        byte type = in.readByte();
+        switch (type) {
             case 0x00:
                 this.hash = null;
                 this.chunksHashes = null;
@@ -324,13 +394,26 @@ public class Metadata implements KryoSerializable {
                 this.type = MetadataType.REPLICATION;
                 break;
             case 0x02:
+            case 0x04:
                 this.hash = null;
+                this.ecTechnique = type == 0x02 ? Technique.REED_SOL_VAN :
+                        Technique.getTechniqueFromCode(in.readByte());
                 short len = (short) in.readByte();
                 this.chunksHashes = new byte[len][];
                 for (short i=0; i<len; i++)
                     this.chunksHashes[i] = in.readBytes(Utils.HASH_LENGTH);
                 this.type = MetadataType.EC;
                 break;
+            case 0x03:
+            case 0x05:
+                this.hash = null;
+                this.chunksHashes = null;
+                this.partSize = in.readInt();
+                this.partsHashes = new byte[in.readInt()][];
+                for (int i=0; i<this.partsHashes.length; i++)
+                    this.partsHashes[i] = in.readBytes(Utils.HASH_LENGTH);
+                this.type = MetadataType.PARTS;
+                break;
         }
 
         switch (in.readByte()) {
@@ -342,7 +425,7 @@ public class Metadata implements KryoSerializable {
                 break;
         }
 
-        this.size = in.readInt();
+        this.size = type == 0x05 ? in.readLong() : in.readInt();
 
         this.replicasLst = new ArrayList<Kvs>();
         while (true) {
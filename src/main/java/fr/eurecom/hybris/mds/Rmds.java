@@ -19,6 +19,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.zookeeper.data.Stat;
 
@@ -78,6 +79,23 @@ public interface Rmds {
 	 */
 	Metadata tsRead(String key, Stat stat) throws HybrisException;
 
+	/**
+	 * Asynchronous version of {@link #tsRead(String, Stat)}.
+	 * @param key the key to read
+	 * @param stat the Stat object to be written with the key details (can be null);
+	 *             it is filled in before the returned future completes
+	 * @return a future completed with the Metadata object (or null as in tsRead),
+	 *              or exceptionally with a HybrisException
+	 */
+	CompletableFuture<Metadata> tsReadAsync(String key, Stat stat);
+
+	/**
+	 * Asynchronous version of {@link #tsWrite(String, Metadata, long)}.
+	 * @return a future completed with the same value returned by tsWrite,
+	 *              or exceptionally with a HybrisException
+	 */
+	CompletableFuture<Boolean> tsWriteAsync(String key, Metadata md, long version);
+
 	/**
 	 * XXX
 	 * @param lst
@@ -23,10 +23,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.curator.RetryPolicy;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.framework.api.CuratorEventType;
 import org.apache.curator.framework.api.transaction.CuratorTransaction;
 import org.apache.curator.framework.api.transaction.CuratorTransactionFinal;
 import org.apache.curator.framework.state.ConnectionState;
@@ -289,6 +293,133 @@ public class ZkRmds implements Rmds, ConnectionStateListener {
 		}
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see fr.eurecom.hybris.mds.Rmds#tsReadAsync(java.lang.String,
+	 * org.apache.zookeeper.data.Stat)
+	 */
+	public CompletableFuture<Metadata> tsReadAsync(String key, final Stat stat) {
+
+		String path = this.storageRoot + "/" + key;
+		try {
+			// operations of the same session are executed in FIFO order,
+			// so there is no need to wait for the sync before reading
+			if (quorumRead)
+				this.zkCli.setData().inBackground().forPath(this.storageRoot, new byte[]{(byte) 0x00});
+			else
+				this.zkCli.sync().inBackground().forPath(path);
+		} catch (Exception e) {
+			logger.error("Could not read ZNode " + path, e);
+			CompletableFuture<Metadata> result = new CompletableFuture<Metadata>();
+			result.completeExceptionally(new HybrisException("Could not read the ZNode " + path + e.getMessage(), e));
+			return result;
+		}
+		return this.getDataAsync(path, stat);
+	}
+
+	/**
+	 * Reads a ZNode in background, without synchronizing with the leader.
+	 * @return a future completed with the Metadata object, or null if the ZNode does not exist
+	 */
+	private CompletableFuture<Metadata> getDataAsync(final String path, final Stat stat) {
+
+		final CompletableFuture<Metadata> result = new CompletableFuture<Metadata>();
+		try {
+			this.zkCli.getData().inBackground(new BackgroundCallback() {
+				public void processResult(CuratorFramework client, CuratorEvent event) {
+					KeeperException.Code rc = KeeperException.Code.get(event.getResultCode());
+					if (rc == KeeperException.Code.OK) {
+						if (stat != null)
+							copyStat(event.getStat(), stat);
+						result.complete(new Metadata(event.getData()));
+					} else if (rc == KeeperException.Code.NONODE)
+						result.complete(null);
+					else {
+						logger.error("Could not read ZNode " + path + ": " + rc);
+						result.completeExceptionally(new HybrisException("Could not read the ZNode " + path,
+								KeeperException.create(rc, path)));
+					}
+				}
+			}).forPath(path);
+		} catch (Exception e) {
+			logger.error("Could not read ZNode " + path, e);
+			result.completeExceptionally(new HybrisException("Could not read the ZNode " + path + e.getMessage(), e));
+		}
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see fr.eurecom.hybris.mds.Rmds#tsWriteAsync(java.lang.String,
+	 * fr.eurecom.hybris.mds.Metadata, long)
+	 */
+	public CompletableFuture<Boolean> tsWriteAsync(final String key, final Metadata md, long zkVersion) {
+
+		final String path = this.storageRoot + "/" + key;
+		final CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+		BackgroundCallback cb = new BackgroundCallback() {
+			public void processResult(CuratorFramework client, CuratorEvent event) {
+				KeeperException.Code rc = KeeperException.Code.get(event.getResultCode());
+				if (rc == KeeperException.Code.OK) {
+					boolean modified = event.getType() == CuratorEventType.SET_DATA;
+					logger.debug("ZNode {} {}.", path, modified ? "modified" : "created");
+					result.complete(modified);
+				} else if (rc == KeeperException.Code.NODEEXISTS || rc == KeeperException.Code.BADVERSION)
+					// multiple clients tried to create or modify the same znode concurrently
+					ZkRmds.this.retryTsWriteAsync(key, md, result);
+				else {
+					logger.error("Could not write ZNode " + key + ": " + rc);
+					result.completeExceptionally(new HybrisException("Could not write the ZNode " + key,
+							KeeperException.create(rc, path)));
+				}
+			}
+		};
+
+		try {
+			if (zkVersion == NONODE)
+				this.zkCli.create().inBackground(cb).forPath(path, md.serialize());
+			else
+				this.zkCli.setData().withVersion((int) zkVersion).inBackground(cb).forPath(path, md.serialize());
+		} catch (Exception e) {
+			logger.error("Could not write ZNode " + key, e);
+			result.completeExceptionally(new HybrisException("Could not write ZNode " + key + ": " + e.getMessage(), e));
+		}
+		return result;
+	}
+
+	private void retryTsWriteAsync(final String key, final Metadata md, final CompletableFuture<Boolean> result) {
+
+		final String path = this.storageRoot + "/" + key;
+		try {
+			this.zkCli.getData().inBackground(new BackgroundCallback() {
+				public void processResult(CuratorFramework client, CuratorEvent event) {
+					if (event.getResultCode() != KeeperException.Code.OK.intValue()) {
+						result.completeExceptionally(new HybrisException("Could not write the ZNode " + key,
+								KeeperException.create(KeeperException.Code.get(event.getResultCode()), path)));
+						return;
+					}
+					Metadata newmd = new Metadata(event.getData());
+					if (md.getTs().isGreater(newmd.getTs())) {
+						logger.debug("Found smaller version ({}) writing {}: retrying.", newmd.getTs(), key);
+						ZkRmds.this.tsWriteAsync(key, md, event.getStat().getVersion()).whenComplete((res, t) -> {
+							if (t != null)
+								result.completeExceptionally(t);
+							else
+								result.complete(res);
+						});
+					} else {
+						logger.debug("Found greater version ({}) writing {}: overwritten.", newmd.getTs(), key);
+						result.complete(false);
+					}
+				}
+			}).forPath(path);
+		} catch (Exception e) {
+			result.completeExceptionally(new HybrisException(e));
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -296,10 +427,21 @@ public class ZkRmds implements Rmds, ConnectionStateListener {
 	 */
 	public LinkedHashMap<String, Metadata> tsMultiRead(LinkedHashMap<String, Stat> lst) throws HybrisException {
 		try {
-			LinkedHashMap<String, Metadata> mdLst = new LinkedHashMap<String, Metadata>(lst.size());
+			// a single sync is enough for the whole batch, whose reads are then
+			// pipelined: ZooKeeper executes the operations of a session in FIFO order
+			if (quorumRead)
+				this.zkCli.setData().forPath(this.storageRoot, new byte[]{(byte) 0x00});
+			else
+				this.zkCli.sync().inBackground().forPath(this.storageRoot);
 
+			LinkedHashMap<String, CompletableFuture<Metadata>> futures =
+					new LinkedHashMap<String, CompletableFuture<Metadata>>(lst.size());
 			for (Entry<String, Stat> entry : lst.entrySet())
-				mdLst.put(entry.getKey(), tsRead(entry.getKey(), entry.getValue()));
+				futures.put(entry.getKey(), this.getDataAsync(this.storageRoot + "/" + entry.getKey(), entry.getValue()));
+
+			LinkedHashMap<String, Metadata> mdLst = new LinkedHashMap<String, Metadata>(lst.size());
+			for (Entry<String, CompletableFuture<Metadata>> entry : futures.entrySet())
+				mdLst.put(entry.getKey(), entry.getValue().get());
 
 			return mdLst;
 		} catch (Exception e) {
@@ -445,7 +587,8 @@ public class ZkRmds implements Rmds, ConnectionStateListener {
 			public void run() {
 				// create ZNode <root>-gc/orphans/<KvsKey>
 				String path = gcOrphansDir + "/" + Utils.getKvsKey(key, ts);
-				byte[] value = new Metadata(ts, null, 0, savedReplicas, null).serialize();
+				// only the KvStores are recorded: the hash is a placeholder, which cannot be null
+				byte[] value = new Metadata(ts, new byte[Utils.HASH_LENGTH], 0, savedReplicas, null).serialize();
 				try {
 					ZkRmds.this.zkCli.create().forPath(path, value);
 					logger.debug("GcMarker: marked {} as orphan", path);
@@ -587,6 +730,20 @@ public class ZkRmds implements Rmds, ConnectionStateListener {
 		return retMap;
 	}
 
+	private static void copyStat(Stat from, Stat to) {
+		to.setAversion(from.getAversion());
+		to.setCtime(from.getCtime());
+		to.setCversion(from.getCversion());
+		to.setCzxid(from.getCzxid());
+		to.setMtime(from.getMtime());
+		to.setMzxid(from.getMzxid());
+		to.setPzxid(from.getPzxid());
+		to.setVersion(from.getVersion());
+		to.setEphemeralOwner(from.getEphemeralOwner());
+		to.setDataLength(from.getDataLength());
+		to.setNumChildren(from.getNumChildren());
+	}
+
 	/**
 	 * Recursively delete a key and all its children.
 	 * 
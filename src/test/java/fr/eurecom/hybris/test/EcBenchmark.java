@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2013 EURECOM (www.eurecom.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.eurecom.hybris.test;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+
+import fr.eurecom.hybris.EcCodec.Library;
+import fr.eurecom.hybris.EcCodec.Technique;
+import fr.eurecom.hybris.EcManager;
+import fr.eurecom.hybris.HybrisException;
+
+/**
+ * Micro-benchmark of the erasure coding implementations (Jerasure JNI and Java)
+ * and techniques: prints the encoding and decoding throughput, the latter with
+ * the first min(k, m) data chunks lost, of the chunks both in arrays and in direct slabs.
+ *
+ * Usage: EcBenchmark [value size B] [k] [m] [iterations]
+ * @author P. Viotti
+ */
+public class EcBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 200;
+
+    private final EcManager ec;
+    private final Technique technique;
+    private final byte[] value;
+    private final int k;
+    private final int m;
+
+    public EcBenchmark(EcManager ec, Technique technique, byte[] value, int k, int m) {
+        this.ec = ec;
+        this.technique = technique;
+        this.value = value;
+        this.k = k;
+        this.m = m;
+    }
+
+    /**
+     * @return [MB/s]
+     */
+    public double runEncode(int iterations) {
+        long start = System.nanoTime();
+        for (int i=0; i<iterations; i++)
+            this.ec.release(this.ec.encode(this.value, this.k, this.m, this.technique));
+        return throughput(iterations, System.nanoTime() - start);
+    }
+
+    /**
+     * @return [MB/s]
+     */
+    public double runDecode(int iterations) throws HybrisException {
+        byte[][] encoded = this.ec.encode(this.value, this.k, this.m, this.technique);
+        int lost = Math.min(this.k, this.m);
+        int[] erasures = new int[lost + 1];
+        for (int i=0; i<lost; i++)
+            erasures[i] = i;
+        erasures[lost] = -1;
+
+        byte[][] dataBlocks = new byte[this.k][];
+        byte[][] codingBlocks = new byte[this.m][];
+        for (int i=0; i<this.k; i++)
+            dataBlocks[i] = encoded[i];
+        for (int i=0; i<this.m; i++)
+            codingBlocks[i] = encoded[this.k + i];
+
+        long start = System.nanoTime();
+        for (int i=0; i<iterations; i++)
+            this.ec.decode(dataBlocks, codingBlocks, erasures, this.k, this.m,
+                    this.value.length, this.technique);
+        return throughput(iterations, System.nanoTime() - start);
+    }
+
+    /**
+     * @return [MB/s]
+     */
+    public double runEncodeDirect(int iterations) {
+        long start = System.nanoTime();
+        for (int i=0; i<iterations; i++)
+            this.ec.releaseSlab(this.ec.encodeDirect(this.value, this.k, this.m, this.technique));
+        return throughput(iterations, System.nanoTime() - start);
+    }
+
+    /**
+     * @return [MB/s]
+     */
+    public double runDecodeDirect(int iterations) throws HybrisException {
+        ByteBuffer slab = this.ec.encodeDirect(this.value, this.k, this.m, this.technique);
+        int lost = Math.min(this.k, this.m);
+        int[] erasures = new int[lost + 1];
+        for (int i=0; i<lost; i++)
+            erasures[i] = i;
+        erasures[lost] = -1;
+
+        long start = System.nanoTime();
+        for (int i=0; i<iterations; i++)
+            this.ec.decodeDirect(slab, erasures, this.k, this.m, this.value.length, this.technique);
+        double throughput = throughput(iterations, System.nanoTime() - start);
+        this.ec.releaseSlab(slab);
+        return throughput;
+    }
+
+    private double throughput(int iterations, long elapsedNs) {
+        return (double) this.value.length * iterations / 1024 / 1024 / (elapsedNs / 1e9);
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        int valueSize = args.length > 0 ? Integer.parseInt(args[0]) : 1024 * 1024;
+        int k = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int m = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+
+        byte[] value = new byte[valueSize];
+        new SecureRandom().nextBytes(value);
+
+        for (Library library : Library.values())
+            for (Technique technique : Technique.values()) {
+                EcBenchmark bench = new EcBenchmark(new EcManager(64 * 1024 * 1024, library),
+                        technique, value, k, m);
+                bench.runEncode(WARMUP_ITERATIONS);
+                bench.runDecode(WARMUP_ITERATIONS);
+                bench.runEncodeDirect(WARMUP_ITERATIONS);
+                bench.runDecodeDirect(WARMUP_ITERATIONS);
+                System.out.println(String.format("%-8s %-12s k=%d m=%d %8d B: encode %8.1f MB/s, decode %8.1f MB/s"
+                        + " | direct: encode %8.1f MB/s, decode %8.1f MB/s",
+                        library, technique, k, m, valueSize, bench.runEncode(iterations), bench.runDecode(iterations),
+                        bench.runEncodeDirect(iterations), bench.runDecodeDirect(iterations)));
+            }
+    }
+}
@@ -16,16 +16,32 @@
 package fr.eurecom.hybris.test;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.curator.test.TestingServer;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import fr.eurecom.hybris.BufferPool;
+import fr.eurecom.hybris.EcCodec;
+import fr.eurecom.hybris.EcCodec.Library;
+import fr.eurecom.hybris.EcCodec.Technique;
 import fr.eurecom.hybris.EcManager;
 import fr.eurecom.hybris.HybrisException;
+import fr.eurecom.hybris.kvs.drivers.Kvs;
+import fr.eurecom.hybris.kvs.drivers.TransientKvs;
 
 public class EcManagerTest extends HybrisAbstractTest {
 
@@ -228,4 +244,282 @@ public class EcManagerTest extends HybrisAbstractTest {
             }
         }
     }
+    
+    @Test
+    public void testBufferReuse() throws HybrisException {
+
+        int k = 2;
+        int m = 2;
+        EcManager ec = new EcManager(1024 * 1024);
+        BufferPool pool = ec.getBufferPool();
+        
+        byte[] data = new byte[1000];
+        for (int i=0; i<3; i++) {
+            this.random.nextBytes(data);
+            byte[][] encoded = ec.encode(data, k, m);
+            
+            byte[][] dataC = new byte[k][];
+            byte[][] coding = new byte[m][];
+            for (int y=0; y<k; y++)
+                dataC[y] = encoded[y];
+            for (int y=0; y<m; y++)
+                coding[y] = encoded[k+y];
+            
+            // lose a data chunk: its replacement comes from the pool as well
+            int[] erasures = { 0, -1, -1, -1 };
+            dataC[0] = ec.allocate(dataC[0].length);
+            
+            byte[] decoded = ec.decode(dataC, coding, erasures, k, m, data.length);
+            assertArrayEquals(data, decoded);   // reused (dirty) buffers must not leak into the value
+            ec.release(encoded);
+            ec.release(dataC[0]);
+        }
+        assertTrue(pool.getHits() > 0);
+        assertTrue(pool.getPooledBytes() <= pool.getCapacity());
+        
+        // with assertions enabled, a buffer cannot be released twice, nor one not from the pool
+        boolean assertions = false;
+        assert assertions = true;
+        if (assertions) {
+            byte[] block = ec.allocate(100);
+            ec.release(block);
+            for (byte[] wrong : new byte[][] { block, new byte[100] }) {
+                boolean rejected = false;
+                try {
+                    ec.release(wrong);
+                } catch (AssertionError e) {
+                    rejected = true;
+                }
+                assertTrue(rejected);
+            }
+            ec.adopt(new byte[100]);    // e.g. a downloaded chunk
+        }
+        
+        // pooling disabled
+        ec = new EcManager(0);
+        ec.release(ec.encode(data, k, m));
+        assertEquals(0, ec.getBufferPool().getPooledBytes());
+    }
+    
+    @Test
+    public void testBuffersOfFailedPut() throws Exception {
+
+        zkTestingServer = new TestingServer();
+        TestHybris hec = newHybris(false, true);
+        BufferPool pool = hec.getEcManager().getBufferPool();
+        List<Kvs> kvsLst = hec.getKvsManager().getKvsSortedByWriteLatency();
+        // each chunk needs its own KvStore: the put fails once the other uploads are done
+        TransientKvs failing = (TransientKvs) kvsLst.get(this.random.nextInt(kvsLst.size()));
+        failing.setWriteDelay(500);
+        failing.setFailingWrites(true);
+
+        byte[] value = new byte[1000];
+        this.random.nextBytes(value);
+        int chunksSize = kvsLst.size() * hec.getEcManager().getBlockSize(value.length, 2);
+        for (int i=0; i<3; i++) {
+            try {
+                hec.put(this.TEST_KEY_PREFIX + new BigInteger(50, this.random).toString(32), value);
+                fail();
+            } catch (HybrisException e) { }
+            // the chunks are back in the pool, and reused by the next put
+            assertEquals(chunksSize, pool.getPooledBytes());
+        }
+        assertTrue(pool.getHits() > 0);
+
+        failing.setWriteDelay(0);
+        failing.setFailingWrites(false);
+        hec.shutdown();
+        zkTestingServer.close();
+    }
+    
+    @Test
+    public void testCodecCache() throws HybrisException {
+
+        int k = 4;
+        int m = 2;
+        assertSame(EcCodec.get(k, m, 8, Technique.REED_SOL_VAN, Library.JERASURE),
+                EcCodec.get(k, m, 8, Technique.REED_SOL_VAN, Library.JERASURE));
+        
+        byte[] data = new byte[4000];
+        this.random.nextBytes(data);
+        byte[][] encoded = ecManager.encode(data, k, m);
+        
+        // every pattern of at most m erasures, twice: the second time from the cached decoders
+        for (int round=0; round<2; round++)
+            for (int e1=-1; e1<k+m; e1++)
+                for (int e2=e1+1; e2<k+m; e2++) {
+                    int[] erasures = e1 == -1 ? new int[] { e2, -1 } : new int[] { e1, e2, -1 };
+                    byte[][] dataC = new byte[k][];
+                    byte[][] coding = new byte[m][];
+                    for (int y=0; y<k; y++)
+                        dataC[y] = encoded[y].clone();
+                    for (int y=0; y<m; y++)
+                        coding[y] = encoded[k+y].clone();
+                    for (int y=0; erasures[y] != -1; y++)
+                        if (erasures[y] < k)
+                            dataC[erasures[y]] = new byte[dataC[0].length];
+                        else
+                            coding[erasures[y]-k] = new byte[coding[0].length];
+                    
+                    assertArrayEquals(data, ecManager.decode(dataC, coding, erasures, k, m, data.length));
+                }
+    }
+    
+    @Test
+    public void testJavaCodec() throws HybrisException {
+
+        EcManager javaEc = new EcManager(0, Library.JAVA);
+        EcManager nativeEc = new EcManager(0, Library.JERASURE);
+        
+        int[][] km = { {1, 1}, {2, 1}, {2, 2}, {3, 2}, {10, 5}, {17, 25} };
+        byte[] data = new byte[3000];
+        this.random.nextBytes(data);
+        
+        for (int[] p : km) {
+            int k = p[0];
+            int m = p[1];
+            
+            // same chunks as Jerasure
+            byte[][] encoded = javaEc.encode(data, k, m);
+            byte[][] nativeEncoded = nativeEc.encode(data, k, m);
+            for (int i=0; i<k+m; i++)
+                assertArrayEquals(nativeEncoded[i], encoded[i]);
+            
+            // lose the first m data chunks (or all of them, if fewer than m)
+            int lost = Math.min(k, m);
+            int[] erasures = new int[lost + 1];
+            byte[][] dataC = new byte[k][];
+            byte[][] coding = new byte[m][];
+            for (int y=0; y<k; y++)
+                dataC[y] = y < lost ? new byte[encoded[y].length] : encoded[y].clone();
+            for (int y=0; y<m; y++)
+                coding[y] = encoded[k+y].clone();
+            for (int y=0; y<lost; y++)
+                erasures[y] = y;
+            erasures[lost] = -1;
+            
+            assertArrayEquals(data, javaEc.decode(dataC, coding, erasures, k, m, data.length));
+        }
+    }
+    
+    @Test
+    public void testCauchy() throws HybrisException {
+
+        EcManager javaEc = new EcManager(0, Library.JAVA);
+        EcManager nativeEc = new EcManager(0, Library.JERASURE);
+        
+        int[][] km = { {2, 1}, {2, 2}, {3, 2}, {4, 3}, {10, 5} };
+        byte[] data = new byte[70000];
+        this.random.nextBytes(data);
+        
+        for (int[] p : km) {
+            int k = p[0];
+            int m = p[1];
+            
+            // same chunks as Jerasure, and (but for the XOR parity) not the Reed-Solomon ones
+            byte[][] encoded = javaEc.encode(data, k, m, Technique.CAUCHY);
+            byte[][] nativeEncoded = nativeEc.encode(data, k, m, Technique.CAUCHY);
+            for (int i=0; i<k+m; i++)
+                assertArrayEquals(nativeEncoded[i], encoded[i]);
+            if (m > 1)
+                assertFalse(Arrays.equals(ecManager.encode(data, k, m)[k+m-1], encoded[k+m-1]));
+            
+            // lose the last min(k, m) data chunks
+            int lost = Math.min(k, m);
+            int[] erasures = new int[lost + 1];
+            for (int y=0; y<lost; y++)
+                erasures[y] = k - 1 - y;
+            erasures[lost] = -1;
+            
+            for (EcManager ec : new EcManager[] { javaEc, nativeEc }) {
+                byte[][] dataC = new byte[k][];
+                byte[][] coding = new byte[m][];
+                for (int y=0; y<k; y++)
+                    dataC[y] = encoded[y].clone();
+                for (int y=0; y<m; y++)
+                    coding[y] = encoded[k+y].clone();
+                for (int y=0; y<lost; y++)
+                    Arrays.fill(dataC[erasures[y]], (byte) 0);
+                assertArrayEquals(data, ec.decode(dataC, coding, erasures, k, m, data.length, Technique.CAUCHY));
+            }
+        }
+    }
+    
+    @Test
+    public void testDirect() throws HybrisException {
+
+        int k = 3;
+        int m = 2;
+        byte[] data = new byte[50000];
+        this.random.nextBytes(data);
+        
+        for (Library library : Library.values())
+            for (Technique technique : Technique.values()) {
+                EcManager ec = new EcManager(1024 * 1024, library);
+                int blockSize = ec.getBlockSize(data.length, k);
+                
+                // same chunks as the heap path
+                byte[][] encoded = ec.encode(data, k, m, technique);
+                ByteBuffer slab = ec.encodeDirect(data, k, m, technique);
+                assertTrue(slab.isDirect());
+                for (int i=0; i<k+m; i++) {
+                    byte[] chunk = new byte[blockSize];
+                    EcManager.getChunk(slab, i, blockSize).get(chunk);
+                    assertArrayEquals(encoded[i], chunk);
+                }
+                
+                // lose a data and a coding chunk
+                int[] erasures = { 1, k, -1 };
+                for (int y=0; erasures[y] != -1; y++) {
+                    ByteBuffer lost = EcManager.getChunk(slab, erasures[y], blockSize);
+                    while (lost.hasRemaining())
+                        lost.put((byte) 0);
+                }
+                assertArrayEquals(data, ec.decodeDirect(slab, erasures, k, m, data.length, technique));
+                ec.releaseSlab(slab);
+                
+                // reused slab
+                slab = ec.encodeDirect(data, k, m, technique);
+                assertArrayEquals(data, ec.decodeDirect(slab, new int[] { -1 }, k, m, data.length, technique));
+                assertTrue(ec.getBufferPool().getHits() > 0);
+                
+                // chunks out of the bounds of the slab are rejected, rather than read natively
+                for (int[] badErasures : new int[][] { { k + m, -1 }, { -2, -1 } })
+                    try {
+                        ec.decodeDirect(slab, badErasures, k, m, data.length, technique);
+                        fail();
+                    } catch (IllegalArgumentException e) { }
+                ByteBuffer small = ByteBuffer.allocateDirect((k + m - 1) * blockSize);
+                try {
+                    ec.decodeDirect(small, new int[] { 0, -1 }, k, m, data.length, technique);
+                    fail();
+                } catch (IllegalArgumentException e) { }
+                ec.releaseSlab(slab);
+            }
+    }
+    
+    @Test
+    public void testConcatenate() throws HybrisException {
+
+        int[][] km = { {1, 1}, {2, 1}, {3, 2}, {10, 5} };
+        int[] sizes = { 1, 999, 1000, 4096, 70001 };
+        
+        for (int[] p : km)
+            for (int size : sizes)
+                for (Technique technique : Technique.values()) {
+                    int k = p[0];
+                    int m = p[1];
+                    byte[] data = new byte[size];
+                    this.random.nextBytes(data);
+                    
+                    // the data chunks alone give back the value, whatever the coding ones
+                    byte[][] encoded = ecManager.encode(data, k, m, technique);
+                    byte[][] dataC = Arrays.copyOfRange(encoded, 0, k);
+                    assertArrayEquals(data, ecManager.concatenate(dataC, k, size));
+                    
+                    byte[][] coding = new byte[m][encoded[k].length];
+                    assertArrayEquals(data, ecManager.decode(dataC, coding, 
+                            new int[] { -1 }, k, m, size, technique));
+                }
+    }
 }
@@ -125,6 +125,8 @@ public class GcManagerTest extends HybrisAbstractTest {
         savedReplicas.add(this.kvs.getKvsList().get(1));
         this.kvs.put(savedReplicas.get(0), Utils.getKvsKey(key3, ts), value6);
         this.kvs.put(savedReplicas.get(1), Utils.getKvsKey(key3, ts), value6);
+        for (int i=0; i<2; i++)     // parts of an abandoned value stored as a sequence of parts
+            this.kvs.put(savedReplicas.get(i), Utils.getKvsPartKey(key3, ts, i), value6);
 
         mds.markOrphanKey(key3, ts, savedReplicas);
 
@@ -139,8 +141,11 @@ public class GcManagerTest extends HybrisAbstractTest {
             assertNull(this.kvs.get(provider, Utils.getKvsKey(key2, new Timestamp(0, Utils.generateClientId()))));
         }
 
-        for (Kvs provider : savedReplicas)
+        for (Kvs provider : savedReplicas) {
             assertNull(this.kvs.get(provider, Utils.getKvsKey(key3, ts)));
+            for (int i=0; i<2; i++)
+                assertNull(this.kvs.get(provider, Utils.getKvsPartKey(key3, ts, i)));
+        }
 
         // check that right versions are still there
         byte[] retrieved = this.hybris.get(key1);
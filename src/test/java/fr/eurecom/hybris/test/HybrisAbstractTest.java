@@ -20,6 +20,11 @@ import java.util.Arrays;
 
 import org.apache.curator.test.TestingServer;
 
+import fr.eurecom.hybris.EcManager;
+import fr.eurecom.hybris.Hybris;
+import fr.eurecom.hybris.HybrisException;
+import fr.eurecom.hybris.kvs.KvsManager;
+
 public abstract class HybrisAbstractTest {
 
     protected String TEST_KEY_PREFIX = "test-";
@@ -31,4 +36,37 @@ public abstract class HybrisAbstractTest {
         Arrays.fill(array, b);
         return array;
     }
+
+    /**
+     * A client of the test RMDS and KvStores which exposes its KvStores manager.
+     */
+    protected static class TestHybris extends Hybris {
+
+        public TestHybris(boolean kvsTestOnStartup, boolean cryptoEnabled, boolean ecEnabled) 
+                throws HybrisException {
+            this(kvsTestOnStartup, 600, false, cryptoEnabled, ecEnabled);
+        }
+
+        /**
+         * @param writeTimeout [s]
+         */
+        public TestHybris(boolean kvsTestOnStartup, int writeTimeout, boolean gcEnabled,
+                boolean cryptoEnabled, boolean ecEnabled) throws HybrisException {
+            super("zk", zkTestingServer.getConnectString(), "hybris", true, "accounts-test.properties",
+                    "hybris-test-container", kvsTestOnStartup, null, 1, writeTimeout, 600, gcEnabled, cryptoEnabled, 
+                    false, "", 0, "", ecEnabled, ecEnabled ? 2 : 0);
+        }
+
+        public KvsManager getKvsManager() {
+            return this.kvs;
+        }
+
+        public EcManager getEcManager() {
+            return this.ec;
+        }
+    }
+
+    protected static TestHybris newHybris(boolean cryptoEnabled, boolean ecEnabled) throws HybrisException {
+        return new TestHybris(false, cryptoEnabled, ecEnabled);
+    }
 }
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2013 EURECOM (www.eurecom.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.eurecom.hybris.test;
+
+import java.lang.management.ManagementFactory;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.curator.test.TestingServer;
+
+import fr.eurecom.hybris.Hybris;
+
+/**
+ * Micro-benchmarks of the Hybris client run against in-memory KvStores
+ * (see accounts-test.properties), so that they measure the client-side
+ * overhead rather than the cloud latencies.
+ *
+ * Usage: HybrisBenchmark [ops per thread] [value size B] [accounts file]
+ * @author P. Viotti
+ */
+public class HybrisBenchmark {
+
+    private static final int[] CONCURRENCY_LEVELS = { 1, 4, 16, 64 };
+    private static final int[] BATCH_SIZES = { 1, 10, 100 };
+
+    private final Hybris hybris;
+    private final int opsPerThread;
+    private final int valueSize;
+    private final SecureRandom random = new SecureRandom();
+
+    public HybrisBenchmark(Hybris hybris, int opsPerThread, int valueSize) {
+        this.hybris = hybris;
+        this.opsPerThread = opsPerThread;
+        this.valueSize = valueSize;
+    }
+
+    /**
+     * Runs put+get pairs from <threads> concurrent client threads and prints
+     * throughput, number of JVM threads started and bytes allocated by the
+     * client threads.
+     */
+    public void runPutGet(final int threads) throws Exception {
+
+        final com.sun.management.ThreadMXBean tmx =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final AtomicLong allocated = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        List<Thread> clients = new ArrayList<Thread>(threads);
+
+        tmx.resetPeakThreadCount();
+        long startedThreads = tmx.getTotalStartedThreadCount();
+        long start = System.nanoTime();
+
+        for (int t=0; t<threads; t++) {
+            final String keyPrefix = "bench-" + t + "-";
+            Thread client = new Thread(new Runnable() {
+                public void run() {
+                    long tid = Thread.currentThread().getId();
+                    long allocStart = tmx.getThreadAllocatedBytes(tid);
+                    byte[] value = new byte[HybrisBenchmark.this.valueSize];
+                    for (int i=0; i<HybrisBenchmark.this.opsPerThread; i++)
+                        try {
+                            HybrisBenchmark.this.random.nextBytes(value);
+                            HybrisBenchmark.this.hybris.put(keyPrefix + i, value);
+                            if (HybrisBenchmark.this.hybris.get(keyPrefix + i) == null)
+                                errors.incrementAndGet();
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        }
+                    allocated.addAndGet(tmx.getThreadAllocatedBytes(tid) - allocStart);
+                }
+            });
+            clients.add(client);
+            client.start();
+        }
+        for (Thread client : clients)
+            client.join();
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long ops = 2L * threads * this.opsPerThread;
+        System.out.println(String.format("put+get %3d threads: %9.1f ops/s, %6d threads started, "
+                + "%4d peak threads, %8.1f kB allocated/op (client threads), %d errors",
+                threads, ops / elapsed, tmx.getTotalStartedThreadCount() - startedThreads - threads,
+                tmx.getPeakThreadCount(), allocated.get() / 1024.0 / ops, errors.get()));
+    }
+
+    /**
+     * Writes batches of <batchSize> keys with the transactional multi-put
+     * and prints the average batch latency.
+     */
+    public void runMultiPut(int batchSize) throws Exception {
+
+        int batches = Math.max(1, this.opsPerThread / batchSize);
+        byte[] value = new byte[this.valueSize];
+        this.random.nextBytes(value);
+        long elapsedNs = 0;
+        for (int b=0; b<batches; b++) {
+            LinkedHashMap<String, byte[]> batch = new LinkedHashMap<String, byte[]>();
+            for (int i=0; i<batchSize; i++)
+                batch.put("bench-multi-" + b + "-" + i, value);
+            long start = System.nanoTime();
+            this.hybris.put(batch);
+            elapsedNs += System.nanoTime() - start;
+        }
+        double elapsed = elapsedNs / 1e6;
+        System.out.println(String.format("multi-put %3d keys: %9.1f ms/batch, %9.1f keys/s",
+                batchSize, elapsed / batches, batchSize * batches * 1000 / elapsed));
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        int opsPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int valueSize = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        // e.g. an accounts file listing FileKvs drivers
+        String accountsFile = args.length > 2 ? args[2] : "accounts-test.properties";
+
+        TestingServer zkTestingServer = new TestingServer();
+        Hybris hybris = new Hybris("zk", zkTestingServer.getConnectString(), "hybris-bench", false,
+                accountsFile, "hybris-bench-container", false, null, 1, 600, 600,
+                false, false, false, "", 0, "", false, 0);
+
+        HybrisBenchmark bench = new HybrisBenchmark(hybris, opsPerThread, valueSize);
+        bench.runPutGet(1);    // warm-up
+        for (int threads : CONCURRENCY_LEVELS)
+            bench.runPutGet(threads);
+        for (int batchSize : BATCH_SIZES)
+            bench.runMultiPut(batchSize);
+
+        hybris.shutdown();
+        zkTestingServer.close();
+    }
+}
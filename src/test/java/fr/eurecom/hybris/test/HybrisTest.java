@@ -17,11 +17,23 @@ package fr.eurecom.hybris.test;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.curator.test.TestingServer;
 import org.junit.After;
@@ -32,7 +44,15 @@ import org.junit.Test;
 
 import fr.eurecom.hybris.GcManager;
 import fr.eurecom.hybris.Hybris;
+import fr.eurecom.hybris.Hybris.StragglerPolicy;
 import fr.eurecom.hybris.HybrisException;
+import fr.eurecom.hybris.Utils;
+import fr.eurecom.hybris.kvs.KvsManager;
+import fr.eurecom.hybris.kvs.LatencyHistogram;
+import fr.eurecom.hybris.kvs.drivers.Kvs;
+import fr.eurecom.hybris.kvs.drivers.TransientKvs;
+import fr.eurecom.hybris.mds.Metadata;
+import fr.eurecom.hybris.mds.ZkRmds;
 
 
 public class HybrisTest extends HybrisAbstractTest {
@@ -67,6 +87,196 @@ public class HybrisTest extends HybrisAbstractTest {
         assertNull(hybris.get(key));
     }
     
+    @Test
+    public void testAsyncWriteAndRead() throws Exception {
+
+        Hybris hec = newHybris(true, true);
+
+        for (Hybris h : new Hybris[] { hybris, hec }) {
+            String key = this.TEST_KEY_PREFIX + new BigInteger(50, this.random).toString(32);
+            byte[] value = new byte[50];
+            this.random.nextBytes(value);
+
+            assertFalse(h.putAsync(key, value).get(10, TimeUnit.SECONDS).isEmpty());
+            assertArrayEquals(value, h.getAsync(key).get(10, TimeUnit.SECONDS));
+            // reads issued through the synchronous API see the same value
+            assertArrayEquals(value, h.get(key));
+
+            this.random.nextBytes(value);
+            h.putAsync(key, value).get(10, TimeUnit.SECONDS);
+            assertArrayEquals(value, h.getAsync(key).get(10, TimeUnit.SECONDS));
+
+            h.deleteAsync(key).get(10, TimeUnit.SECONDS);
+            assertNull(h.getAsync(key).get(10, TimeUnit.SECONDS));
+        }
+        hec.shutdown();
+    }
+
+    @Test
+    public void testStreamWriteAndRead() throws Exception {
+
+        Hybris hcrypto = newHybris(true, false);
+        Hybris hparted = newHybris(true, false);
+        hparted.setPartedLayout(100000, 70000);     // streamed one part at a time
+
+        for (Hybris h : new Hybris[] { hybris, hcrypto, hparted }) {
+            String key = this.TEST_KEY_PREFIX + new BigInteger(50, this.random).toString(32);
+            byte[] value = new byte[300000];
+            this.random.nextBytes(value);
+
+            h.put(key, new ByteArrayInputStream(value), value.length);
+            assertArrayEquals(value, h.get(key));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertTrue(h.get(key, out));
+            assertArrayEquals(value, out.toByteArray());
+
+            // values written as byte arrays can be streamed, and vice versa
+            this.random.nextBytes(value);
+            h.put(key, value);
+            out.reset();
+            assertTrue(h.get(key, out));
+            assertArrayEquals(value, out.toByteArray());
+
+            // the stream must provide the declared number of bytes
+            try {
+                h.put(key, new ByteArrayInputStream(value), value.length + 1);
+                fail();
+            } catch (HybrisException e) { }
+
+            h.delete(key);
+            assertFalse(h.get(key, new ByteArrayOutputStream()));
+        }
+        hcrypto.shutdown();
+        hparted.shutdown();
+
+        // erasure coded values are buffered before being encoded
+        Hybris hec = newHybris(false, true);
+        try {
+            hec.put(this.TEST_KEY_PREFIX + new BigInteger(50, this.random).toString(32), 
+                    new ByteArrayInputStream(new byte[0]), Integer.MAX_VALUE + 1L);
+            fail();
+        } catch (HybrisException e) { }
+        hec.shutdown();
+    }
+
+    @Test
+    public void testHedgedRead() throws HybrisException {
+
+        TestHybris hh = newHybris(true, false);
+        hh.setHedgedReads(true);
+
+        String key = this.TEST_KEY_PREFIX + new BigInteger(50, this.random).toString(32);
+        byte[] value = new byte[50];
+        for (int i=0; i<20; i++) {  // after a few reads the delay is derived from the recorded latencies
+            this.random.nextBytes(value);
+            hh.put(key, value);
+            assertArrayEquals(value, hh.get(key));
+        }
+
+        // the fastest replica stalls: the read is hedged on the second one
+        long slowDelay = 5000;
+        KvsManager manager = hh.getKvsManager();
+        List<Kvs> ranked = manager.getKvsSortedByReadLatency();
+        LatencyHistogram slow = manager.getReadLatencyHistogram(ranked.get(0));
+        LatencyHistogram hedge = manager.getReadLatencyHistogram(ranked.get(1));
+        long slowReads = slow.getCount(), hedgeReads = hedge.getCount();
+        ((TransientKvs) ranked.get(0)).setReadDelay(slowDelay);
+
+        long start = System.currentTimeMillis();
+        assertArrayEquals(value, hh.get(key));
+        assertTrue(System.currentTimeMillis() - start < slowDelay / 5);
+        assertEquals(hedgeReads + 1, hedge.getCount());
+        assertEquals(slowReads, slow.getCount());     // cancelled
+        ((TransientKvs) ranked.get(0)).setReadDelay(0);
+
+        hh.delete(key);
+        assertNull(hh.get(key));
+        hh.shutdown();
+    }
+
+    @Test
+    public void testStragglers() throws Exception {
+
+        TestHybris hs = new TestHybris(false, 1, true, false, false);     // 1 s write timeout, GC
+        ZkRmds mds = new ZkRmds(zkTestingServer.getConnectString(), "hybris", true);
+        long slowDelay = 3000;
+        byte[] value = new byte[50];
+
+        for (StragglerPolicy policy : StragglerPolicy.values()) {
+            hs.setStragglerPolicy(policy);
+            String key = this.TEST_KEY_PREFIX + new BigInteger(50, this.random).toString(32);
+            this.random.nextBytes(value);
+
+            // the first KvStore of the quorum stalls: its slot is written on the third one
+            TransientKvs slow = (TransientKvs) hs.getKvsManager().getKvsSortedByWriteLatency().get(0);
+            long stragglers = hs.getStragglers(), bonus = hs.getBonusReplicas();
+            slow.setWriteDelay(slowDelay);
+            long start = System.currentTimeMillis();
+            assertEquals(2, hs.put(key, value).size());
+            assertTrue(System.currentTimeMillis() - start < slowDelay);
+            assertEquals(stragglers + 1, hs.getStragglers());
+            assertArrayEquals(value, hs.get(key));
+
+            Metadata md = mds.tsRead(key, null);
+            String kvsKey = Utils.getKvsKey(key, md.getTs());
+            if (StragglerPolicy.CANCEL.equals(policy)) {
+                // the upload is cancelled and its KvStore marked as orphan
+                for (int i=0; i<50 && !mds.getOrphans().containsKey(kvsKey); i++)
+                    Thread.sleep(100);
+                Map<String, Metadata> orphans = mds.getOrphans();
+                assertTrue(orphans.containsKey(kvsKey));
+                assertEquals(1, orphans.get(kvsKey).getReplicasLst().size());
+                assertEquals(bonus, hs.getBonusReplicas());
+                mds.removeOrphanKeys(orphans.keySet());
+            } else {
+                // the upload completes and its KvStore is recorded as a bonus replica
+                for (int i=0; i<50 && hs.getBonusReplicas() == bonus; i++)
+                    Thread.sleep(100);
+                assertEquals(bonus + 1, hs.getBonusReplicas());
+                assertEquals(3, mds.tsRead(key, null).getReplicasLst().size());
+                assertFalse(mds.getOrphans().containsKey(kvsKey));
+            }
+            slow.setWriteDelay(0);
+
+            assertArrayEquals(value, hs.get(key));
+            hs.delete(key);
+        }
+        mds.shutdown();
+        hs.shutdown();
+    }
+
+    @Test
+    public void testMultipleRead() throws HybrisException {
+
+        Hybris hec = newHybris(false, true);
+
+        for (Hybris h : new Hybris[] { hybris, hec }) {
+            List<String> keys = new ArrayList<String>();
+            Map<String, byte[]> expected = new HashMap<String, byte[]>();
+            for (int i=0; i<40; i++) {
+                String key = this.TEST_KEY_PREFIX + new BigInteger(50, this.random).toString(32);
+                keys.add(key);
+                if (i % 4 == 0)     // some keys have no value
+                    continue;
+                byte[] value = new byte[100];
+                this.random.nextBytes(value);
+                h.put(key, value);
+                expected.put(key, value);
+            }
+
+            Map<String, byte[]> values = h.get(keys);
+            assertEquals(keys, new ArrayList<String>(values.keySet()));
+            for (String key : keys)
+                assertArrayEquals(expected.get(key), values.get(key));
+
+            for (String key : expected.keySet())
+                h.delete(key);
+            for (byte[] value : h.get(keys).values())
+                assertNull(value);
+        }
+        hec.shutdown();
+    }
+
     @Test
     public void testMultipleWrite() {
         
@@ -79,8 +289,6 @@ public class HybrisTest extends HybrisAbstractTest {
                     value);
         }
         
-        hybris.setErasureCoding(false); // XXX
-        
         try {
             hybris.put(map);
         } catch (HybrisException e) {
@@ -96,10 +304,111 @@ public class HybrisTest extends HybrisAbstractTest {
                 e.printStackTrace();
                 fail();
             }
-            assertEquals(map.get(key), val);
+            assertArrayEquals(map.get(key), val);
         }        
     }
     
+    @Test
+    public void testMultipleWriteEcCrypto() throws HybrisException, IOException {
+
+        Hybris hec = newHybris(true, true);
+
+        LinkedHashMap<String, byte[]> map = new LinkedHashMap<String, byte[]>();
+        for (int i=0; i<10; i++) {
+            byte[] value = new byte[1000 + i];
+            this.random.nextBytes(value);
+            map.put(this.TEST_KEY_PREFIX + new BigInteger(50, this.random).toString(32), value);
+        }
+        hec.put(map);
+
+        ZkRmds mds = new ZkRmds(zkTestingServer.getConnectString(), "hybris", true);
+        for (String key : map.keySet()) {
+            assertArrayEquals(map.get(key), hec.get(key));
+            Metadata md = mds.tsRead(key, null);
+            assertNotNull(md.getCryptoKey());
+            assertNotNull(md.getChunksHashes());
+        }
+        mds.shutdown();
+
+        // overwrites reuse the encryption keys
+        hec.put(map);
+        for (String key : map.keySet())
+            assertArrayEquals(map.get(key), hec.get(key));
+        hec.shutdown();
+    }
+
+    @Test
+    public void testRangedRead() throws HybrisException {
+
+        byte[] value = new byte[100000];
+        this.random.nextBytes(value);
+        int[][] ranges = { {0, 10}, {17, 1000}, {40000, 30000}, {99990, 100}, {0, 100000} };
+
+        Hybris hcr = newHybris(true, false);
+        Hybris hec = newHybris(true, true);
+        Hybris hur = newHybris(true, false);
+        hur.setUnverifiedRanges(true);
+
+        for (Hybris h : new Hybris[] { hybris, hcr, hec, hur }) {
+            String key = this.TEST_KEY_PREFIX + new BigInteger(50, this.random).toString(32);
+            h.put(key, value);
+            for (int[] range : ranges)
+                assertArrayEquals(Arrays.copyOfRange(value, range[0], Math.min(value.length, range[0] + range[1])),
+                        h.get(key, range[0], range[1]));
+            assertEquals(0, h.get(key, value.length, 10).length);
+            h.delete(key);
+            assertNull(h.get(key, 0, 10));
+        }
+        hcr.shutdown();
+        hec.shutdown();
+        hur.shutdown();
+    }
+
+    @Test
+    public void testPartedWriteAndRead() throws Exception {
+
+        Hybris hp = newHybris(true, false);
+        hp.setPartedLayout(1000, 300);
+
+        String key = this.TEST_KEY_PREFIX + new BigInteger(50, this.random).toString(32);
+        byte[] value = new byte[10000];
+        this.random.nextBytes(value);
+        hp.put(key, value);
+
+        ZkRmds mds = new ZkRmds(zkTestingServer.getConnectString(), "hybris", true);
+        Metadata md = mds.tsRead(key, null);
+        mds.shutdown();
+        assertEquals(Metadata.MetadataType.PARTS, md.getType());
+        assertEquals(34, md.getPartsHashes().length);
+
+        assertArrayEquals(value, hp.get(key));
+        assertArrayEquals(value, hp.getAsync(key).get(10, TimeUnit.SECONDS));
+        assertArrayEquals(Arrays.copyOfRange(value, 250, 1310), hp.get(key, 250, 1060));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(hp.get(key, out));
+        assertArrayEquals(value, out.toByteArray());
+
+        // values below the threshold are stored as a single object
+        byte[] small = new byte[100];
+        this.random.nextBytes(small);
+        hp.put(key, small);
+        assertArrayEquals(small, hp.get(key));
+
+        // the number of parts must fit in an int
+        hp.setPartedLayout(1000, 1);
+        try {
+            hp.put(key, new ByteArrayInputStream(value), Integer.MAX_VALUE + 1L);
+            fail();
+        } catch (HybrisException e) { }
+        assertArrayEquals(small, hp.get(key));
+
+        hp.setPartedLayout(1000, 300);
+        hp.put(key, value);
+        hp.delete(key);
+        assertNull(hp.get(key));
+        hp.shutdown();
+    }
+
     @Test
     public void testEcFaultyKvs() throws HybrisException {
 
@@ -107,8 +416,7 @@ public class HybrisTest extends HybrisAbstractTest {
         byte[] value = new byte[50];
         this.random.nextBytes(value);
         
-        Hybris hec = new Hybris("zk", zkTestingServer.getConnectString(), "hybris",  true, "accounts-test.properties",
-                "hybris-test-container", false, null, 1, 600, 600, false, false, false, "", 0, "", true, 2);
+        Hybris hec = newHybris(false, true);
         
         //hybris.testLatencyAndSortClouds(100);
         hec.put(key, value);
@@ -127,10 +435,8 @@ public class HybrisTest extends HybrisAbstractTest {
         byte[] value = new byte[1048576];
         this.random.nextBytes(value);
         
-        Hybris hr = new Hybris("zk", zkTestingServer.getConnectString(), "hybris", true, "accounts-test.properties", 
-                "hybris-test-container", true, null, 1, 600, 600, false, false, false, "", 0, "", false, 0);
-        Hybris hec = new Hybris("zk", zkTestingServer.getConnectString(), "hybris", true, "accounts-test.properties",
-                "hybris-test-container", true, null, 1, 600, 600, false, false, false, "", 0, "", true, 2);
+        Hybris hr = new TestHybris(true, false, false);
+        Hybris hec = new TestHybris(true, false, true);
         
         long start = 0, end = 0;
         
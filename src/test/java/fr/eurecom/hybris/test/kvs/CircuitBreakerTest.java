@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2013 EURECOM (www.eurecom.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.eurecom.hybris.test.kvs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import fr.eurecom.hybris.kvs.CircuitBreaker;
+import fr.eurecom.hybris.kvs.CircuitBreaker.State;
+import fr.eurecom.hybris.test.HybrisAbstractTest;
+
+public class CircuitBreakerTest extends HybrisAbstractTest {
+
+    @Test
+    public void testTransitions() throws InterruptedException {
+
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 100);
+        assertEquals(State.CLOSED, breaker.getState());
+
+        // a few failures do not open the circuit
+        for (int i=0; i<4; i++)
+            breaker.completed(breaker.started(), true);
+        for (int i=0; i<5; i++)
+            breaker.completed(breaker.started(), false);
+        assertEquals(State.CLOSED, breaker.getState());
+
+        breaker.completed(breaker.started(), true);
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.isAvailable());
+
+        // once half-open, a single probe at a time is let through
+        Thread.sleep(150);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        boolean probe = breaker.started();
+        assertTrue(probe);
+        assertFalse(breaker.isAvailable());
+        breaker.completed(probe, true);
+        assertEquals(State.OPEN, breaker.getState());
+
+        // consecutive successful probes close the circuit
+        Thread.sleep(150);
+        for (int i=0; i<3; i++) {
+            assertTrue(breaker.isAvailable());
+            breaker.completed(breaker.started(), false);
+        }
+        assertEquals(State.CLOSED, breaker.getState());
+        assertTrue(breaker.isAvailable());
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2013 EURECOM (www.eurecom.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.eurecom.hybris.test.kvs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import fr.eurecom.hybris.kvs.Ewma;
+import fr.eurecom.hybris.test.HybrisAbstractTest;
+
+public class EwmaTest extends HybrisAbstractTest {
+
+    @Test
+    public void testAverage() {
+
+        Ewma ewma = new Ewma(0.5);
+        assertFalse(ewma.hasSamples());
+
+        ewma.update(100);   // the first sample is the average
+        assertTrue(ewma.hasSamples());
+        assertEquals(100, ewma.get(), 0);
+
+        ewma.update(200);
+        assertEquals(150, ewma.get(), 0);
+
+        // older samples are forgotten
+        for (int i=0; i<50; i++)
+            ewma.update(10);
+        assertEquals(10, ewma.get(), 0.001);
+    }
+}
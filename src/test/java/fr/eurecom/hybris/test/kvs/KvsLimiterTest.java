@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2013 EURECOM (www.eurecom.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.eurecom.hybris.test.kvs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import fr.eurecom.hybris.kvs.KvsLimiter;
+import fr.eurecom.hybris.test.HybrisAbstractTest;
+
+public class KvsLimiterTest extends HybrisAbstractTest {
+
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+
+        final int maxConcurrency = 2;
+        final KvsLimiter limiter = new KvsLimiter(maxConcurrency, 0);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i=0; i<8; i++) {
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        limiter.acquire();
+                        try {
+                            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                            Thread.sleep(50);
+                            running.decrementAndGet();
+                        } finally {
+                            limiter.release();
+                        }
+                    } catch (Exception e) { }
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads)
+            t.join();
+
+        assertEquals(maxConcurrency, maxRunning.get());
+    }
+
+    @Test
+    public void testRateLimit() throws Exception {
+
+        KvsLimiter limiter = new KvsLimiter(0, 20);
+        long start = System.nanoTime();
+        for (int i=0; i<30; i++) {
+            limiter.acquire();
+            limiter.release();
+        }
+        // the first 20 operations are a burst, the other 10 take ~500 ms
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsed >= 400);
+
+        KvsLimiter unlimited = new KvsLimiter(0, 0);
+        start = System.nanoTime();
+        for (int i=0; i<1000; i++) {
+            unlimited.acquire();
+            unlimited.release();
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 400);
+    }
+}
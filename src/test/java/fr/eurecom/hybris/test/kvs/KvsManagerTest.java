@@ -15,6 +15,8 @@
  */
 package fr.eurecom.hybris.test.kvs;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
@@ -25,16 +27,26 @@ import java.io.IOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
+import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Ignore;
 import org.junit.Test;
 
 import fr.eurecom.hybris.Config;
+import fr.eurecom.hybris.Utils;
 import fr.eurecom.hybris.kvs.KvsManager;
+import fr.eurecom.hybris.kvs.drivers.FileKvs;
 import fr.eurecom.hybris.kvs.drivers.Kvs;
 import fr.eurecom.hybris.test.HybrisAbstractTest;
 
@@ -51,6 +63,11 @@ public class KvsManagerTest extends HybrisAbstractTest {
         kvs = new KvsManager("accounts-test.properties", KVS_ROOT, true);
     }
 
+    @AfterClass
+    public static void afterClassTeardown() {
+        kvs.shutdown();     // and its own scheduler
+    }
+
     // Executed before each test
     @Before
     public void setUp() throws Exception {
@@ -89,6 +106,230 @@ public class KvsManagerTest extends HybrisAbstractTest {
             assertNull(kvs.get(replica, key));
     }
 
+    @Test
+    public void testRangedRead() throws IOException {
+
+        String key = this.TEST_KEY_PREFIX + new BigInteger(50, this.random).toString(32);
+        byte[] value = new byte[1000];
+        this.random.nextBytes(value);
+
+        List<Kvs> providers = new ArrayList<Kvs>(kvs.getKvsList());
+        providers.add(new FileKvs("file", KVS_ROOT, true, 0));
+        for (Kvs provider : providers) {
+            kvs.put(provider, key, value);
+            assertArrayEquals(Arrays.copyOfRange(value, 0, 10), kvs.get(provider, key, 0, 10));
+            assertArrayEquals(Arrays.copyOfRange(value, 500, 700), kvs.get(provider, key, 500, 200));
+            assertArrayEquals(Arrays.copyOfRange(value, 990, 1000), kvs.get(provider, key, 990, 100));
+            kvs.delete(provider, key);
+            assertNull(kvs.get(provider, key, 0, 10));
+        }
+    }
+
+    @Test
+    public void testAsyncDriver() throws Exception {
+
+        String key = this.TEST_KEY_PREFIX + new BigInteger(50, this.random).toString(32);
+        byte[] value = new byte[100000];
+        this.random.nextBytes(value);
+
+        // FileKvs implements put and get natively, delete through the blocking API
+        Kvs provider = new FileKvs("file", KVS_ROOT, true, 0);
+        assertTrue(provider.isAsync());
+        assertEquals(provider, kvs.putAsync(provider, key, value).get(5, TimeUnit.SECONDS));
+        assertArrayEquals(value, kvs.getAsync(provider, key).get(5, TimeUnit.SECONDS));
+        kvs.putAsync(provider, key, new byte[10]).get(5, TimeUnit.SECONDS);
+        assertArrayEquals(new byte[10], kvs.getAsync(provider, key).get(5, TimeUnit.SECONDS));
+        kvs.deleteAsync(provider, key).get(5, TimeUnit.SECONDS);
+        try {
+            kvs.getAsync(provider, key).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testListPrefix() throws IOException {
+
+        String key = this.TEST_KEY_PREFIX + new BigInteger(50, this.random).toString(32);
+        List<Kvs> providers = new ArrayList<Kvs>(kvs.getKvsList());
+        providers.add(new FileKvs("file", KVS_ROOT, true, 0));
+        for (Kvs provider : providers) {
+            kvs.put(provider, key + "#1_a", new byte[1]);
+            kvs.put(provider, key + "#2_a#0", new byte[1]);
+            kvs.put(provider, key + "x#1_a", new byte[1]);
+
+            List<String> listed = new ArrayList<String>();
+            Iterator<String> keys = kvs.list(provider, Utils.getKvsKeyPrefix(key));
+            while (keys.hasNext())
+                listed.add(keys.next());
+            assertFalse(listed.isEmpty());
+            for (String listedKey : listed)
+                assertTrue(listedKey.startsWith(key + "#"));
+            if (provider instanceof FileKvs)
+                assertEquals(2, listed.size());
+            assertFalse(kvs.list(provider, key + "y").hasNext());
+            kvs.emptyStorageContainer(provider);
+        }
+    }
+
+    @Test
+    public void testBulkDelete() throws IOException {
+
+        List<String> keys = new ArrayList<String>();
+        for (int i=0; i<20; i++)
+            keys.add(this.TEST_KEY_PREFIX + new BigInteger(50, this.random).toString(32));
+
+        // deletions fanned out in parallel
+        List<Kvs> providers = new ArrayList<Kvs>(kvs.getKvsList());
+        providers.add(new FileKvs("file", KVS_ROOT, true, 0));
+        for (Kvs provider : providers) {
+            for (String key : keys)
+                kvs.put(provider, key, new byte[1]);
+            assertTrue(kvs.delete(provider, keys).isEmpty());
+            for (String key : keys)
+                assertFalse(kvs.list(provider, key).hasNext());
+        }
+
+        // per-key failures are reported back
+        final String failing = keys.get(0);
+        Kvs faulty = new Kvs("faulty", KVS_ROOT, true, 0) {
+            public void delete(String key) throws IOException {
+                if (key.equals(failing))
+                    throw new IOException();
+            }
+        };
+        Map<String, IOException> failed = kvs.delete(faulty, keys);
+        assertEquals(1, failed.size());
+        assertTrue(failed.containsKey(failing));
+
+        // batch deletions are issued through the driver
+        final List<Collection<String>> batches = new ArrayList<Collection<String>>();
+        Kvs batching = new Kvs("batching", KVS_ROOT, true, 0) {
+            public boolean hasBatchDelete() { return true; }
+            public Map<String, IOException> delete(Collection<String> keys) throws IOException {
+                batches.add(keys);
+                return super.delete(keys);
+            }
+        };
+        assertTrue(kvs.delete(batching, keys).isEmpty());
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    public void testSizeHintedRead() throws Exception {
+
+        String key = this.TEST_KEY_PREFIX + new BigInteger(50, this.random).toString(32);
+        byte[] value = new byte[1000];
+        this.random.nextBytes(value);
+
+        List<Kvs> providers = new ArrayList<Kvs>(kvs.getKvsList());
+        providers.add(new FileKvs("file", KVS_ROOT, true, 0));
+        for (Kvs provider : providers) {
+            kvs.put(provider, key, value);
+            assertArrayEquals(value, kvs.get(provider, key, value.length));
+            assertArrayEquals(value, kvs.get(provider, key, 2 * value.length));
+            assertArrayEquals(value, kvs.getAsync(provider, key, value.length).get(5, TimeUnit.SECONDS));
+            // values larger than expected are rejected
+            try {
+                kvs.get(provider, key, value.length - 1);
+                fail();
+            } catch (IOException e) { }
+            try {
+                kvs.getAsync(provider, key, value.length - 1).get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            kvs.delete(provider, key);
+        }
+    }
+
+    @Test
+    public void testLatenciesBySize() throws IOException {
+
+        assertEquals(0, KvsManager.getSizeClass(0));
+        assertEquals(0, KvsManager.getSizeClass(4096));
+        assertEquals(1, KvsManager.getSizeClass(4097));
+        assertEquals(2, KvsManager.getSizeClass(1048576));
+        assertEquals(KvsManager.SIZE_CLASSES - 1, KvsManager.getSizeClass(Long.MAX_VALUE));
+        assertEquals(65536, KvsManager.getSizeClassBound(1));
+
+        String key = this.TEST_KEY_PREFIX + new BigInteger(50, this.random).toString(32);
+        byte[] value = new byte[10000];
+        this.random.nextBytes(value);
+        Kvs provider = kvs.getKvsList().get(0);
+        long writes = kvs.getLatencyHistogram(provider, true, 1).getCount();
+        long reads = kvs.getLatencyHistogram(provider, false, 1).getCount();
+
+        kvs.put(provider, key, value);
+        assertArrayEquals(value, kvs.get(provider, key));
+        assertEquals(writes + 1, kvs.getLatencyHistogram(provider, true, 1).getCount());
+        assertEquals(reads + 1, kvs.getLatencyHistogram(provider, false, 1).getCount());
+        kvs.delete(provider, key);
+    }
+
+    @Test
+    public void testRerank() throws IOException {
+
+        List<Kvs> byReads = kvs.getKvsSortedByReadLatency();
+        List<Kvs> snapshot = new ArrayList<Kvs>(byReads);
+
+        Kvs provider = kvs.getKvsList().get(0);
+        String key = this.TEST_KEY_PREFIX + new BigInteger(50, this.random).toString(32);
+        kvs.put(provider, key, new byte[10]);
+        kvs.get(provider, key);
+        kvs.rerank();
+
+        // new rankings are published, the ones handed out are left untouched
+        assertTrue(byReads != kvs.getKvsSortedByReadLatency());
+        assertEquals(snapshot, byReads);
+        assertEquals(kvs.getKvsList().size(), kvs.getKvsSortedByReadLatency().size());
+        assertTrue(provider.getReadLatency() >= 0);
+        kvs.delete(provider, key);
+    }
+
+    @Test
+    public void testRankingSnapshots() {
+
+        List<Kvs> byReads = kvs.getKvsSortedByReadLatency();
+        try {
+            byReads.retainAll(new ArrayList<Kvs>());
+            fail();
+        } catch (UnsupportedOperationException e) { }
+
+        List<Kvs> replicas = Arrays.asList(kvs.getKvsList().get(0));
+        List<Kvs> subset = kvs.getKvsSortedByReadLatency(replicas);
+        for (Kvs kvStore : subset)
+            assertTrue(replicas.contains(kvStore));
+        // the subsets of a snapshot are computed once
+        assertTrue(subset == kvs.getKvsSortedByReadLatency(replicas));
+        assertTrue(kvs.getKvsSortedByReadLatency(new ArrayList<Kvs>()).isEmpty());
+    }
+
+    @Test
+    public void testCancelAsyncPut() throws Exception {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        Kvs slow = new Kvs("slow", KVS_ROOT, true, 0) {
+            public void put(String key, byte[] value) {
+                started.countDown();
+                try {
+                    Thread.sleep(60000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        };
+
+        CompletableFuture<Kvs> upload = kvs.putAsync(slow, this.TEST_KEY_PREFIX + "slow", new byte[10]);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(upload.cancel(true));
+        // cancelling a running upload interrupts it
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
     @Test
     public void testOverwrite() {
 
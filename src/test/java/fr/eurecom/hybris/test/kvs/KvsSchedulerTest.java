@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2013 EURECOM (www.eurecom.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.eurecom.hybris.test.kvs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import fr.eurecom.hybris.kvs.KvsScheduler;
+import fr.eurecom.hybris.kvs.drivers.Kvs;
+import fr.eurecom.hybris.test.HybrisAbstractTest;
+
+public class KvsSchedulerTest extends HybrisAbstractTest {
+
+    @Test
+    public void testPerKvsFairness() throws Exception {
+
+        final int threadsPerKvs = 2;
+        KvsScheduler scheduler = new KvsScheduler(8, threadsPerKvs);
+        Kvs slow = new Kvs("slow", null, true, 0);
+        Kvs fast = new Kvs("fast", null, true, 0);
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        // saturate the lane of the slow KvStore
+        for (int i=0; i<10; i++)
+            scheduler.execute(slow, new Runnable() {
+                public void run() {
+                    int r = running.incrementAndGet();
+                    maxRunning.accumulateAndGet(r, Math::max);
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) { }
+                    running.decrementAndGet();
+                }
+            });
+
+        // tasks for another KvStore must not wait for the slow ones
+        FutureTask<Object> f = new FutureTask<Object>(new Runnable() { public void run() { } }, null);
+        scheduler.execute(fast, f);
+        f.get(5, TimeUnit.SECONDS);
+        assertTrue(maxRunning.get() <= threadsPerKvs);
+
+        release.countDown();
+        scheduler.shutdown();
+        assertEquals(0, running.get());
+    }
+
+    @Test
+    public void testShutdown() {
+
+        KvsScheduler scheduler = new KvsScheduler(1, 1);
+        scheduler.shutdown();
+        assertTrue(scheduler.isShutdown());
+        try {
+            scheduler.execute(new Kvs("kvs", null, true, 0), new Runnable() { public void run() { } });
+            fail();
+        } catch (RejectedExecutionException e) { }
+    }
+}
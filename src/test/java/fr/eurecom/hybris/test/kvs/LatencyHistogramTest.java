@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2013 EURECOM (www.eurecom.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.eurecom.hybris.test.kvs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import fr.eurecom.hybris.kvs.LatencyHistogram;
+import fr.eurecom.hybris.test.HybrisAbstractTest;
+
+public class LatencyHistogramTest extends HybrisAbstractTest {
+
+    @Test
+    public void testPercentiles() {
+
+        LatencyHistogram hist = new LatencyHistogram();
+        assertEquals(-1, hist.getPercentile(50));
+
+        for (int i=1; i<=100; i++)
+            hist.record(i);
+        assertEquals(100, hist.getCount());
+
+        // percentiles are upper bounds, within one bucket (~19%) of the actual value
+        long p50 = hist.getPercentile(50);
+        assertTrue(p50 >= 50 && p50 <= 60);
+        long p95 = hist.getPercentile(95);
+        assertTrue(p95 >= 95 && p95 <= 114);
+        assertTrue(hist.getPercentile(100) >= 100);
+
+        hist.record(Long.MAX_VALUE);    // out of range values fall in the last bucket
+        assertTrue(hist.getPercentile(100) > 100);
+
+        hist.reset();
+        assertEquals(0, hist.getCount());
+    }
+}
@@ -29,6 +29,7 @@ import java.util.List;
 
 import org.junit.Test;
 
+import fr.eurecom.hybris.EcCodec.Technique;
 import fr.eurecom.hybris.Utils;
 import fr.eurecom.hybris.kvs.drivers.Kvs;
 import fr.eurecom.hybris.kvs.drivers.TransientKvs;
@@ -78,6 +79,40 @@ public class MetadataTest extends HybrisAbstractTest {
         assertEquals(ts, mddes.getTs());
     }
     
+    @Test
+    public void testPartsSerialization() {
+
+        Timestamp ts = new Timestamp(this.random.nextInt(100), Utils.generateClientId());
+        byte[][] partsHashes = new byte[100][Utils.HASH_LENGTH];     // larger than the initial buffer
+        for (int i=0; i<partsHashes.length; i++)
+            this.random.nextBytes(partsHashes[i]);
+        List<Kvs> replicas = new ArrayList<Kvs>();
+        replicas.add(new TransientKvs("transient", "container", true, 20));
+        replicas.add(new TransientKvs("transient", "container", true, 20));
+        Metadata md = new Metadata(ts, partsHashes, 1024, replicas, 100 * 1024 - 10, null);
+
+        byte[] serialized = md.serialize();
+        System.out.println("Parts metadata size (B): " + serialized.length);
+
+        Metadata mddes = new Metadata(serialized);
+        assertEquals(md, mddes);
+        assertEquals(Metadata.MetadataType.PARTS, mddes.getType());
+        assertEquals(1024, mddes.getPartSize());
+        assertEquals(100 * 1024 - 10, mddes.getSize());
+        for (int i=0; i<partsHashes.length; i++)
+            assertArrayEquals(partsHashes[i], mddes.getPartsHashes()[i]);
+        assertNull(mddes.getCryptoKey());
+        assertFalse(mddes.isTombstone());
+
+        // values stored in parts may exceed 2 GiB
+        long size = 100L * 64 * 1024 * 1024 - 10;
+        md = new Metadata(ts, partsHashes, 64 * 1024 * 1024, replicas, size, null);
+        mddes = new Metadata(md.serialize());
+        assertEquals(md, mddes);
+        assertEquals(size, mddes.getSize());
+        assertTrue(mddes.getSize() > Integer.MAX_VALUE);
+    }
+
     @Test
     public void testEcSerialization() {
 
@@ -119,6 +154,25 @@ public class MetadataTest extends HybrisAbstractTest {
             assertArrayEquals(chunksHashes[i], mddes.getChunksHashes()[i]);
         assertEquals(size, mddes.getSize());
         assertEquals(ts, mddes.getTs());
+        assertEquals(Technique.REED_SOL_VAN, mddes.getEcTechnique());
+
+        // the technique is recorded
+        Metadata cauchyMd = new Metadata(ts, chunksHashes, Technique.CAUCHY, replicas, size, cryptoKey);
+        mddes = new Metadata(cauchyMd.serialize());
+        assertEquals(cauchyMd, mddes);
+        assertEquals(Technique.CAUCHY, mddes.getEcTechnique());
+        assertNotEquals(md, mddes);
+
+        // unknown technique codes are rejected
+        byte[] raw = md.serialize(), cauchyRaw = cauchyMd.serialize();
+        int typeIdx = 0;
+        while (raw[typeIdx] == cauchyRaw[typeIdx])
+            typeIdx++;
+        cauchyRaw[typeIdx + 1] = 0x7f;
+        try {
+            new Metadata(cauchyRaw);
+            fail();
+        } catch (IllegalArgumentException e) { }
     }
 
     @Test
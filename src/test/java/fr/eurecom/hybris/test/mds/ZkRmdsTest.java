@@ -31,6 +31,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.curator.test.TestingServer;
 import org.apache.zookeeper.KeeperException;
@@ -108,6 +109,36 @@ public class ZkRmdsTest extends HybrisAbstractTest {
         assertTrue(md.isTombstone());
     }
 
+    @Test
+    public void testAsyncWriteAndRead() throws Exception {
+
+        String cid = Utils.generateClientId();
+        String key = this.TEST_KEY_PREFIX + new BigInteger(50, this.random).toString(32);
+        Timestamp ts = new Timestamp(new BigInteger(10, this.random).intValue(), cid);
+        byte[] hash = new byte[Utils.HASH_LENGTH];
+        this.random.nextBytes(hash);
+        List<Kvs> replicas = new ArrayList<Kvs>();
+        replicas.add(new TransientKvs("transient", "container", true, 20));
+        Metadata md = new Metadata(ts, hash, 0, replicas, null);
+
+        Stat stat = new Stat();
+        assertNull(mds.tsReadAsync(key, stat).get(5, TimeUnit.SECONDS));
+        assertFalse(mds.tsWriteAsync(key, md, ZkRmds.NONODE).get(5, TimeUnit.SECONDS));
+
+        md = mds.tsReadAsync(key, stat).get(5, TimeUnit.SECONDS);
+        assertEquals(ts, md.getTs());
+        assertArrayEquals(hash, md.getHash());
+        assertEquals(0, stat.getVersion());
+
+        // a stale version is retried, as long as the timestamp is greater
+        ts.inc(cid);
+        assertTrue(mds.tsWriteAsync(key, new Metadata(ts, hash, 0, replicas, null), ZkRmds.NONODE)
+                .get(5, TimeUnit.SECONDS));
+        md = mds.tsReadAsync(key, stat).get(5, TimeUnit.SECONDS);
+        assertEquals(ts, md.getTs());
+        assertEquals(1, stat.getVersion());
+    }
+
     @Test
     public void testOverwrite() throws HybrisException {
 